@@ -0,0 +1,55 @@
+package medianotetaker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+
+/*
+An atomic file write replaces a whole file so that it's never seen, even
+after a crash, half written: the new contents go to a temporary file in
+the same directory, which is synced to the disk and then moved over the
+file in one step. The file has either its old contents or its new ones.
+*/
+final class AtomicFile {
+
+    /*
+    The contents of a file, written to out. out shouldn't be closed; it's
+    synced and closed once they're written.
+    */
+    interface Contents {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private AtomicFile() {
+    }
+
+    /*
+    replace file with contents, creating its directory if there isn't one;
+    if writing fails, file is left as it was
+
+    requires: file, contents != null
+    */
+    static void write(final File file, final Contents contents)
+            throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Couldn't create " + dir);
+        }
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                contents.writeTo(out);
+                out.getFD().sync();
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package medianotetaker;
+
+import java.io.IOException;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javafx.application.Platform;
+
+
+/*
+The autosave service saves the progress of the current session in the
+background. Whenever the user adds or edits a marker the session is marked
+dirty, and a save is scheduled no sooner than the save interval after the
+previous one started, so a burst of edits results in a single save.
+
+A save happens in two steps: on the JavaFX Application Thread a snapshot is
+taken--the list of the markers' infos, which are never changed once made
+(see MediaNoteTaker.processNoteInformation), and the indices of the markers
+that changed--and the snapshot is then written through the progress
+journal on the service's own thread, so editing never waits for the disk.
+Each save also updates the progress's entry in the progress catalog, if
+the service has one and the progress isn't encrypted.
+
+The latency of the saves and the number of saves waiting to be written are
+kept for monitoring, and shown to the user on request (see status).
+*/
+final class AutosaveService {
+
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService writer;
+
+    // only used on the JavaFX Application Thread
+    private ProgressJournal journal;
+    private MediaNoteTaker noteTaker;
+    private Supplier<NoteProgress> snapshotter;
+    private boolean dirty, scheduled;
+    private long lastSnapshotMillis;
+
+    // updated by the writer thread
+    private final AtomicInteger queueDepth;
+    private volatile long lastLatencyNanos, totalLatencyNanos, maxLatencyNanos;
+    private volatile int saveCount, failureCount;
+    private volatile IOException lastFailure;
+    // only used on the writer thread: whether the last save failed
+    private boolean failing;
+    private volatile Consumer<IOException> onFailure;
+    private volatile ProgressCatalog catalog;
+
+    /*
+    constructor: create the service, which saves at most once every
+    intervalSeconds seconds
+
+    requires: intervalSeconds > 0
+    */
+    AutosaveService(final long intervalSeconds) {
+        intervalMillis = TimeUnit.SECONDS.toMillis(intervalSeconds);
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                (Runnable r) -> makeDaemon(r, "Autosave scheduler"));
+        writer = Executors.newSingleThreadExecutor(
+                (Runnable r) -> makeDaemon(r, "Autosave writer"));
+        queueDepth = new AtomicInteger();
+        lastSnapshotMillis = 0;
+    }
+
+    // return a daemon thread named name that runs r
+    private static Thread makeDaemon(final Runnable r, final String name) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /*
+    start autosaving the markers of noteTaker to journal; snapshotter is
+    called on the JavaFX Application Thread and should return the progress
+    holding the current markers' infos. Whatever the service was saving
+    before is saved one last time first.
+
+    requires: journal, noteTaker, snapshotter != null
+              called on the JavaFX Application Thread
+    */
+    void bind(final ProgressJournal journal, final MediaNoteTaker noteTaker,
+            final Supplier<NoteProgress> snapshotter) {
+        unbind();
+        this.journal = journal;
+        this.noteTaker = noteTaker;
+        this.snapshotter = snapshotter;
+        noteTaker.setOnMarkersChanged(this::markDirty);
+    }
+
+    /*
+    save whatever hasn't been saved yet and stop autosaving the current
+    session
+
+    requires: called on the JavaFX Application Thread
+    */
+    void unbind() {
+        if (journal != null) {
+            saveNow();
+            noteTaker.setOnMarkersChanged(null);
+        }
+        journal = null;
+        noteTaker = null;
+        snapshotter = null;
+        dirty = false;
+    }
+
+    /*
+    keep the entries of saved progress in catalog up to date (or stop, if
+    catalog is null)
+    */
+    void setCatalog(final ProgressCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    /*
+    call onFailure (on the JavaFX Application Thread) with the reason when
+    a save fails after one that didn't, so the user hears of it once
+    rather than on every try
+    */
+    void setOnFailure(final Consumer<IOException> onFailure) {
+        this.onFailure = onFailure;
+    }
+
+    // return the journal the current session is saved to, or null
+    ProgressJournal getJournal() {
+        return journal;
+    }
+
+    /*
+    mark the session as having unsaved changes and schedule a save
+
+    requires: called on the JavaFX Application Thread
+    */
+    void markDirty() {
+        dirty = true;
+        if (scheduled || journal == null) {
+            return;
+        }
+        scheduled = true;
+        long delay = Math.max(0, lastSnapshotMillis + intervalMillis
+                - System.currentTimeMillis());
+        scheduler.schedule(() -> {
+            Platform.runLater(this::saveIfDirty);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+    take a snapshot of the session right away and queue it for writing,
+    even if nothing seems to have changed (e.g. for the first save to a
+    new file)
+
+    requires: called on the JavaFX Application Thread
+    */
+    void saveNow() {
+        if (journal == null) {
+            return;
+        }
+        dirty = true;
+        saveIfDirty();
+    }
+
+    // take a snapshot and queue it for writing if there are unsaved changes
+    private void saveIfDirty() {
+        scheduled = false;
+        if (!dirty || journal == null) {
+            return;
+        }
+        dirty = false;
+        lastSnapshotMillis = System.currentTimeMillis();
+
+        NoteProgress snapshot = snapshotter.get();
+        TreeSet<Integer> changed = new TreeSet(noteTaker.getChangedMarkers());
+        noteTaker.clearChangedMarkers();
+        ProgressJournal target = journal;
+        MediaNoteTaker owner = noteTaker;
+
+        queueDepth.incrementAndGet();
+        writer.execute(() -> {
+            write(target, owner, snapshot, changed);
+        });
+    }
+
+    /*
+    write snapshot through target on the writer thread; if that fails the
+    changes are handed back to owner so the next save tries them again
+    */
+    private void write(final ProgressJournal target, final MediaNoteTaker owner,
+            final NoteProgress snapshot, final TreeSet<Integer> changed) {
+        long start = System.nanoTime();
+        try {
+            target.save(snapshot, changed);
+            recordLatency(System.nanoTime() - start);
+            updateCatalog(target, snapshot);
+            failing = false;
+        } catch (IOException ex) {
+            lastFailure = ex;
+            ++failureCount;
+            Consumer<IOException> report = failing ? null : onFailure;
+            failing = true;
+            Platform.runLater(() -> {
+                owner.getChangedMarkers().addAll(changed);
+                if (target == journal) {
+                    markDirty();
+                }
+                if (report != null) {
+                    report.accept(ex);
+                }
+            });
+        } finally {
+            queueDepth.decrementAndGet();
+        }
+    }
+
+    /*
+    update the catalog entry of the progress just saved through target; the
+    progress itself is saved even if the catalog can't be updated
+    */
+    private void updateCatalog(final ProgressJournal target,
+            final NoteProgress snapshot) {
+        ProgressCatalog current = catalog;
+        // the catalog isn't encrypted, so it doesn't list encrypted progress
+        if (current == null || target.isEncrypted()) {
+            return;
+        }
+        try {
+            current.update(target.getProgressFile(), snapshot);
+        } catch (IOException ex) {
+        }
+    }
+
+    // remember how long a successful save took
+    private void recordLatency(final long nanos) {
+        lastLatencyNanos = nanos;
+        totalLatencyNanos += nanos;
+        maxLatencyNanos = Math.max(maxLatencyNanos, nanos);
+        ++saveCount;
+    }
+
+    /*
+    save what's unsaved, then wait up to timeoutMillis for the queued saves
+    to be written and stop the service
+
+    requires: called on the JavaFX Application Thread
+    */
+    void shutdown(final long timeoutMillis) {
+        unbind();
+        scheduler.shutdownNow();
+        writer.shutdown();
+        try {
+            writer.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+    return a summary of the saves so far, one fact per line, for showing
+    the user: how many were written and how fast, how many failed (and
+    why, the last time) and how many are waiting to be written
+    */
+    String status() {
+        StringBuilder status = new StringBuilder();
+        status.append(String.format("Saved %d times, last in %.1f ms "
+                + "(%.1f ms on average, %.1f ms at most)%n", getSaveCount(),
+                getLastSaveLatencyMillis(), getAverageSaveLatencyMillis(),
+                getMaxSaveLatencyMillis()));
+        status.append(String.format("Saves waiting to be written: %d%n",
+                getQueueDepth()));
+        status.append(String.format("Failed saves: %d", getFailureCount()));
+        IOException failure = getLastFailure();
+        if (failure != null) {
+            status.append(String.format("%nLast failure: %s",
+                    failure.getMessage()));
+        }
+        return status.toString();
+    }
+
+    // return the number of snapshots waiting to be (or being) written
+    int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    // return the number of saves written successfully so far
+    int getSaveCount() {
+        return saveCount;
+    }
+
+    // return the number of saves that failed so far
+    int getFailureCount() {
+        return failureCount;
+    }
+
+    // return the reason the last failed save failed, or null
+    IOException getLastFailure() {
+        return lastFailure;
+    }
+
+    // return how long the last successful save took to write, in ms
+    double getLastSaveLatencyMillis() {
+        return lastLatencyNanos / 1e6;
+    }
+
+    // return how long the successful saves took to write on average, in ms
+    double getAverageSaveLatencyMillis() {
+        int count = saveCount;
+        return count == 0 ? 0 : totalLatencyNanos / 1e6 / count;
+    }
+
+    // return how long the slowest successful save took to write, in ms
+    double getMaxSaveLatencyMillis() {
+        return maxLatencyNanos / 1e6;
+    }
+}
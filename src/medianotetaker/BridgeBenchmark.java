@@ -0,0 +1,160 @@
+package medianotetaker;
+
+import java.util.List;
+import javafx.animation.PauseTransition;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.event.ActionEvent;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+
+
+/*
+The bridge benchmark measures how long the YouTube note taker's calls
+between Java and the player page take, without the network: it plays a
+video on the offline player page (a simulated one unless --video names a
+local video's URL), e.g.:
+
+    java medianotetaker.BridgeBenchmark --calls 20000 --video offline-3600
+
+Once the player is ready it makes --calls of each kind of call, in turn:
+    - reading the time from the page (a script round trip)
+    - reading the time off the bridge's clock (no script call)
+    - seeking, which has the page call back into the bridge
+    - pausing and playing
+then lets the video play for --play seconds and checks how far the
+bridge's clock is from the page's. It prints the latency histograms of
+every kind of call, how many of each were made a second, and the clock
+error, and exits.
+*/
+public final class BridgeBenchmark extends Application {
+
+    private YouTubeNoteTaker noteTaker;
+    private int calls;
+    private double playSeconds;
+
+    public static void main(final String[] args) {
+        launch(args);
+    }
+
+    @Override
+    public void start(final Stage stage) {
+        calls = 10000;
+        playSeconds = 3;
+        String video = "offline-3600";
+        List<String> args = getParameters().getRaw();
+        try {
+            for (int i = 0; i < args.size(); ++i) {
+                switch (args.get(i)) {
+                    case "--calls":
+                        calls = Integer.parseInt(args.get(++i));
+                        break;
+                    case "--play":
+                        playSeconds = Double.parseDouble(args.get(++i));
+                        break;
+                    case "--video":
+                        video = args.get(++i);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(args.get(i));
+                }
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException ex) {
+            System.err.println("usage: BridgeBenchmark [--calls <n>] "
+                    + "[--play <seconds>] [--video <ID or URL>]");
+            Platform.exit();
+            return;
+        }
+
+        noteTaker = new YouTubeNoteTaker(800, 600);
+        noteTaker.setPlayerPage(YouTubeNoteTaker.OFFLINE_PLAYER_PAGE);
+        noteTaker.setOnPlayerReady(this::run);
+        stage.setScene(new Scene(noteTaker, 800, 600));
+        stage.setTitle("Bridge benchmark");
+        stage.show();
+        noteTaker.startPlaying(video);
+    }
+
+    // make the calls, then let the video play before checking the clock
+    private void run() {
+        // warm up the page, the bridge and the compiler first
+        measure(Math.min(calls, 1000));
+        for (LatencyHistogram latency : noteTaker.getScriptLatencies()) {
+            latency.clear();
+        }
+        System.out.println("Bridge benchmark: " + calls
+                + " calls of each kind");
+        measure(calls);
+
+        noteTaker.playVideo();
+        PauseTransition play = new PauseTransition(
+                Duration.seconds(playSeconds));
+        play.setOnFinished((ActionEvent event) -> {
+            checkClock();
+            for (LatencyHistogram latency : noteTaker.getScriptLatencies()) {
+                System.out.println("  " + latency);
+            }
+            noteTaker.stopVideo();
+            Platform.exit();
+        });
+        play.play();
+    }
+
+    // make count calls of each kind, printing how many were made a second
+    private void measure(final int count) {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+            noteTaker.script("getCurrentTime()");
+        }
+        report("page time", count, start);
+
+        LatencyHistogram clock = new LatencyHistogram("bridge clock");
+        start = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+            long before = System.nanoTime();
+            noteTaker.getCurrentTimeInVideo();
+            clock.record(System.nanoTime() - before);
+        }
+        report("bridge clock", count, start);
+
+        double duration = noteTaker.getTotalDuration().toMillis();
+        start = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+            noteTaker.seekInVideo(Duration.millis(duration * i / count));
+        }
+        report("seek", count, start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+            if (i % 2 == 0) {
+                noteTaker.pauseVideo();
+            } else {
+                noteTaker.playVideo();
+            }
+        }
+        report("pause/play", count, start);
+        if (count == calls) {
+            System.out.println("  " + clock);
+        }
+    }
+
+    // print how many of count calls, made from start on, were made a second
+    private void report(final String name, final int count,
+            final long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (count == calls) {
+            System.out.printf("  %-13s %10.0f calls/s%n", name,
+                    seconds > 0 ? count / seconds : 0.0);
+        }
+    }
+
+    // print how far the bridge's clock is from the page's
+    private void checkClock() {
+        double page = ((Number) noteTaker.script("getCurrentTime()"))
+                .doubleValue() * 1000;
+        double bridge = noteTaker.getCurrentTimeInVideo().toMillis();
+        System.out.printf("  clock error after %.1f s of play: %.1f ms%n",
+                playSeconds, bridge - page);
+    }
+}
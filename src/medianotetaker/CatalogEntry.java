@@ -0,0 +1,171 @@
+package medianotetaker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import static medianotetaker.ProgressFileFormat.readCount;
+import static medianotetaker.ProgressFileFormat.readString;
+import static medianotetaker.ProgressFileFormat.readVarLong;
+import static medianotetaker.ProgressFileFormat.writeString;
+import static medianotetaker.ProgressFileFormat.writeVarLong;
+
+
+/*
+A catalog entry summarizes one saved progress for the progress library:
+which file it's in, the media it was made on, how many markers of each
+type it has, and when the file was last changed. Entries are immutable.
+*/
+final class CatalogEntry {
+
+    // the marker types, in the order their counts are kept
+    static final String[] TYPES = {MediaNoteTaker.RED_TYPE,
+        MediaNoteTaker.DARKVIOLET_TYPE, MediaNoteTaker.BLUE_TYPE,
+        MediaNoteTaker.GREEN_TYPE};
+
+    // the short names of the marker types, in the same order
+    static final String[] TYPE_NAMES = {"Barely", "Some", "Majority",
+        "Extra"};
+
+    private final String progressPath, mediaName, mediaSource;
+    private final boolean forLocalMedia;
+    private final long durationMillis, lastModified;
+    private final int markerCount;
+    private final int[] typeCounts;
+
+    /*
+    constructor: create the entry from all its fields; durationMillis is
+    negative if the duration isn't known
+
+    requires: progressPath != null
+              typeCounts.length == TYPES.length
+    */
+    CatalogEntry(final String progressPath, final String mediaName,
+            final String mediaSource, final boolean forLocalMedia,
+            final long durationMillis, final int markerCount,
+            final int[] typeCounts, final long lastModified) {
+        this.progressPath = progressPath;
+        this.mediaName = mediaName;
+        this.mediaSource = mediaSource;
+        this.forLocalMedia = forLocalMedia;
+        this.durationMillis = durationMillis;
+        this.markerCount = markerCount;
+        this.typeCounts = typeCounts;
+        this.lastModified = lastModified;
+    }
+
+    /*
+    return the entry for progress, which is saved in file; the note
+    bodies of progress aren't read
+
+    requires: file, progress != null
+              progress.getInfoList() != null
+    */
+    static CatalogEntry of(final File file, final NoteProgress progress) {
+        int[] counts = new int[TYPES.length];
+        for (NoteMarkerInfo info : progress.getInfoList()) {
+            int type = typeIndex(info.getType());
+            if (type >= 0) {
+                ++counts[type];
+            }
+        }
+        long duration = progress.getTotalDuration() == null ? -1
+                : ProgressFileFormat.toMillis(progress.getTotalDuration());
+        return new CatalogEntry(file.getAbsolutePath(),
+                progress.getMediaName(), progress.getMediaSource(),
+                progress.isForLocalMedia(), duration,
+                progress.getInfoList().size(), counts,
+                ProgressJournal.lastSaved(file));
+    }
+
+    // return the index of type in TYPES, or -1 if it's not one of them
+    static int typeIndex(final String type) {
+        for (int i = 0; i < TYPES.length; ++i) {
+            if (TYPES[i].equals(type)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // write the entry to out
+    void write(final DataOutputStream out) throws IOException {
+        writeString(out, progressPath);
+        writeString(out, mediaName);
+        writeString(out, mediaSource);
+        out.writeBoolean(forLocalMedia);
+        writeVarLong(out, durationMillis + 1);
+        writeVarLong(out, markerCount);
+        for (int count : typeCounts) {
+            writeVarLong(out, count);
+        }
+        out.writeLong(lastModified);
+    }
+
+    // read and return an entry written by write
+    static CatalogEntry read(final DataInputStream in) throws IOException {
+        String progressPath = readString(in);
+        String mediaName = readString(in);
+        String mediaSource = readString(in);
+        boolean forLocalMedia = in.readBoolean();
+        long durationMillis = readVarLong(in) - 1;
+        int markerCount = readCount(in);
+        int[] typeCounts = new int[TYPES.length];
+        for (int i = 0; i < typeCounts.length; ++i) {
+            typeCounts[i] = readCount(in);
+        }
+        long lastModified = in.readLong();
+        return new CatalogEntry(progressPath, mediaName, mediaSource,
+                forLocalMedia, durationMillis, markerCount, typeCounts,
+                lastModified);
+    }
+
+    // return the path of the progress file
+    String getProgressPath() {
+        return progressPath;
+    }
+
+    // return the progress file
+    File getProgressFile() {
+        return new File(progressPath);
+    }
+
+    // return the name of the media
+    String getMediaName() {
+        return mediaName;
+    }
+
+    // return where the media is (a file URI or a YouTube video ID)
+    String getMediaSource() {
+        return mediaSource;
+    }
+
+    // return whether the media is local or from YouTube
+    boolean isForLocalMedia() {
+        return forLocalMedia;
+    }
+
+    // return the duration of the media in ms, or -1 if it's not known
+    long getDurationMillis() {
+        return durationMillis;
+    }
+
+    // return the number of markers in the progress
+    int getMarkerCount() {
+        return markerCount;
+    }
+
+    /*
+    return the number of markers of the type TYPES[type]
+
+    requires: 0 <= type < TYPES.length
+    */
+    int getTypeCount(final int type) {
+        return typeCounts[type];
+    }
+
+    // return when the progress file was last changed, in ms since epoch
+    long getLastModified() {
+        return lastModified;
+    }
+}
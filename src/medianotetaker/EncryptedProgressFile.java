@@ -0,0 +1,421 @@
+package medianotetaker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import javax.crypto.AEADBadTagException;
+
+
+/*
+An encrypted progress file holds a progress in the binary progress format,
+encrypted and authenticated with AES-GCM in blocks of BLOCK_SIZE bytes, so
+it can be written and read as a stream in constant memory, and any part of
+it (e.g. a single note body) can be read by decrypting only the blocks it
+lies in. The file is laid out as:
+    - a header: the magic number, the version, the PBKDF2 iteration count
+      and salt of the key (see ProgressKey), a random nonce, and the
+      block size
+    - the blocks, each the encrypted bytes followed by the GCM tag
+Each block is encrypted under the file's nonce followed by the block's
+index, and the header, the block's index and whether it's the last block
+are authenticated along with it, so blocks can't be reordered, swapped
+between files or cut off the end without it being noticed. A new nonce is
+chosen every time a file is written.
+*/
+final class EncryptedProgressFile {
+
+    static final int MAGIC = 0x4D4E5445; // "MNTE"
+    static final int VERSION = 1;
+    static final int BLOCK_SIZE = 64 * 1024;
+    static final int NONCE_LENGTH = 8;
+    static final int HEADER_LENGTH = 4 + 1 + 4 + ProgressKey.SALT_LENGTH
+            + NONCE_LENGTH + 4;
+
+    private EncryptedProgressFile() {
+    }
+
+    /*
+    return true if file starts with the magic number of an encrypted
+    progress file
+
+    requires: file != null
+    */
+    static boolean isEncrypted(final File file) {
+        try (DataInputStream in = new DataInputStream(
+                new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /*
+    derive the key of the encrypted progress in file from passphrase, and
+    return it, or null if the passphrase is wrong; passphrase is wiped
+    afterwards
+
+    requires: file != null is an encrypted progress file
+              passphrase != null
+    */
+    static ProgressKey unlock(final File file, final char[] passphrase)
+            throws IOException, GeneralSecurityException {
+        byte[] header = new byte[HEADER_LENGTH];
+        try (DataInputStream in = new DataInputStream(
+                new FileInputStream(file))) {
+            in.readFully(header);
+        }
+        DataInputStream fields = new DataInputStream(
+                new ByteArrayInputStream(header));
+        if (fields.readInt() != MAGIC) {
+            throw new IOException("Not an encrypted progress file");
+        }
+        if (fields.readUnsignedByte() > VERSION) {
+            throw new IOException("Unsupported encrypted progress version");
+        }
+        int iterations = fields.readInt();
+        byte[] salt = new byte[ProgressKey.SALT_LENGTH];
+        fields.readFully(salt);
+        if (iterations <= 0) {
+            throw new IOException("Encrypted progress file is corrupted");
+        }
+        ProgressKey key = ProgressKey.derive(passphrase, salt, iterations);
+        try (BlockReader reader = new BlockReader(file, key)) {
+            reader.block(0);
+        } catch (AEADBadTagException ex) {
+            return null;
+        }
+        return key;
+    }
+
+    /*
+    return a stream that encrypts what's written to it into out as an
+    encrypted progress file with key; finish (or close) the stream to
+    write the last block
+
+    requires: out, key != null
+    */
+    static EncryptingOutputStream encrypt(final OutputStream out,
+            final ProgressKey key) throws IOException {
+        return new EncryptingOutputStream(out, key);
+    }
+
+    /*
+    return a stream of the decrypted contents of file, an encrypted
+    progress file encrypted with key; a block that doesn't authenticate is
+    reported as an IOException when it's reached
+
+    requires: file, key != null
+    */
+    static InputStream decrypt(final File file, final ProgressKey key)
+            throws IOException {
+        return new DecryptingInputStream(new BlockReader(file, key));
+    }
+
+    // return the additional data authenticated with block index
+    private static byte[] blockAad(final byte[] header, final long index,
+            final boolean last) {
+        return ByteBuffer.allocate(header.length + 9).put(header)
+                .putLong(index).put((byte) (last ? 1 : 0)).array();
+    }
+
+    // return the iv block index is encrypted under
+    private static byte[] blockIv(final byte[] nonce, final long index) {
+        return ByteBuffer.allocate(ProgressKey.IV_LENGTH).put(nonce)
+                .putInt((int) index).array();
+    }
+
+    /*
+    An encrypting output stream encrypts the bytes written to it block by
+    block; a full block is only encrypted once more bytes follow it, since
+    the last block is marked as such.
+    */
+    static final class EncryptingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private final ProgressKey key;
+        private final byte[] header, nonce, block;
+        private int filled;
+        private long index;
+        private boolean finished;
+
+        private EncryptingOutputStream(final OutputStream out,
+                final ProgressKey key) throws IOException {
+            this.out = out;
+            this.key = key;
+            nonce = ProgressKey.randomBytes(NONCE_LENGTH);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeInt(MAGIC);
+            data.writeByte(VERSION);
+            data.writeInt(key.getIterations());
+            data.write(key.getSalt());
+            data.write(nonce);
+            data.writeInt(BLOCK_SIZE);
+            header = bytes.toByteArray();
+            out.write(header);
+            block = new byte[BLOCK_SIZE];
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, int off, int len)
+                throws IOException {
+            if (finished) {
+                throw new IOException("Stream has been finished");
+            }
+            while (len > 0) {
+                if (filled == BLOCK_SIZE) {
+                    sealBlock(false);
+                }
+                int n = Math.min(len, BLOCK_SIZE - filled);
+                System.arraycopy(b, off, block, filled, n);
+                filled += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        // only flushes what's been encrypted so far
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /*
+        encrypt and write the last block, which completes the file; out is
+        flushed but not closed
+        */
+        void finish() throws IOException {
+            if (!finished) {
+                sealBlock(true);
+                finished = true;
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                finish();
+            } finally {
+                out.close();
+            }
+        }
+
+        // encrypt and write the bytes in block as the next block
+        private void sealBlock(final boolean last) throws IOException {
+            try {
+                out.write(key.cipher(true, blockIv(nonce, index),
+                        blockAad(header, index, last))
+                        .doFinal(block, 0, filled));
+            } catch (GeneralSecurityException ex) {
+                throw new IOException("Couldn't encrypt the progress", ex);
+            }
+            ++index;
+            filled = 0;
+        }
+    }
+
+    /*
+    A block reader decrypts single blocks of an encrypted progress file on
+    demand, and through them any range of its decrypted contents; the
+    block read last is kept so that reading a range piece by piece only
+    decrypts each block once.
+    */
+    static final class BlockReader implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final ProgressKey key;
+        private final byte[] header, nonce;
+        private final long blockCount;
+        private long cachedIndex;
+        private byte[] cachedBlock;
+
+        /*
+        constructor: open file, an encrypted progress file encrypted with
+        key, for reading
+
+        requires: file, key != null
+        */
+        BlockReader(final File file, final ProgressKey key)
+                throws IOException {
+            this.key = key;
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                header = new byte[HEADER_LENGTH];
+                readFully(ByteBuffer.wrap(header), 0);
+                ByteBuffer fields = ByteBuffer.wrap(header);
+                if (fields.getInt() != MAGIC
+                        || (fields.get() & 0xFF) > VERSION) {
+                    throw new IOException("Not an encrypted progress file");
+                }
+                fields.position(fields.position() + 4
+                        + ProgressKey.SALT_LENGTH);
+                nonce = new byte[NONCE_LENGTH];
+                fields.get(nonce);
+                if (fields.getInt() != BLOCK_SIZE) {
+                    throw new IOException("Unsupported block size");
+                }
+                long stored = BLOCK_SIZE + ProgressKey.TAG_LENGTH;
+                long body = channel.size() - HEADER_LENGTH;
+                blockCount = (body + stored - 1) / stored;
+                if (blockCount == 0 || body - (blockCount - 1) * stored
+                        < ProgressKey.TAG_LENGTH) {
+                    throw new EOFException("Encrypted progress is truncated");
+                }
+            } catch (IOException ex) {
+                channel.close();
+                throw ex;
+            }
+            cachedIndex = -1;
+        }
+
+        /*
+        return the decrypted block index; an AEADBadTagException is thrown
+        if it doesn't authenticate
+
+        requires: 0 <= index
+        */
+        byte[] block(final long index) throws IOException,
+                GeneralSecurityException {
+            if (index == cachedIndex) {
+                return cachedBlock;
+            }
+            if (index >= blockCount) {
+                throw new EOFException("Past the end of the progress");
+            }
+            long stored = BLOCK_SIZE + ProgressKey.TAG_LENGTH;
+            long start = HEADER_LENGTH + index * stored;
+            ByteBuffer sealed = ByteBuffer.allocate((int) Math.min(stored,
+                    channel.size() - start));
+            readFully(sealed, start);
+            boolean last = index == blockCount - 1;
+            cachedBlock = key.cipher(false, blockIv(nonce, index),
+                    blockAad(header, index, last)).doFinal(sealed.array());
+            cachedIndex = index;
+            return cachedBlock;
+        }
+
+        /*
+        copy up to len decrypted bytes from position on into b at off, and
+        return how many were copied, or -1 if position is past the end
+        */
+        int read(final byte[] b, final int off, final int len,
+                final long position) throws IOException {
+            long index = position / BLOCK_SIZE;
+            if (index >= blockCount) {
+                return -1;
+            }
+            byte[] plain;
+            try {
+                plain = block(index);
+            } catch (GeneralSecurityException ex) {
+                throw new IOException("Encrypted progress is corrupted", ex);
+            }
+            int from = (int) (position % BLOCK_SIZE);
+            if (from >= plain.length) {
+                return -1;
+            }
+            int n = Math.min(len, plain.length - from);
+            System.arraycopy(plain, from, b, off, n);
+            return n;
+        }
+
+        /*
+        copy the len decrypted bytes from position on into b, starting at
+        0; throw if the contents end before that
+        */
+        void readFully(final byte[] b, final long position)
+                throws IOException {
+            int done = 0;
+            while (done < b.length) {
+                int n = read(b, done, b.length - done, position + done);
+                if (n < 0) {
+                    throw new EOFException("Progress file is truncated");
+                }
+                done += n;
+            }
+        }
+
+        // read from the (encrypted) file into dst from position on
+        private void readFully(final ByteBuffer dst, final long position)
+                throws IOException {
+            while (dst.hasRemaining()) {
+                if (channel.read(dst, position + dst.position()) < 0) {
+                    throw new EOFException("Encrypted progress is truncated");
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            cachedBlock = null;
+            channel.close();
+        }
+    }
+
+    // reads the decrypted contents of a block reader from start to end
+    private static final class DecryptingInputStream extends InputStream {
+
+        private final BlockReader reader;
+        private long position, mark;
+
+        private DecryptingInputStream(final BlockReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len)
+                throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n = reader.read(b, off, len, position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(final int readlimit) {
+            mark = position;
+        }
+
+        @Override
+        public synchronized void reset() {
+            position = mark;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package medianotetaker;
+
+import java.io.Writer;
+import java.util.function.Function;
+
+
+/*
+the formats the notes of a progress can be exported in, each with the name
+shown to the user, the file extension, and the exporter that writes it
+*/
+enum ExportFormat {
+
+    TEXT("Text", ".txt", NoteExporter.TextExporter::new),
+    MARKDOWN("Markdown", ".md", NoteExporter.MarkdownExporter::new),
+    JSON("JSON", ".json", NoteExporter.JsonExporter::new),
+    CSV("CSV", ".csv", NoteExporter.CsvExporter::new),
+    WEBVTT("WebVTT subtitles", ".vtt", NoteExporter.WebVttExporter::new),
+    SRT("SubRip subtitles", ".srt", NoteExporter.SrtExporter::new);
+
+    private final String description, extension;
+    private final Function<Writer, NoteExporter> factory;
+
+    ExportFormat(final String description, final String extension,
+            final Function<Writer, NoteExporter> factory) {
+        this.description = description;
+        this.extension = extension;
+        this.factory = factory;
+    }
+
+    // return the name of the format shown to the user
+    String getDescription() {
+        return description;
+    }
+
+    // return the extension of files in this format, e.g. ".md"
+    String getExtension() {
+        return extension;
+    }
+
+    // return a new exporter that writes this format to out
+    NoteExporter newExporter(final Writer out) {
+        return factory.apply(out);
+    }
+
+    /*
+    return the format whose extension fileName ends with, or null if none
+    does
+
+    requires: fileName != null
+    */
+    static ExportFormat fromFileName(final String fileName) {
+        String name = fileName.toLowerCase();
+        for (ExportFormat format : values()) {
+            if (name.endsWith(format.extension)) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
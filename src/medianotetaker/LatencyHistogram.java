@@ -0,0 +1,86 @@
+package medianotetaker;
+
+import java.util.Arrays;
+
+
+/*
+A latency histogram counts how long something took (in ns), in buckets
+that each span a power of two, along with the total and the longest; its
+percentiles are thus within a factor of two, which is all that's needed
+to tell a 20 us call from a 2 ms one. Recording takes constant time and
+allocates nothing, so it can be done on every call.
+*/
+final class LatencyHistogram {
+
+    private final String name;
+    private final long[] buckets;
+    private long count, totalNanos, maxNanos;
+
+    // constructor: create an empty histogram of what name says
+    LatencyHistogram(final String name) {
+        this.name = name;
+        buckets = new long[64];
+    }
+
+    // return what the histogram is of
+    String getName() {
+        return name;
+    }
+
+    // count something that took nanos (negative counts as 0)
+    synchronized void record(final long nanos) {
+        long n = Math.max(0, nanos);
+        ++buckets[64 - Long.numberOfLeadingZeros(n)];
+        ++count;
+        totalNanos += n;
+        maxNanos = Math.max(maxNanos, n);
+    }
+
+    // return how many have been counted
+    synchronized long getCount() {
+        return count;
+    }
+
+    // return the mean in ns, or 0 if nothing has been counted
+    synchronized long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    // return the longest in ns
+    synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /*
+    return (the upper bound of the bucket of) the percentile p of what's
+    been counted in ns, or 0 if nothing has been
+
+    requires: 0 <= p <= 100
+    */
+    synchronized long getPercentileNanos(final double p) {
+        long rank = (long) Math.ceil(count * p / 100);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; ++i) {
+            seen += buckets[i];
+            if (seen >= Math.max(1, rank)) {
+                return i == 0 ? 0 : Math.min(maxNanos, (1L << i) - 1);
+            }
+        }
+        return 0;
+    }
+
+    // forget everything counted
+    synchronized void clear() {
+        Arrays.fill(buckets, 0);
+        count = totalNanos = maxNanos = 0;
+    }
+
+    // return a line summing the histogram up, in microseconds
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %d calls, mean %.1f \u00b5s, p50 %.1f "
+                + "\u00b5s, p99 %.1f \u00b5s, max %.1f \u00b5s", name, count,
+                getMeanNanos() / 1e3, getPercentileNanos(50) / 1e3,
+                getPercentileNanos(99) / 1e3, maxNanos / 1e3);
+    }
+}
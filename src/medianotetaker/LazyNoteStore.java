@@ -0,0 +1,151 @@
+package medianotetaker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+
+
+/*
+The lazy note store fetches note bodies from the indexed note region of a
+progress file on demand, so a progress can be shown before (or without)
+reading its notes. Recently fetched notes are kept in a small LRU cache
+that is bounded both by the number of notes and by their total length.
+
+Notes in an encrypted progress file are fetched by decrypting only the
+blocks they're in. The store is shared by all the note marker infos of one
+progress and can be used from any thread.
+*/
+final class LazyNoteStore {
+
+    static final int MAX_CACHED_NOTES = 256;
+    static final long MAX_CACHED_CHARS = 1 << 20;
+
+    private final File file;
+    private final ProgressKey key;
+    private final long[] offsets;
+    private final int[] storedLengths, rawLengths;
+    private final LinkedHashMap<Integer, String> cache;
+    private long cachedChars;
+    private FileChannel channel;
+    private EncryptedProgressFile.BlockReader decrypted;
+    private Inflater inflater;
+    private boolean closed;
+
+    /*
+    constructor: create the store for the notes of file, whose bodies
+    start at bodiesStart and have the given stored lengths (negative for
+    deflated notes, see ProgressFileFormat) and original lengths; if key
+    isn't null, file is encrypted with it and bodiesStart is an offset into
+    its decrypted contents
+
+    requires: file != null is a version 2 (or later) progress file
+              storedLengths.length == rawLengths.length
+    */
+    LazyNoteStore(final File file, final ProgressKey key,
+            final long bodiesStart, final int[] storedLengths,
+            final int[] rawLengths) {
+        this.file = file;
+        this.key = key;
+        this.storedLengths = storedLengths;
+        this.rawLengths = rawLengths;
+        offsets = new long[storedLengths.length];
+        long offset = bodiesStart;
+        for (int i = 0; i < storedLengths.length; ++i) {
+            offsets[i] = offset;
+            offset += storedLength(i);
+        }
+        cache = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<Integer, String> eldest) {
+                if (size() > MAX_CACHED_NOTES
+                        || cachedChars > MAX_CACHED_CHARS) {
+                    cachedChars -= eldest.getValue().length();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /*
+    return the note with index in the file (the index counts only the
+    markers that have a note), reading it from the file if it isn't cached
+
+    requires: 0 <= index < number of notes in the file
+    */
+    synchronized String load(final int index) throws IOException {
+        String note = cache.get(index);
+        if (note != null) {
+            return note;
+        }
+        if (closed) {
+            throw new IOException("The note store has been closed");
+        }
+        if (inflater == null) {
+            if (key == null) {
+                channel = FileChannel.open(file.toPath(),
+                        StandardOpenOption.READ);
+            } else {
+                decrypted = new EncryptedProgressFile.BlockReader(file, key);
+            }
+            inflater = new Inflater(true);
+        }
+        ByteBuffer body = ByteBuffer.allocate(storedLength(index));
+        long position = offsets[index];
+        if (decrypted != null) {
+            decrypted.readFully(body.array(), position);
+        } else {
+            while (body.hasRemaining()) {
+                if (channel.read(body, position + body.position()) < 0) {
+                    throw new IOException("Progress file is truncated");
+                }
+            }
+        }
+        note = ProgressFileFormat.decodeNote(inflater, body.array(),
+                storedLengths[index] < 0, rawLengths[index]);
+        cachedChars += note.length();
+        cache.put(index, note);
+        return note;
+    }
+
+    /*
+    release the open file and the cached notes; notes can't be loaded from
+    the store afterwards, since the file may have been replaced by then
+    */
+    synchronized void close() {
+        closed = true;
+        cache.clear();
+        cachedChars = 0;
+        if (inflater != null) {
+            try {
+                if (channel != null) {
+                    channel.close();
+                } else {
+                    decrypted.close();
+                }
+            } catch (IOException ex) {
+            }
+            channel = null;
+            decrypted = null;
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    // return the progress file the notes are read from
+    File getFile() {
+        return file;
+    }
+
+    // return how many bytes note index takes up in the file
+    private int storedLength(final int index) {
+        int stored = storedLengths[index];
+        return stored < 0 ? -stored - 1 : stored;
+    }
+}
@@ -1,7 +1,16 @@
 package medianotetaker;
 
+import java.io.File;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javafx.beans.InvalidationListener;
 import javafx.beans.Observable;
 import javafx.beans.value.ObservableValue;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.event.ActionEvent;
 import javafx.geometry.Pos;
 import javafx.scene.control.Button;
@@ -10,11 +19,11 @@ import javafx.scene.effect.InnerShadow;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
 import javafx.scene.media.Media;
 import javafx.scene.media.MediaPlayer;
 import javafx.scene.media.MediaView;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.Rectangle;
 import javafx.util.Duration;
 
 public class LocalMediaNoteTaker extends MediaNoteTaker {
@@ -27,11 +36,31 @@ public class LocalMediaNoteTaker extends MediaNoteTaker {
     private Duration totalDuration;
     private PlayPauseRepeatButton ppr;
     private Boolean hasImportedProgress;
+    private InvalidationListener playerTimeListener;
+    private boolean showsPlayerTime;
+    private SpectrumVisualizer spectrum;
+    private WaveformStrip waveform;
+    private PeakCache peakCache;
+    private Future<String> mediaIdentity;
+    private final AtomicBoolean waveformCancelled;
 
     // constructor: construct a local media note taker with width and height
     public LocalMediaNoteTaker(final int width, final int height) {
         super(width, height);
         mainPane = new BorderPane();
+        waveformCancelled = new AtomicBoolean();
+    }
+
+    /*
+    set the cache the waveform peaks of the media are looked up in (and
+    stored in, once computed) by the media's identity, which may still be
+    being computed (its future fails if it can't be); null for none; this
+    has to be called before startPlaying
+     */
+    void setPeakCache(final PeakCache peakCache,
+            final Future<String> mediaIdentity) {
+        this.peakCache = peakCache;
+        this.mediaIdentity = mediaIdentity;
     }
 
     /* 
@@ -45,11 +74,21 @@ public class LocalMediaNoteTaker extends MediaNoteTaker {
         hasImportedProgress = false;
 
         player = new MediaPlayer(media);
-        view = new MediaView(player);
+        /* the player's time is listened to once; the clock hands it out to
+           what shows it once per pulse, and only when it has changed */
+        playbackClock = new PlaybackClock(() -> player.getCurrentTime());
+        playerTimeListener = (Observable observable) -> {
+            playbackClock.changed();
+        };
+        player.currentTimeProperty().addListener(playerTimeListener);
+        view = enginePool != null ? enginePool.takeMediaView()
+                : new MediaView();
+        view.setMediaPlayer(player);
         view.setFitWidth(width);
         view.setFitHeight(height);
         mainPane.setCenter(view);
         setCenter(mainPane);
+        loadWaveform(fileSource);
 
         /* let the player play and init/configure all components that're
            associated with an active player */
@@ -58,7 +97,7 @@ public class LocalMediaNoteTaker extends MediaNoteTaker {
         });
         player.play();
         player.setOnPlaying(() -> {
-            if (audioOnly) {
+            if (audioOnly && spectrum == null) {
                 addSpectrumVisualization();
             }
             if (!hasImportedProgress && previousProgress != null) {
@@ -128,19 +167,23 @@ public class LocalMediaNoteTaker extends MediaNoteTaker {
     }
 
     /* 
-    updates the progressBar and the time label as the player keeps playing the
-    file
+    updates the progressBar and the time label every pulse, and the notes
+    shown as covering what's playing every NOW_PLAYING_INTERVAL, as the
+    player keeps playing the file; the player starts playing again after
+    every pause, but this is only set up the first time
     
     requires: called after setting up the player, progressBar, and timeLabel
      */
     private void setUpdateFromPlayerTime() {
-        player.currentTimeProperty().addListener(
-                (ObservableValue<? extends Duration> observable,
-                        Duration oldValue, Duration newValue) -> {
-                    progressBar.adjustValue(newValue.toSeconds());
-                    timeLabel.update(newValue);
-                }
-        );
+        if (showsPlayerTime) {
+            return;
+        }
+        showsPlayerTime = true;
+        playbackClock.subscribe((Duration time) -> {
+            progressBar.adjustValue(time.toSeconds());
+            timeLabel.update(time);
+        }, Duration.ZERO);
+        playbackClock.subscribe(this::updateNowPlaying, NOW_PLAYING_INTERVAL);
     }
 
     // initialize timeLabel and makes it display the current time in white
@@ -191,7 +234,7 @@ public class LocalMediaNoteTaker extends MediaNoteTaker {
         initAndConfigureProgressBar();
 
         controlBar = new BorderPane();
-        controlBar.setTop(noteMarkingArea);
+        controlBar.setTop(new VBox(noteMarkingArea, waveform));
         controlBar.setCenter(progressBar);
         controlBar.setBottom(toolBox);
 
@@ -253,6 +296,8 @@ public class LocalMediaNoteTaker extends MediaNoteTaker {
         box2.getChildren().add(makeNote);
 
         toolBox.setLeft(box1);
+        toolBox.setCenter(nowPlaying);
+        BorderPane.setAlignment(nowPlaying, Pos.CENTER_LEFT);
         toolBox.setRight(box2);
         setToolBoxLook(toolBox);
     }
@@ -283,13 +328,17 @@ public class LocalMediaNoteTaker extends MediaNoteTaker {
     }
 
     /*
-    rewind the current media and change the icon of the ppr button
+    go back to the previous marker (or rewind the current media, if there's
+    no marker before now) and change the icon of the ppr button
     accordingly
     
     requires: ppr != null
      */
     private void cueRewind() {
-        Duration newTime = player.getCurrentTime().divide(1.5);
+        Duration newTime = getPreviousMarkerTime(player.getCurrentTime());
+        if (newTime == null) {
+            newTime = player.getCurrentTime().divide(1.5);
+        }
         if (ppr.getMode() == PPRMode.REPEAT) {
             ppr.setMode(PPRMode.PAUSE);
             player.pause();
@@ -302,13 +351,16 @@ public class LocalMediaNoteTaker extends MediaNoteTaker {
     }
 
     /*
-    fast foward the current media and change the icon of the ppr
-    button accordingly
+    go to the next marker (or fast foward the current media, if there's no
+    marker after now) and change the icon of the ppr button accordingly
     
     requires: ppr != null
      */
     private void cueFastForward() {
-        Duration newTime = player.getCurrentTime().multiply(1.5);
+        Duration newTime = getNextMarkerTime(player.getCurrentTime());
+        if (newTime == null) {
+            newTime = player.getCurrentTime().multiply(1.5);
+        }
         player.play();
         if (newTime.greaterThanOrEqualTo(totalDuration)) {
             newTime = totalDuration;
@@ -354,71 +406,76 @@ public class LocalMediaNoteTaker extends MediaNoteTaker {
     }
 
     /*
-    add dynamic spectrum visualization for audio media played
-    
-    requires: current media is audio only
+    show the waveform of the media in fileSource under the note marking
+    area, once its peaks have been read from the peak cache or (in the
+    background) computed from the file; there's no waveform for media the
+    Java sound system can't read (e.g. video)
      */
-    private void addSpectrumVisualization() {
-        HBox bandsBox = new HBox();
-        bandsBox.setStyle("-fx-background-color:BLACK");
-        bandsBox.setAlignment(Pos.CENTER);
-        bandsBox.setSpacing(3);
-        bandsBox.setPrefHeight(0.07 * height);
-
-        int numOfBands = (int) (player.getAudioSpectrumNumBands() * 0.4);
-        Rectangle[] bands = new Rectangle[numOfBands];
-        for (int i = 0; i < numOfBands; ++i) {
-            bands[i] = new Rectangle(2, 0.07 * height);
-            bands[i].setFill(Color.RED);
-            bandsBox.getChildren().add(bands[i]);
-        }
-
-        int bandWidth = (int) (width / bands.length);
-        for (Rectangle band : bands) {
-            band.setWidth(bandWidth);
+    private void loadWaveform(final String fileSource) {
+        waveform = new WaveformStrip();
+        noteMarkingArea.setOnViewChanged(() -> {
+            waveform.setView(noteMarkingArea.getViewFrom(),
+                    noteMarkingArea.getViewTo());
+        });
+        File file;
+        try {
+            file = new File(new URI(fileSource));
+        } catch (URISyntaxException | IllegalArgumentException ex) {
+            return;
         }
-
-        player.setAudioSpectrumThreshold(-100);
-        player.setAudioSpectrumListener((double timestamp,
-                double duration, float[] magnitudes, float[] phases) -> {
-            for (int i = 0; i < bands.length; ++i) {
-                double m = Math.abs(magnitudes[i]);
-                bands[i].setHeight(m);
-                decideAudioSpectrumBandColor(bands[i], m);
+        PeakCache cache = mediaIdentity != null ? peakCache : null;
+        Future<String> futureIdentity = mediaIdentity;
+        AtomicBoolean cancelled = waveformCancelled;
+        Task<WaveformPeaks> reading = new Task<WaveformPeaks>() {
+            @Override
+            protected WaveformPeaks call() throws Exception {
+                String identity = null;
+                if (cache != null) {
+                    try {
+                        identity = futureIdentity.get();
+                    } catch (ExecutionException ex) {
+                        // without an identity the cache can't be used
+                    }
+                }
+                WaveformPeaks peaks = identity != null ? cache.get(identity)
+                        : null;
+                if (peaks == null) {
+                    peaks = WaveformPeaks.compute(file, cancelled);
+                    if (peaks != null && identity != null) {
+                        cache.put(identity, peaks);
+                    }
+                }
+                return peaks;
+            }
+        };
+        reading.setOnSucceeded((WorkerStateEvent event) -> {
+            if (!closed) {
+                waveform.setPeaks(reading.getValue());
             }
         });
-        mainPane.setCenter(bandsBox);
+        Thread thread = new Thread(reading, "Waveform reader");
+        thread.setDaemon(true);
+        thread.start();
     }
 
     /*
-    decide the color of the audio spectrum band based on the 
-    frequency magnitude m
+    add dynamic spectrum visualization for audio media played: a scrolling
+    spectrogram of the last seconds (to see where speech and silence are),
+    with the spectrum playing now below it
     
-    requires: band != null
+    requires: current media is audio only
      */
-    private void decideAudioSpectrumBandColor(
-            final Rectangle band, final double m) {
-        if (m <= 40) {
-            band.setFill(Color.DARKRED);
-        } else if (m > 40 && m <= 45) {
-            band.setFill(Color.RED);
-        } else if (m > 45 && m <= 50) {
-            band.setFill(Color.PURPLE);
-        } else if (m > 50 && m <= 55) {
-            band.setFill(Color.BLUE);
-        } else if (m > 55 && m <= 60) {
-            band.setFill(Color.PURPLE);
-        } else if (m > 60 && m <= 65) {
-            band.setFill(Color.DEEPPINK);
-        } else if (m > 65 && m < 70) {
-            band.setFill(Color.TOMATO);
-        } else if (m > 70 && m <= 75) {
-            band.setFill(Color.LIGHTCORAL);
-        } else if (m > 75 && m < 80) {
-            band.setFill(Color.PINK);
-        } else {
-            band.setFill(Color.BISQUE);
-        }
+    private void addSpectrumVisualization() {
+        spectrum = new SpectrumVisualizer(SpectrumVisualizer.DEFAULT_BANDS,
+                SpectrumVisualizer.DEFAULT_INTERVAL);
+        spectrum.setPrefHeight(0.07 * height);
+        spectrum.setSpectrogram(new SpectrogramView(
+                SpectrogramView.DEFAULT_ROWS, SpectrogramView.DEFAULT_COLUMNS));
+        spectrum.attach(player);
+        BorderPane visualization = new BorderPane();
+        visualization.setCenter(spectrum.getSpectrogram());
+        visualization.setBottom(spectrum);
+        mainPane.setCenter(visualization);
     }
 
     // implemented methods dictated by the abstract superclass --------------
@@ -492,4 +549,35 @@ public class LocalMediaNoteTaker extends MediaNoteTaker {
     protected void stopVideo() {
         player.stop();
     }
+
+    /*
+    stop the media and dispose of the player, so its media and native
+    resources are let go of at once rather than when it's collected, after
+    detaching the listeners on it; the media view is given back to the
+    engine pool
+     */
+    @Override
+    protected void releaseMedia() {
+        waveformCancelled.set(true);
+        mainPane.setCenter(null);
+        if (player == null) {
+            return;
+        }
+        player.stop();
+        player.setOnReady(null);
+        player.setOnPlaying(null);
+        player.setOnEndOfMedia(null);
+        if (spectrum != null) {
+            spectrum.close();
+        }
+        player.currentTimeProperty().removeListener(playerTimeListener);
+        if (enginePool != null) {
+            enginePool.giveBack(view);
+        } else {
+            view.setMediaPlayer(null);
+            player.dispose();
+        }
+        player = null;
+        view = null;
+    }
 }
@@ -0,0 +1,487 @@
+package medianotetaker;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+
+/*
+A marker index keeps the note taker's markers sorted by start time, and
+answers from that, in time logarithmic in the number of markers, both what
+the note taker asks as the media plays (which markers cover a moment of
+the media, which marker starts next or last before it) and what the note
+timeline asks to draw only what's visible (which markers start before a
+point along it, whose sections overlap a part of it, how many markers of
+each type lie between two points).
+
+Along with the order of the markers are kept their start and end times,
+where they (and their sections) start and end along the note marking
+area, and their types. Over the end times and over the ends of the
+sections sits a segment tree of their maxima, so the markers that start
+before one point and end after another are found by going down only into
+the subtrees that have some: O(log n + k) for k markers found. The number
+of markers of each type up to any place in the order is kept in a Fenwick
+tree. A marker that's by itself covers POINT_MILLIS from its start; a
+marker that hasn't been set yet is drawn, but covers nothing and isn't
+gone to.
+
+The index is kept up to date a marker at a time as markers are added,
+removed or edited: an edited marker only updates its own entries, and an
+added or removed one moves the ones after it along instead of them being
+sorted again. It's only sorted from scratch when many markers come in at
+once (see rebuild). It's only used on the JavaFX application thread.
+*/
+final class MarkerIndex {
+
+    // how long a marker that's by itself counts as covering
+    static final long POINT_MILLIS = 3000;
+    /* going to the next marker skips markers starting within NEXT_SLACK of
+       now (e.g. the one just gone to), and going to the previous one skips
+       markers that started less than PREVIOUS_SLACK ago, so pressing
+       previous twice goes back two markers */
+    static final long NEXT_SLACK = 500;
+    static final long PREVIOUS_SLACK = 1500;
+    // the types counted: those in CatalogEntry.TYPES, then every other one
+    static final int TYPE_COUNT = CatalogEntry.TYPES.length + 1;
+
+    // how many low bits of a sort key hold the marker's index
+    private static final int INDEX_BITS = 24;
+    private static final int MIN_CAPACITY = 16;
+
+    private final List<NoteMarker> markers;
+    private int count;
+    // the place in the order of each marker, by its index
+    private int[] places;
+    // in order of start time: the markers' indices, start and end times,
+    // where they and their sections start and end, and their types
+    private int[] order;
+    private long[] starts;
+    private double[] ends, xs, sectionEnds;
+    private int[] types;
+    // the segment trees of the maxima of the ends and of the section ends
+    private double[] maxEnds, maxSectionEnds;
+    private int leaves;
+    // the Fenwick tree of the number of markers of each type
+    private int[][] typeTrees;
+    private int[] found;
+    private int foundCount;
+
+    /*
+    constructor: create the index of markers, the list the note taker
+    keeps, and index the markers in it; the indices the queries return
+    are indices into markers
+
+    requires: markers != null
+    */
+    MarkerIndex(final List<NoteMarker> markers) {
+        this.markers = markers;
+        found = new int[8];
+        rebuild();
+    }
+
+    /*
+    sort and index every marker in the list again, e.g. after many have
+    been added at once
+
+    requires: the markers number at most 2^INDEX_BITS
+    */
+    void rebuild() {
+        count = markers.size();
+        // the start time in the high bits, the index in the low ones
+        long[] keys = new long[count];
+        for (int i = 0; i < count; ++i) {
+            keys[i] = (startMillis(markers.get(i).info) << INDEX_BITS) | i;
+        }
+        Arrays.sort(keys);
+        allocate(count);
+        for (int k = 0; k < count; ++k) {
+            order[k] = (int) (keys[k] & ((1 << INDEX_BITS) - 1));
+            places[order[k]] = k;
+            take(k);
+        }
+        buildTrees();
+    }
+
+    /*
+    index the marker just added at the end of the list
+
+    requires: the marker has been positioned along the note marking area
+    */
+    void added() {
+        int index = markers.size() - 1;
+        if (count == order.length) {
+            grow();
+        }
+        insert(index, insertionPlace(startMillis(markers.get(index).info),
+                index));
+        buildTrees();
+    }
+
+    /*
+    take out of the index the marker that was at index in the list, which
+    has been removed from it (so the markers after it have moved up)
+    */
+    void removed(final int index) {
+        remove(places[index]);
+        for (int k = 0; k < count; ++k) {
+            if (order[k] > index) {
+                --order[k];
+            }
+            places[order[k]] = k;
+        }
+        buildTrees();
+    }
+
+    /*
+    take the marker at index in the list into the index again, after its
+    info has been replaced (or set) or it's been repositioned
+
+    requires: 0 <= index < size()
+    */
+    void changed(final int index) {
+        int k = places[index];
+        long start = startMillis(markers.get(index).info);
+        if (start != starts[k]) {
+            // it has to move to another place in the order
+            remove(k);
+            insert(index, insertionPlace(start, index));
+            buildTrees();
+            return;
+        }
+        int type = types[k];
+        take(k);
+        if (type != types[k]) {
+            addToType(type, k, -1);
+            addToType(types[k], k, 1);
+        }
+        updateTree(maxEnds, ends, k);
+        updateTree(maxSectionEnds, sectionEnds, k);
+    }
+
+    /*
+    take in where the markers (and their sections) are along the note
+    marking area again, after they've all been repositioned (e.g. because
+    its width has changed)
+    */
+    void refreshPositions() {
+        for (int k = 0; k < count; ++k) {
+            NoteMarker marker = markers.get(order[k]);
+            xs[k] = marker.getX();
+            sectionEnds[k] = sectionEnd(marker);
+        }
+        buildTree(maxSectionEnds, sectionEnds);
+    }
+
+    // return the number of markers indexed
+    int size() {
+        return count;
+    }
+
+    // return the index of the marker at place k in order of start time
+    int indexAt(final int k) {
+        return order[k];
+    }
+
+    /*
+    return the indices of the markers that cover millis (i.e. start at or
+    before it, and end after it), in the order of their start times
+    */
+    int[] covering(final long millis) {
+        foundCount = 0;
+        collect(maxEnds, upperBound(millis), millis, this::addFound);
+        return Arrays.copyOf(found, foundCount);
+    }
+
+    /*
+    return the index of the marker that starts next after millis (see
+    NEXT_SLACK), or -1 if there's none
+    */
+    int next(final long millis) {
+        for (int k = upperBound(millis + NEXT_SLACK); k < count; ++k) {
+            if (markers.get(order[k]).hasBeenSet()) {
+                return order[k];
+            }
+        }
+        return -1;
+    }
+
+    /*
+    return the index of the marker that started last before millis (see
+    PREVIOUS_SLACK), or -1 if there's none
+    */
+    int previous(final long millis) {
+        for (int k = upperBound(millis - PREVIOUS_SLACK - 1) - 1; k >= 0;
+                --k) {
+            if (markers.get(order[k]).hasBeenSet()) {
+                return order[k];
+            }
+        }
+        return -1;
+    }
+
+    // return how many markers start before x along the note marking area
+    int startsBefore(final double x) {
+        int low = 0, high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (xs[mid] < x) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /*
+    give found the index of every marker whose section overlaps the note
+    marking area from from up to to, in no particular order
+    */
+    void collectSections(final double from, final double to,
+            final IntConsumer found) {
+        collect(maxSectionEnds, startsBefore(to), from, found);
+    }
+
+    /*
+    return how many markers of type (an index into CatalogEntry.TYPES, or
+    TYPE_COUNT - 1 for any other) are at the places from first up to end
+    in order of start time
+    */
+    int countOfType(final int type, final int first, final int end) {
+        return typeCountBefore(type, end) - typeCountBefore(type, first);
+    }
+
+    /*
+    give found the index of every marker among the first before in order
+    whose end in tree is after after, going down only into the subtrees
+    that have one
+    */
+    private void collect(final double[] tree, final int before,
+            final double after, final IntConsumer found) {
+        int[] stack = new int[64];
+        int[] stackFrom = new int[64];
+        int depth = 0;
+        stack[depth] = 1;
+        stackFrom[depth++] = 0;
+        while (depth > 0) {
+            --depth;
+            int node = stack[depth], from = stackFrom[depth];
+            if (from >= before || tree[node] <= after) {
+                continue;
+            }
+            if (node >= leaves) {
+                found.accept(order[from]);
+                continue;
+            }
+            int half = (leaves >> (31 - Integer.numberOfLeadingZeros(node)))
+                    >> 1;
+            // the right child first, so the left one is taken first
+            stack[depth] = 2 * node + 1;
+            stackFrom[depth++] = from + half;
+            stack[depth] = 2 * node;
+            stackFrom[depth++] = from;
+        }
+    }
+
+    // add index to the markers found
+    private void addFound(final int index) {
+        if (foundCount == found.length) {
+            found = Arrays.copyOf(found, 2 * foundCount);
+        }
+        found[foundCount++] = index;
+    }
+
+    // return how many markers start at or before millis
+    private int upperBound(final long millis) {
+        int low = 0, high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /*
+    return the place in the order a marker with index starting at start
+    goes (after the markers starting earlier, or at the same time with a
+    lower index)
+    */
+    private int insertionPlace(final long start, final int index) {
+        int low = 0, high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < start
+                    || (starts[mid] == start && order[mid] < index)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // put the marker with index at place k, moving the ones after it along
+    private void insert(final int index, final int k) {
+        int moved = count - k;
+        System.arraycopy(order, k, order, k + 1, moved);
+        System.arraycopy(starts, k, starts, k + 1, moved);
+        System.arraycopy(ends, k, ends, k + 1, moved);
+        System.arraycopy(xs, k, xs, k + 1, moved);
+        System.arraycopy(sectionEnds, k, sectionEnds, k + 1, moved);
+        System.arraycopy(types, k, types, k + 1, moved);
+        ++count;
+        order[k] = index;
+        take(k);
+        for (int i = k; i < count; ++i) {
+            places[order[i]] = i;
+        }
+    }
+
+    // take out the marker at place k, moving the ones after it up
+    private void remove(final int k) {
+        int moved = count - k - 1;
+        System.arraycopy(order, k + 1, order, k, moved);
+        System.arraycopy(starts, k + 1, starts, k, moved);
+        System.arraycopy(ends, k + 1, ends, k, moved);
+        System.arraycopy(xs, k + 1, xs, k, moved);
+        System.arraycopy(sectionEnds, k + 1, sectionEnds, k, moved);
+        System.arraycopy(types, k + 1, types, k, moved);
+        --count;
+        for (int i = k; i < count; ++i) {
+            places[order[i]] = i;
+        }
+    }
+
+    // take what's kept of the marker at place k from the marker
+    private void take(final int k) {
+        NoteMarker marker = markers.get(order[k]);
+        NoteMarkerInfo info = marker.info;
+        starts[k] = startMillis(info);
+        if (!marker.hasBeenSet()) {
+            ends[k] = Double.NEGATIVE_INFINITY;
+        } else if (info.isByItself() || info.getEndTime() == null) {
+            ends[k] = starts[k] + POINT_MILLIS;
+        } else {
+            ends[k] = Math.max(starts[k] + 1,
+                    ProgressFileFormat.toMillis(info.getEndTime()));
+        }
+        xs[k] = marker.getX();
+        sectionEnds[k] = sectionEnd(marker);
+        int type = marker.hasBeenSet()
+                ? CatalogEntry.typeIndex(info.getType()) : -1;
+        types[k] = type < 0 ? TYPE_COUNT - 1 : type;
+    }
+
+    // make room for capacity markers (without keeping what's indexed)
+    private void allocate(final int capacity) {
+        int size = MIN_CAPACITY;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        places = new int[size];
+        order = new int[size];
+        starts = new long[size];
+        ends = new double[size];
+        xs = new double[size];
+        sectionEnds = new double[size];
+        types = new int[size];
+        leaves = size;
+        maxEnds = new double[2 * size];
+        maxSectionEnds = new double[2 * size];
+        typeTrees = new int[TYPE_COUNT][size + 1];
+    }
+
+    // make room for twice as many markers, keeping what's indexed
+    private void grow() {
+        int[] oldOrder = order, oldTypes = types;
+        long[] oldStarts = starts;
+        double[] oldEnds = ends, oldXs = xs, oldSectionEnds = sectionEnds;
+        allocate(2 * order.length);
+        System.arraycopy(oldOrder, 0, order, 0, count);
+        System.arraycopy(oldStarts, 0, starts, 0, count);
+        System.arraycopy(oldEnds, 0, ends, 0, count);
+        System.arraycopy(oldXs, 0, xs, 0, count);
+        System.arraycopy(oldSectionEnds, 0, sectionEnds, 0, count);
+        System.arraycopy(oldTypes, 0, types, 0, count);
+        for (int k = 0; k < count; ++k) {
+            places[order[k]] = k;
+        }
+    }
+
+    // build the segment trees and the type counts from what's indexed
+    private void buildTrees() {
+        buildTree(maxEnds, ends);
+        buildTree(maxSectionEnds, sectionEnds);
+        for (int[] tree : typeTrees) {
+            Arrays.fill(tree, 0);
+        }
+        for (int k = 0; k < count; ++k) {
+            int[] tree = typeTrees[types[k]];
+            ++tree[k + 1];
+        }
+        // each node adds itself into its parent, in linear time
+        for (int[] tree : typeTrees) {
+            for (int i = 1; i <= leaves; ++i) {
+                int parent = i + (i & -i);
+                if (parent <= leaves) {
+                    tree[parent] += tree[i];
+                }
+            }
+        }
+    }
+
+    // build tree, the segment tree of the maxima of values
+    private void buildTree(final double[] tree, final double[] values) {
+        Arrays.fill(tree, leaves, 2 * leaves, Double.NEGATIVE_INFINITY);
+        System.arraycopy(values, 0, tree, leaves, count);
+        for (int node = leaves - 1; node > 0; --node) {
+            tree[node] = Math.max(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    // take the value at place k into tree, the segment tree of values
+    private void updateTree(final double[] tree, final double[] values,
+            final int k) {
+        int node = leaves + k;
+        tree[node] = values[k];
+        for (node >>= 1; node > 0; node >>= 1) {
+            tree[node] = Math.max(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    // add delta to the count of type at place k
+    private void addToType(final int type, final int k, final int delta) {
+        int[] tree = typeTrees[type];
+        for (int i = k + 1; i <= leaves; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    // return how many markers of type are before place end
+    private int typeCountBefore(final int type, final int end) {
+        int[] tree = typeTrees[type];
+        int sum = 0;
+        for (int i = end; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    // return where the section of marker ends, or -infinity if it has none
+    private static double sectionEnd(final NoteMarker marker) {
+        return marker.hasSection() ? marker.getEndX()
+                : Double.NEGATIVE_INFINITY;
+    }
+
+    // return the start time of info in ms (0 if it has none or it's before
+    // the start)
+    private static long startMillis(final NoteMarkerInfo info) {
+        return info.getStartTime() == null ? 0
+                : Math.max(0, ProgressFileFormat.toMillis(
+                        info.getStartTime()));
+    }
+}
@@ -0,0 +1,134 @@
+package medianotetaker;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/*
+The media identity identifies a local media file by its content rather
+than by where it is, so a progress can find its media again after the file
+has been moved or renamed. Hashing a whole video would take far too long,
+so only samples of the file are hashed: its head, its tail, and evenly
+spaced chunks in between, each read into the same SAMPLE_SIZE buffer.
+Small files are hashed whole. The identity is the file's size followed by
+the SHA-256 digest of the size and the samples, e.g. "1f3a2c0-9b1e...".
+*/
+final class MediaIdentity {
+
+    static final int SAMPLE_SIZE = 64 * 1024;
+    static final int STRIDED_SAMPLES = 16;
+
+    // files up to this size are hashed whole
+    static final long FULL_HASH_LIMIT = 1 << 20;
+
+    private MediaIdentity() {
+    }
+
+    /*
+    compute and return the identity of the content of file
+
+    requires: file != null is a readable file
+    */
+    static String of(final File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform has to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer sizeBytes = ByteBuffer.allocate(8);
+            sizeBytes.putLong(size).flip();
+            digest.update(sizeBytes);
+            ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_SIZE);
+            if (size <= FULL_HASH_LIMIT) {
+                hashRegion(digest, channel, buffer, 0, size);
+            } else {
+                long last = size - SAMPLE_SIZE;
+                hashRegion(digest, channel, buffer, 0, SAMPLE_SIZE);
+                for (int i = 1; i <= STRIDED_SAMPLES; ++i) {
+                    hashRegion(digest, channel, buffer,
+                            last / (STRIDED_SAMPLES + 1) * i, SAMPLE_SIZE);
+                }
+                hashRegion(digest, channel, buffer, last, SAMPLE_SIZE);
+            }
+            return Long.toHexString(size) + "-" + toHex(digest.digest());
+        }
+    }
+
+    /*
+    feed length bytes of channel from position on to digest, reading them
+    through buffer a buffer's worth at a time
+    */
+    private static void hashRegion(final MessageDigest digest,
+            final FileChannel channel, final ByteBuffer buffer,
+            final long position, final long length) throws IOException {
+        long done = 0;
+        while (done < length) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), length - done));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + done
+                        + buffer.position()) < 0) {
+                    throw new EOFException("The file ended while hashed");
+                }
+            }
+            buffer.flip();
+            done += buffer.remaining();
+            digest.update(buffer);
+        }
+    }
+
+    /*
+    return the size of the file identity was computed for, or -1 if
+    identity isn't a media identity
+    */
+    static long sizeOf(final String identity) {
+        int dash = identity.indexOf('-');
+        if (dash <= 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(identity.substring(0, dash), 16);
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /*
+    return true if file has the content identified by identity; the file
+    is only read if it has the right size
+
+    requires: file, identity != null
+    */
+    static boolean matches(final File file, final String identity) {
+        if (file.length() != sizeOf(identity)) {
+            return false;
+        }
+        try {
+            return identity.equals(of(file));
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    // return bytes as a string of lowercase hexadecimal digits
+    private static String toHex(final byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            hex[2 * i] = digits[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = digits[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
@@ -1,54 +1,50 @@
 package medianotetaker;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import javafx.beans.value.ObservableValue;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
 import javafx.event.ActionEvent;
-import javafx.geometry.HPos;
 import javafx.geometry.Insets;
-import javafx.geometry.Pos;
-import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
-import javafx.scene.control.CheckBox;
-import javafx.scene.control.ComboBox;
-import javafx.scene.control.ListCell;
-import javafx.scene.control.ListView;
-import javafx.scene.control.ScrollPane;
-import javafx.scene.control.TextArea;
-import javafx.scene.control.TextField;
+import javafx.scene.control.Label;
 import javafx.scene.effect.InnerShadow;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.BorderPane;
-import javafx.scene.layout.GridPane;
-import javafx.scene.layout.HBox;
-import javafx.scene.layout.Pane;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.Rectangle;
-import javafx.stage.Stage;
-import javafx.stage.WindowEvent;
-import javafx.util.Callback;
 import javafx.util.Duration;
 
 
-public abstract class MediaNoteTaker extends BorderPane {
+public abstract class MediaNoteTaker extends BorderPane
+        implements AutoCloseable {
 
     final int width, height;
     ArrayList<NoteMarker> noteMarkers;
+    TreeSet<Integer> changedMarkers;
     Button makeNote;
-    HBox noteMarkingArea;
+    NoteTimeline noteMarkingArea;
     boolean isTakingNote, hasImportedProgress;
     NoteProgress previousProgress;
     VBox navItemContainer;
+    Runnable onMarkersChanged;
+    MarkerIndex markerIndex;
+    NoteEditor noteEditor;
+    SessionEnginePool enginePool;
+    PlaybackClock playbackClock;
+    boolean closed;
+    Label nowPlaying;
+    int[] nowPlayingMarkers;
 
     final static String RED_TYPE = "I barely understood anything!";
     final static String DARKVIOLET_TYPE = "I understood some of it.";
     final static String BLUE_TYPE = "I understood the majority of it.";
     final static String GREEN_TYPE = "I noticed something extra...";
+    // how often the notes shown as covering what's playing are updated
+    final static Duration NOW_PLAYING_INTERVAL = Duration.millis(250);
 
     
     // constructor: create media note taker with width and height
@@ -59,10 +55,24 @@ public abstract class MediaNoteTaker extends BorderPane {
         setStyle("-fx-background-color: Black");
 
         noteMarkers = new ArrayList();
+        markerIndex = new MarkerIndex(noteMarkers);
+        changedMarkers = new TreeSet();
         isTakingNote = false;
         hasImportedProgress = false;
+        nowPlayingMarkers = new int[0];
         setNoteMarkingArea();
         setMakeNote();
+        setNowPlaying();
+    }
+
+    /*
+    initialize the label that shows the topics of the notes covering what's
+    playing now
+    */
+    private void setNowPlaying() {
+        nowPlaying = new Label();
+        nowPlaying.setTextFill(Color.WHITE);
+        nowPlaying.setPadding(new Insets(0, 10, 0, 10));
     }
 
     // initialize, stylize, and add action to the make note button
@@ -79,85 +89,74 @@ public abstract class MediaNoteTaker extends BorderPane {
     size --of the note marking area
      */
     private void setNoteMarkingArea() {
-        noteMarkingArea = new HBox();
-        //noteMarkingArea.setPrefSize(width, 0.07 * height);
-        noteMarkingArea.setPrefHeight(0.07 * height);
+        noteMarkingArea = new NoteTimeline(noteMarkers, markerIndex,
+                0.07 * height, 0.06 * height);
         InnerShadow is = new InnerShadow(15.0, Color.BROWN);
         noteMarkingArea.setEffect(is);
         noteMarkingArea.setStyle("-fx-background-color:IVORY");
         noteMarkingArea.setVisible(true);
+        noteMarkingArea.setOnMarkerClicked(this::openMarker);
+        noteMarkingArea.setOnRelayout(this::repositionMarkers);
     }
 
     /*
     enable the user to enter the note (a process during which the user
-    enters in noteStage the type, topic, and body of the note they
-    want to associate with the note marker they're adding) so the note can be
-    stored and displayed in a note marker
+    enters in the note editor the type, topic, and body of the note they
+    want to associate with the note marker they're adding, at currentTime)
+    so the note can be stored and displayed in a note marker
     */
-    private void beginNoteTaking() {
-        Duration currentTime = getCurrentTimeInVideo();
-        NoteMarker noteMarker = new NoteMarker(5, height * 0.07, currentTime);
-        makeNoteMarkerActive(noteMarker);
+    private void beginNoteTaking(final Duration currentTime) {
+        NoteMarker noteMarker = new NoteMarker(currentTime);
         noteMarkers.add(noteMarker);   
         placeMarkerInMarkingArea(noteMarker);
-        Stage noteStage = createNoteStage(noteMarker);
-        noteStage.show();
+        markerIndex.added();
+        noteMarkingArea.markersChanged();
+        editMarker(noteMarker);
     }
 
     /*
-    make and return the combox box in the note pane, through which user
-    selects the type of the note he/she is adding
-    requires: marker != null
+    return the note editor, creating it the first time a note is added or
+    opened; it's shared by all the markers
     */
-    private ComboBox createNotePaneComboBox(final NoteMarker marker) {
-        ObservableList<String> types = FXCollections.observableArrayList(
-                RED_TYPE, DARKVIOLET_TYPE, BLUE_TYPE, GREEN_TYPE);
-        ComboBox typeSelect = new ComboBox(types);
-        typeSelect.setPrefWidth(400);
-        typeSelect.setPromptText("Choose the type of your marker");
-
-        typeSelect.setCellFactory(
-                new Callback<ListView<String>, ListCell<String>>() {
-            @Override
-            public ListCell<String> call(ListView<String> param) {
-                return new ListCell<String>() {
-                    @Override
-                    protected void updateItem(String item, boolean empty) {
-                        super.updateItem(item, empty);
-                        if (item != null && !empty) {
-                            setText(item);
-                            setTextFill(decideMarkerColor(item));
-                        } else {
-                            setGraphic(null);
-                        }
-                    }
-                };
-            }
-        });
-
-        if (marker.hasBeenSet()) {
-            typeSelect.setValue(marker.info.getType());
+    private NoteEditor getNoteEditor() {
+        if (noteEditor == null) {
+            Button enterNote = createButton("add.png");
+            noteEditor = new NoteEditor(this::decideMarkerColor, enterNote);
+            enterNote.setOnAction((ActionEvent e) -> {
+                processNoteInformation(noteEditor.getMarker(),
+                        noteEditor.getType(), noteEditor.getTopic(),
+                        noteEditor.getNote(), noteEditor.isByItself());
+            });
+            noteEditor.setOnCancel((NoteMarker marker) -> {
+                isTakingNote = false;
+                if (!marker.hasBeenSet()) {
+                    int index = noteMarkers.indexOf(marker);
+                    noteMarkers.remove(index);
+                    markerIndex.removed(index);
+                    noteMarkingArea.markersChanged();
+                }
+            });
         }
-
-        return typeSelect;
+        return noteEditor;
     }
 
     /*
-    take the information the user entered in noteStage--the note's type,
+    take the information the user entered in the note editor--the note's type,
     topic, the note itself, and associated moment (if the marker is by itself)
     or section in media--and stores that in marker, and then finalizes the 
-    display of marker in the note marking area according to that information
+    display of marker in the note marking area according to that information;
+    the marker gets a new info rather than having its info changed, so an
+    info that's being saved in the background never changes under the save
     
-    requires: marker, noteStage != null
+    requires: marker != null
     */
     private void processNoteInformation(final NoteMarker marker, 
-            final Stage noteStage, final String type, String topic, 
-            final String note, final boolean markerByItself) {
+            final String type, String topic, final String note,
+            final boolean markerByItself) {
         if (type == null) {
             alertNoTypeSelected();
             return;
         }
-        marker.info.setType(type);
         
         if (topic != null) {
             topic = topic.trim();
@@ -166,213 +165,124 @@ public abstract class MediaNoteTaker extends BorderPane {
             alertNoTopic();
             return;
         }
-        marker.info.setTopic(topic);
-        marker.info.setNote(note);
-        marker.info.setByItself(markerByItself);
-        Color markerColor = decideMarkerColor(type);
-        marker.setFill(markerColor);
-
-        if (marker.hasBeenSet()) {
-             noteMarkingArea.getChildren().remove(marker.getSection());
+        NoteMarkerInfo info = marker.info.copy();
+        info.setType(type);
+        info.setTopic(topic);
+        info.setNote(note);
+        info.setByItself(markerByItself);
+        if (!markerByItself && !isPlayerReady()) {
+            // the editor stays open, so the note can be finished later
+            alertPlayerNotReady();
+            return;
         }
-        
-        if (!marker.info.isByItself()) {
-            marker.info.setEndTime(getCurrentTimeInVideo());
-            setAndDisplayMarkerSection(marker, markerColor);
+        if (!markerByItself) {
+            info.setEndTime(getCurrentTimeInVideo());
         }
-
-        marker.setNoteStage(noteStage);
+        noteMarkingArea.markDirty(marker);
+        marker.info = info;
         marker.setReady(true);
+        placeMarkerInMarkingArea(marker);
+        int index = noteMarkers.indexOf(marker);
+        markerIndex.changed(index);
+        changedMarkers.add(index);
         isTakingNote = false;
-        noteStage.hide();
-    }
-    
-    /*
-    make checkPartOfSection true by default and make sure it and checkByItself
-    cannot be both checked
-    
-    requires: checkByItself, checkPartOfSection != null
-    */
-    private void configureNotePaneCheckBoxes(final CheckBox checkByItself,
-            final CheckBox checkPartOfSection) {
-        checkByItself.setText("By itself");
-        checkByItself.selectedProperty().addListener(
-                (ObservableValue<? extends Boolean> observable,
-                        Boolean oldValue, Boolean newValue) -> {
-                    checkPartOfSection.setSelected(!newValue);
-                }
-        );
-
-        checkPartOfSection.setText("Start of a section");
-        checkPartOfSection.selectedProperty().addListener(
-                (ObservableValue<? extends Boolean> observable,
-                        Boolean oldValue, Boolean newValue) -> {
-                    checkByItself.setSelected(!newValue);
-                }
-        );
-
-        checkPartOfSection.setSelected(true);
-        
-    }
-    
-    /* 
-    create a pane and add the checkboxes and the enterNote button to it,
-    and then setting their layouts; eventually return the pane
-    
-    requires: the checkboxses and the button != null
-    */
-    private GridPane createNotePaneBottom(final CheckBox checkByItself,
-            final CheckBox checkPartOfSection, final Button enterNote) {
-        GridPane bottomPane = new GridPane();
-        bottomPane.setHgap(20.0);
-        bottomPane.setPadding(new Insets(10.0));
-
-        bottomPane.setAlignment(Pos.BOTTOM_RIGHT);
-        bottomPane.add(checkByItself, 1, 0);
-        bottomPane.add(checkPartOfSection, 2, 0);
-        GridPane.setHalignment(checkByItself, HPos.RIGHT);
-        GridPane.setHalignment(checkPartOfSection, HPos.LEFT);
-        bottomPane.add(enterNote, 3, 3);
-        return bottomPane;
+        noteEditor.hide();
+        if (onMarkersChanged != null) {
+            onMarkersChanged.run();
+        }
     }
     
     /*
-    create a pane and add noteArea and topicField to it, and then setting their
-    layouts; eventually return the pane
-    
-    requires: noteArea, topicField != null
-    */
-    private BorderPane createNoteTextEnterPane(final TextField topicField,
-            final TextArea noteArea) {
-        ScrollPane noteTextPane = new ScrollPane();
-        noteTextPane.setContent(noteArea);
-        noteTextPane.setFitToHeight(true);
-        noteTextPane.setFitToWidth(true);
-
-        BorderPane noteTextEnterPane = new BorderPane();
-        noteTextEnterPane.setTop(topicField);
-        noteTextEnterPane.setCenter(noteArea);
-        BorderPane.setMargin(topicField, new Insets(20, 10, 10, 10));
-        
-        return noteTextEnterPane;
-    }
-
-    /*
-    make and return the note pane in which the user enters the relevant
-    info of the marker they're adding--i.e. the topic, type, body of the
-    note, and whether that marker is by itself (i.e. associated with one
-    single moment of the media), or the start of a section
+    place marker in its appropriate horizontal position along
+    the note marking area, and have it drawn there; the position depends
+    on the marker's starting time
     
-    requires: noteStage, marker != null
+    requires: marker != null
     */
-    private BorderPane createNotePane(final Stage noteStage, 
-            final NoteMarker marker) {
-        // Top component ------------------------------------------------
-        ComboBox typeSelect = createNotePaneComboBox(marker);
-        
-        // Middle component --------------------------------------------
-        TextField topicField = new TextField();
-        if (marker.hasBeenSet()) {
-            topicField.setText(marker.info.getTopic());
-        } else {
-            topicField.setPromptText("The topic of your note");
-        }
-
-        TextArea noteArea = new TextArea();
-        if (marker.hasBeenSet() && marker.info.getNote() != null) {
-            noteArea.setText(marker.info.getNote());
-        } else {
-            noteArea.setPromptText("Please enter your note (optional)");
-        }
-        noteArea.setWrapText(true);
-        
-        BorderPane noteTextEnterPane = createNoteTextEnterPane(topicField, 
-                noteArea);
-        
-        // Bottom component --------------------------------------------
-         // set the check boxes
-        CheckBox checkByItself = new CheckBox();
-        CheckBox checkPartOfSection = new CheckBox();
-        configureNotePaneCheckBoxes(checkByItself, checkPartOfSection);
-        if (marker.hasBeenSet() && marker.info.isByItself()) {
-            checkByItself.setSelected(true);
-        }
-
-        /* initialize and add action to the button to finish adding the note
-            marker */
-        Button enterNote = createButton("add.png");
-        enterNote.setOnAction((ActionEvent e) -> {
-            processNoteInformation(marker, noteStage, 
-                    (String)typeSelect.getValue(), topicField.getText(), 
-                    noteArea.getText(), checkByItself.isSelected());
-        });
-        
-        GridPane bottomPane = createNotePaneBottom(checkByItself,
-                checkPartOfSection, enterNote);
-
-        // init the note pane and add all components to it -------------
-        BorderPane notePane = new BorderPane();
-        notePane.setTop(typeSelect);
-        notePane.setCenter(noteTextEnterPane);
-        notePane.setBottom(bottomPane);
-
-        return notePane;
+    private void placeMarkerInMarkingArea(final NoteMarker marker) {
+        positionMarker(marker);
+        colorMarker(marker);
+        noteMarkingArea.markDirty(marker);
     }
-    
-    
+
     /*
-    creates the note stage for the user to enter in the info for the marker
-    that he/she is currently adding
+    work out where marker (and its section, if it has one) goes along the
+    note marking area, without redrawing it
     
     requires: marker != null
     */
-    protected Stage createNoteStage(final NoteMarker marker) {
-        Stage noteStage = new Stage();
-        noteStage.setTitle("Adding a marker");
-        Pane notePane = createNotePane(noteStage, marker);
-        noteStage.setScene(new Scene(notePane, 400, 430));
-        noteStage.setResizable(false);
-        noteStage.setOnCloseRequest((WindowEvent event) -> {
-            isTakingNote = false;
-            if (!marker.hasBeenSet()) {
-                noteMarkingArea.getChildren().remove(marker);
-            }
-        });
-        return noteStage;
+    private void positionMarker(final NoteMarker marker) {
+        double startX = getMarkerAreaXPos(marker.info.getStartTime());
+        double endX = startX;
+        if (marker.hasSection()) {
+            endX = getMarkerAreaXPos(marker.info.getEndTime());
+        }
+        marker.setPosition(startX, endX);
     }
 
     /*
-    place marker in its appropriate horizontal position along
-    the note marking area; the position depends on the marker's starting time
+    work out the colors marker (and its section) is drawn in from its type,
+    without redrawing it
     
     requires: marker != null
     */
-    private void placeMarkerInMarkingArea(final NoteMarker marker) {
-        // put the marker in the right position
-        marker.setManaged(false);
-        double xPos = getMarkerAreaXPos(marker.info.getStartTime());
-        marker.setX(xPos);
-        noteMarkingArea.getChildren().add(marker);
+    private void colorMarker(final NoteMarker marker) {
+        if (marker.hasBeenSet()) {
+            Color markerColor = decideMarkerColor(marker.info.getType());
+            marker.setFill(markerColor, pickSectionColor(markerColor));
+        }
     }
 
     /* 
-    when a note marker is clicked, display the note if it's not
-    null or empty; otherwise the marker is irresponsive 
+    when a note marker (or its section) is clicked, go to its time in the
+    media (once the player is ready) and display its note, if it has been
+    set; otherwise the marker is irresponsive 
     
     requires: noteMarker != null
     */
-    private void makeNoteMarkerActive(final NoteMarker noteMarker) {
-        noteMarker.setOnMouseClicked((MouseEvent event) -> {
-            if (!noteMarker.hasBeenSet()) {
-                return;
-            }
-            isTakingNote = true;
+    private void openMarker(final NoteMarker noteMarker) {
+        if (!noteMarker.hasBeenSet()) {
+            return;
+        }
+        // a marker that's being added would be lost by editing another
+        NoteMarker editing = noteEditor == null ? null
+                : noteEditor.getMarker();
+        if (editing != null && !editing.hasBeenSet()) {
+            alertIsTakingNote();
+            return;
+        }
+        // a player that's still loading can't be sought, but the note
+        // can still be read and edited
+        if (isPlayerReady()) {
             Duration markedTime = noteMarker.info.getStartTime();
             seekInVideo(markedTime);
             playVideo();
+        }
+        isTakingNote = true;
+        editMarker(noteMarker);
+    }
 
-            noteMarker.getNoteStage().show();
-        });
+    /*
+    open noteMarker in the note editor; if its note can't be read, tell
+    the user instead, and leave the marker as it is so its note isn't
+    saved over
+    */
+    private void editMarker(final NoteMarker noteMarker) {
+        try {
+            getNoteEditor().edit(noteMarker);
+        } catch (IOException ex) {
+            isTakingNote = false;
+            alertCannotReadNote(ex);
+        }
+    }
+
+    // alert the user that the note of a marker couldn't be read
+    private void alertCannotReadNote(final IOException ex) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setHeaderText("Couldn't read the note of this marker!");
+        alert.setContentText("The note is left as it is in the progress "
+                + "file. " + ex.getMessage());
+        alert.showAndWait();
     }
 
     /*
@@ -386,17 +296,35 @@ public abstract class MediaNoteTaker extends BorderPane {
         alert.showAndWait();
     }
 
+    /*
+    alert the user that a note can't be added until the player has loaded
+    and knows what time it is
+    */
+    private void alertPlayerNotReady() {
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setHeaderText("The player is still loading!");
+        alert.setContentText("Please add the mark once it has loaded.");
+        alert.showAndWait();
+    }
+
     /*
     alert the user to finish that note if he/she is currently adding one,
-    otherwise enable the user to add a note
+    or to wait if the player isn't ready yet, otherwise enable the user to
+    add a note; the time is taken before the note is marked as being
+    taken, so a failure to get it can't leave note taking locked
     */
     private void cueNoteMaking() {
         if (isTakingNote) {
             alertIsTakingNote();
             return;
         }
+        if (!isPlayerReady()) {
+            alertPlayerNotReady();
+            return;
+        }
+        Duration currentTime = getCurrentTimeInVideo();
         isTakingNote = true;
-        beginNoteTaking();
+        beginNoteTaking(currentTime);
     }
 
 
@@ -418,11 +346,13 @@ public abstract class MediaNoteTaker extends BorderPane {
     }
 
     /*
-    return the color of the marker based on the markertype
-    requires: markerType != null and is one of 
-             {RED_TYPE, DARKVIOLET_TYPE, BLUE_TYPE, GREEN_TYPE}
+    return the color of the marker based on the markertype; a marker
+    without one (as older autosaves could hold) is drawn black
     */
     private Color decideMarkerColor(String markerType) {
+        if (markerType == null) {
+            return Color.BLACK;
+        }
         switch (markerType) {
             case RED_TYPE:
                 return Color.RED;
@@ -437,33 +367,6 @@ public abstract class MediaNoteTaker extends BorderPane {
         }
     }
 
-    /*
-    init, stylize, and add the section of a marker to the note marking area
-    
-    requires: note marking area != null
-              marker != null
-              markerColor != null and is one of {red, green, dark violet, blue}
-    */
-    private void setAndDisplayMarkerSection(final NoteMarker marker, 
-            final Color markerColor) {
-        double startX = getMarkerAreaXPos(marker.info.getStartTime());
-        double endX = getMarkerAreaXPos(marker.info.getEndTime());
-        Rectangle section = new Rectangle(endX - startX - 5, height * 0.06);
-        section.setOpacity(0.7);
-        section.setFill(pickSectionColor(markerColor));
-        noteMarkingArea.getChildren().add(section);
-        section.setManaged(false);
-        section.setX(startX + 5);
-        section.setOnMouseClicked((MouseEvent event) -> {
-            Duration markedTime = marker.info.getStartTime();
-            seekInVideo(markedTime);
-            playVideo();
-            marker.getNoteStage().show();
-        });
-
-        marker.setSection(section);
-    }
-    
     /*
     pick the marker's section color based on the marker's color
     
@@ -489,6 +392,30 @@ public abstract class MediaNoteTaker extends BorderPane {
         return noteMarkers;
     }
 
+    /*
+    return the indices (into the list of note markers) of the markers
+    that have been added or edited since clearChangedMarkers was last called
+    */
+    protected TreeSet<Integer> getChangedMarkers() {
+        return changedMarkers;
+    }
+
+    /*
+    forget which markers have changed; this should be called once the
+    changes have been saved
+    */
+    protected void clearChangedMarkers() {
+        changedMarkers.clear();
+    }
+
+    /*
+    set what to run every time the user has added or edited a marker
+    (e.g. to schedule saving the progress); null to run nothing
+    */
+    protected void setOnMarkersChanged(final Runnable onMarkersChanged) {
+        this.onMarkersChanged = onMarkersChanged;
+    }
+
     /*
     create a button with the icon from iconSource
     
@@ -506,23 +433,18 @@ public abstract class MediaNoteTaker extends BorderPane {
     /*
     update the horizontal position of each marker along the note
     marking area; this's usually called after the dimension of the
-    application has changed
+    application has changed, which can happen many times a frame while the
+    window is resized, so the markers are only repositioned (and redrawn)
+    once, at the next pulse
     */
     protected void updateNoteMarkerPosition() {
+        noteMarkingArea.relayout();
+    }
+
+    // work out again where each marker goes along the note marking area
+    private void repositionMarkers() {
         for (NoteMarker marker : noteMarkers) {
-            noteMarkingArea.getChildren().remove(marker.getSection());
-            double startX = getMarkerAreaXPos(marker.info.getStartTime());
-            marker.setX(startX);
-            if (marker.hasBeenSet() && !marker.info.isByItself()) {
-                double endX = getMarkerAreaXPos(marker.info.getEndTime());
-                Rectangle section = marker.getSection();
-                noteMarkingArea.getChildren().remove(section);
-                Color markerColor = decideMarkerColor(marker.info.getType());
-                section.setFill(pickSectionColor(markerColor));
-                section.setX(startX + 5.0);
-                noteMarkingArea.getChildren().add(section);
-                section.setWidth(endX - startX + 5.0);
-            }
+            positionMarker(marker);
         }
     }
 
@@ -537,32 +459,140 @@ public abstract class MediaNoteTaker extends BorderPane {
         importExistingMarkerInfo(progress.getInfoList());
     }
 
+    /*
+    add markers for infoList (e.g. read from a subtitle file by the note
+    importer) after the ones already taken, as if the user had added each;
+    infos past the end of the media are left out, and sections running
+    past it are cut off at the end
+    
+    requires: infoList != null, and each info in it has a type and a topic
+    */
+    protected void addImportedMarkers(final List<NoteMarkerInfo> infoList) {
+        Duration total = getTotalDuration();
+        boolean totalKnown = total != null && !total.isUnknown()
+                && !total.isIndefinite() && total.greaterThan(Duration.ZERO);
+        ArrayList<NoteMarkerInfo> imported = new ArrayList(infoList.size());
+        for (NoteMarkerInfo info : infoList) {
+            if (totalKnown && info.getStartTime().greaterThan(total)) {
+                continue;
+            }
+            if (totalKnown && !info.isByItself()
+                    && info.getEndTime().greaterThan(total)) {
+                info.setEndTime(total);
+            }
+            imported.add(info);
+        }
+        // a marker whose note is still being added stays the last one, so
+        // saving can leave it out without moving the markers after it
+        NoteMarker pending = null;
+        int last = noteMarkers.size() - 1;
+        if (isTakingNote && last >= 0 && !noteMarkers.get(last).hasBeenSet()) {
+            pending = noteMarkers.remove(last);
+            markerIndex.removed(last);
+        }
+        int first = noteMarkers.size();
+        importExistingMarkerInfo(imported);
+        for (int i = first; i < noteMarkers.size(); ++i) {
+            changedMarkers.add(i);
+        }
+        if (pending != null) {
+            noteMarkers.add(pending);
+            markerIndex.added();
+            noteMarkingArea.markersChanged();
+        }
+        if (onMarkersChanged != null && !imported.isEmpty()) {
+            onMarkersChanged.run();
+        }
+    }
+
     /*
     wrap each info in infoList in a marker and display it (and its section,
     if it's associated with a section in the media) in its proper position
-    along the note marking area
+    along the note marking area; the note marking area is redrawn once for
+    all of them, so there may be tens of thousands of them, and their
+    note stages are only created when they're opened
     
     requires: infoList != null
     */
     private void importExistingMarkerInfo(
-            final ArrayList<NoteMarkerInfo> infoList) {
+            final List<NoteMarkerInfo> infoList) {
+        noteMarkers.ensureCapacity(noteMarkers.size() + infoList.size());
         for (NoteMarkerInfo info : infoList) {
-            NoteMarker marker = new NoteMarker(5, height * 0.07, info);
-            makeNoteMarkerActive(marker);
+            NoteMarker marker = new NoteMarker(info);
+            positionMarker(marker);
+            colorMarker(marker);
             noteMarkers.add(marker);
-            marker.setNoteStage(createNoteStage(marker));
-            placeMarkerInMarkingArea(marker);
-            Color markerColor = decideMarkerColor(marker.info.getType());
-            marker.setFill(markerColor);
-            if (!marker.info.isByItself()) {
-                setAndDisplayMarkerSection(marker, markerColor);
+        }
+        // sorting them all at once beats moving the others along for each
+        markerIndex.rebuild();
+        noteMarkingArea.markersChanged();
+    }
+
+    /*
+    highlight the markers whose notes cover time in the note marking area,
+    and show their topics; this is meant to be called as the media plays,
+    and only changes anything when those markers change
+    
+    requires: time != null
+    */
+    protected void updateNowPlaying(final Duration time) {
+        int[] covering = markerIndex.covering((long) time.toMillis());
+        if (Arrays.equals(covering, nowPlayingMarkers)) {
+            return;
+        }
+        nowPlayingMarkers = covering;
+        noteMarkingArea.setHighlighted(covering);
+        StringBuilder topics = new StringBuilder();
+        int shown = Math.min(covering.length, 3);
+        for (int i = 0; i < shown; ++i) {
+            if (i > 0) {
+                topics.append("  |  ");
             }
+            topics.append(noteMarkers.get(covering[i]).info.getTopic());
+        }
+        if (covering.length > shown) {
+            topics.append("  (+").append(covering.length - shown)
+                    .append(" more)");
         }
+        nowPlaying.setText(topics.toString());
+    }
+
+    /*
+    return the start time of the marker that starts next after time, or
+    null if there's none
+    
+    requires: time != null
+    */
+    protected Duration getNextMarkerTime(final Duration time) {
+        int next = markerIndex.next((long) time.toMillis());
+        return next < 0 ? null : noteMarkers.get(next).info.getStartTime();
+    }
+
+    /*
+    return the start time of the marker that started last before time (a
+    marker that has only just started doesn't count, so this can be used
+    to go back marker by marker), or null if there's none
+    
+    requires: time != null
+    */
+    protected Duration getPreviousMarkerTime(final Duration time) {
+        int previous = markerIndex.previous((long) time.toMillis());
+        return previous < 0 ? null
+                : noteMarkers.get(previous).info.getStartTime();
     }
 
     //get the current time in the media
     abstract protected Duration getCurrentTimeInVideo();
 
+    /*
+    return true if the player can tell the current time (and be sought),
+    so a note can be added; players that load in the background override
+    this
+    */
+    protected boolean isPlayerReady() {
+        return true;
+    }
+
     /*
     get the appropriate horizontal position along the note marking area
     based on the time in the media associated with that marker
@@ -591,6 +621,51 @@ public abstract class MediaNoteTaker extends BorderPane {
     
     // stop the media
     abstract protected void stopVideo();
+
+    /*
+    set the pool the views (and engines) playing the media are taken from
+    and given back to; null to make new ones for this session only; this
+    has to be called before the media is started
+    */
+    void setEnginePool(final SessionEnginePool enginePool) {
+        this.enginePool = enginePool;
+    }
+
+    /*
+    close the note taker: stop the media, and release everything it holds
+    onto outside of itself (native players, web engines, the listeners on
+    them, the note editor's stage), giving the views playing the media back
+    to the engine pool (if there's one); the note taker isn't used after
+    this, and closing it again does nothing
+    */
+    @Override
+    public final void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (playbackClock != null) {
+            playbackClock.close();
+        }
+        releaseMedia();
+        if (noteEditor != null) {
+            noteEditor.hide();
+            noteEditor = null;
+        }
+        onMarkersChanged = null;
+        setCenter(null);
+    }
+
+    // return whether the note taker has been closed
+    boolean isClosed() {
+        return closed;
+    }
+
+    /*
+    stop the media (if it has been started) and release the players, views
+    and listeners playing it; called once, when the note taker is closed
+    */
+    abstract protected void releaseMedia();
     
     // return the total duration of the current media
     abstract protected Duration getTotalDuration();
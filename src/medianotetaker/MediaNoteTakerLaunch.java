@@ -1,31 +1,33 @@
 package medianotetaker;
 
-import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.event.ActionEvent;
 import javafx.geometry.Rectangle2D;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.ChoiceDialog;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.paint.Color;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Screen;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
 public class MediaNoteTakerLaunch extends Application {
 
@@ -33,16 +35,34 @@ public class MediaNoteTakerLaunch extends Application {
     private static BorderPane root;
     private static String mediaSource;
     private static String mediaName;
+    private static String mediaIdentity;
     private static MediaNoteTaker noteTaker;
+    private static AutosaveService autosave;
+    private static ProgressCatalog catalog;
+    private static VideoMetadataCache videoCache;
+    private static PeakCache peakCache;
+    private static SessionEnginePool enginePool;
+    private static MediaRelinker relinker;
     private boolean forLocalMedia, isAudioOnly;
-    private Stage stage;
+    private Stage stage, libraryStage;
     private int width, height;
 
+    // the progress is saved at most this often once it has a file
+    static final long AUTOSAVE_INTERVAL_SECONDS = 10;
 
     // set the scene of the primaryStage and show the stage
     @Override
     public void start(Stage primaryStage) {
         stage = primaryStage;
+        autosave = new AutosaveService(AUTOSAVE_INTERVAL_SECONDS);
+        catalog = new ProgressCatalog(ProgressCatalog.defaultFile());
+        videoCache = new VideoMetadataCache(VideoMetadataCache.defaultFile());
+        peakCache = new PeakCache(PeakCache.defaultDirectory());
+        enginePool = new SessionEnginePool(
+                YouTubeNoteTaker.YOUTUBE_PLAYER_PAGE);
+        autosave.setCatalog(catalog);
+        autosave.setOnFailure(this::alertCannotSave);
+        relinker = new MediaRelinker();
         menuBar = makeMenuBar();
         root = new BorderPane();
         root.setStyle("-fx-background-color: Black");
@@ -57,6 +77,19 @@ public class MediaNoteTakerLaunch extends Application {
         primaryStage.setTitle("Media Note Taker");
         primaryStage.setScene(scene);
         primaryStage.show();
+        // load the player page once the window is up, ahead of the first
+        // video
+        Platform.runLater(enginePool::warmUp);
+    }
+
+    /* save what's left unsaved before the application exits, then release
+       the media that's playing */
+    @Override
+    public void stop() {
+        autosave.shutdown(5000);
+        if (noteTaker != null) {
+            noteTaker.close();
+        }
     }
 
     public static void main(String[] args) {
@@ -85,16 +118,20 @@ public class MediaNoteTakerLaunch extends Application {
             if (mediaSource == null) {
                 return;
             }
+            autosave.unbind();
+            mediaIdentity = null;
             if (noteTaker != null) {
                 isAudioOnly = false;
-                noteTaker.stopVideo();
+                noteTaker.close();
                 noteTaker = null;
-                System.gc();
             }
             isAudioOnly = fileIsAudioOnly(getExtension(mediaName));
             noteTaker = new LocalMediaNoteTaker((int)(width * 0.85), 
                     (int)(height * 0.9));
+            noteTaker.setEnginePool(enginePool);
             root.setCenter(noteTaker);
+            ((LocalMediaNoteTaker) noteTaker).setPeakCache(peakCache,
+                    identify(mediaFile));
             ((LocalMediaNoteTaker) noteTaker).startPlaying(mediaSource,
                     isAudioOnly);
             saveProgress.setDisable(false);
@@ -105,6 +142,39 @@ public class MediaNoteTakerLaunch extends Application {
         return localOpen;
     }
 
+    /*
+    compute the media identity of mediaFile, which lets a progress made on
+    it find it again after it's moved, in the background, and return the
+    task computing it; once it's computed it's attached to the session
+    open now (if it's still the one mediaFile was opened in), and to its
+    autosaved progress. The session has no identity if the file can't be
+    read.
+    
+    requires: mediaFile != null, noteTaker != null
+     */
+    private Task<String> identify(final File mediaFile) {
+        MediaNoteTaker session = noteTaker;
+        Task<String> identifying = new Task<String>() {
+            @Override
+            protected String call() throws Exception {
+                return MediaIdentity.of(mediaFile);
+            }
+        };
+        identifying.setOnSucceeded((WorkerStateEvent event) -> {
+            if (noteTaker != session) {
+                return;
+            }
+            mediaIdentity = identifying.getValue();
+            if (autosave.getJournal() != null) {
+                // a progress saved before the identity was known gets it
+                startAutosave(autosave.getJournal());
+                autosave.markDirty();
+            }
+        });
+        startDaemon(identifying, "Media identifier");
+        return identifying;
+    }
+
     /*
     return true if the extension represents an audio only file, and
     false if otherwise
@@ -164,19 +234,22 @@ public class MediaNoteTakerLaunch extends Application {
             }
 
             if (inputURL.isPresent()) {
+                autosave.unbind();
                 if (noteTaker != null) {
                     isAudioOnly = false;
-                    noteTaker.stopVideo();
+                    noteTaker.close();
                     noteTaker = null;
-                    System.gc();
                 }
                 noteTaker = new YouTubeNoteTaker((int)(width * 0.85), 
                     (int)(height * 0.9));
+                noteTaker.setEnginePool(enginePool);
                 root.setCenter(noteTaker);
 
                 String url = inputURL.get();
                 mediaName = url;
+                mediaIdentity = null;
                 setMediaSourceFromYouTube(url);
+                ((YouTubeNoteTaker) noteTaker).setMetadataCache(videoCache);
                 ((YouTubeNoteTaker) noteTaker).startPlaying(mediaSource);
 
                 saveProgress.setDisable(false);
@@ -188,125 +261,456 @@ public class MediaNoteTakerLaunch extends Application {
     }
 
     /*
-    writes the info from infoList (which stores all the progress--i.e. the
-    notes the user has added--the user has made during this session)
-    into .DAT file and enables the user to choose where to save this file
+    start autosaving the current session to journal; the snapshots the
+    autosave service takes hold the media of this session even after
+    another media has been opened
     
-    requires: infoList != null and is not empty
+    requires: journal != null
+              noteTaker != null
      */
-    private void saveProgressFile(final ArrayList<NoteMarkerInfo> infoList) {
-        FileOutputStream fos = null;
-        ObjectOutputStream out = null;
-        try {
-            FileChooser fc = new FileChooser();
-            fc.getExtensionFilters().add(new FileChooser.ExtensionFilter(
-                    "DAT file (.dat)", "*.dat"));
-            fc.setTitle("Save progress");
+    private void startAutosave(final ProgressJournal journal) {
+        MediaNoteTaker session = noteTaker;
+        boolean local = forLocalMedia;
+        boolean audioOnly = isAudioOnly;
+        String source = mediaSource;
+        String name = mediaName;
+        String identity = mediaIdentity;
+        autosave.bind(journal, session, () -> {
+            ArrayList<NoteMarkerInfo> infoList = new ArrayList();
+            for (NoteMarker marker : session.getNoteMarkers()) {
+                // a marker whose note is still being added is always the
+                // last one, so leaving it out doesn't move the others
+                if (marker.hasBeenSet()) {
+                    infoList.add(marker.info);
+                }
+            }
+            NoteProgress progress = new NoteProgress(infoList, local,
+                    audioOnly, source, name, session.getTotalDuration());
+            progress.setMediaIdentity(identity);
+            return progress;
+        });
+    }
 
-            NoteProgress progress = new NoteProgress(infoList,
-                    forLocalMedia, isAudioOnly, mediaSource, mediaName,
-                    noteTaker.getTotalDuration());
+    /*
+    enable the user to choose the .DAT file to save the progress (i.e. 
+    the notes the user has added during this session) in, and save it
+    there; later saves in this session, including the automatic ones,
+    then go to the same file. If encrypted is true, the user also chooses
+    a passphrase, and the progress is saved encrypted with it once its key
+    has been derived in the background.
+     */
+    private void saveProgressFile(final boolean encrypted) {
+        FileChooser fc = new FileChooser();
+        fc.getExtensionFilters().add(new FileChooser.ExtensionFilter(
+                "DAT file (.dat)", "*.dat"));
+        fc.setTitle(encrypted ? "Save encrypted progress" : "Save progress");
 
-            File file = fc.showSaveDialog(stage);
-            if (file != null) {
-                fos = new FileOutputStream(file);
-                out = new ObjectOutputStream(fos);
-                out.writeObject(progress);
+        File file = fc.showSaveDialog(stage);
+        if (file == null) {
+            return;
+        }
+        if (!encrypted) {
+            startAutosave(new ProgressJournal(file, null));
+            autosave.saveNow();
+            return;
+        }
+        Optional<char[]> passphrase = new PassphraseDialog(
+                "Choose a passphrase to protect the progress with",
+                true).showAndWait();
+        if (!passphrase.isPresent()) {
+            return;
+        }
+        // deriving the key is slow on purpose, so it's kept off this thread
+        MediaNoteTaker session = noteTaker;
+        Task<ProgressKey> keying = new Task<ProgressKey>() {
+            @Override
+            protected ProgressKey call() throws Exception {
+                return ProgressKey.create(passphrase.get());
             }
-        } catch (Exception ex) {
-        } finally {
-            try {
-                if (fos != null && out != null) {
-                    fos.close();
-                    out.close();
-                }
-            } catch (IOException ex) {
+        };
+        keying.setOnSucceeded((WorkerStateEvent event) -> {
+            // the progress of a session closed meanwhile isn't saved
+            if (noteTaker == session) {
+                startAutosave(new ProgressJournal(file, keying.getValue()));
+                autosave.saveNow();
             }
+        });
+        keying.setOnFailed((WorkerStateEvent event) -> {
+            alertCannotEncrypt();
+        });
+        startDaemon(keying, "Progress key maker");
+    }
+
+    /*
+    return true if markers have been added in this session, and alert the
+    user that there's nothing to save otherwise
+     */
+    private boolean hasMarkersToSave() {
+        if (noteTaker.getNoteMarkers().isEmpty()) {
+            alertNothingToSave();
+            return false;
         }
+        return true;
     }
 
     /*
     make and return the  menu item that the user can click
     on to save their progress in a .DAT file that they can open in the
     future to continue their work (this will display both the media and the
-    embedded notes)
+    embedded notes); the file is only asked for the first time, after
+    which the progress is also saved automatically
      */
     private MenuItem makeSaveProgressMenuItem() {
         MenuItem saveProgress = new MenuItem("Save progress");
         saveProgress.setOnAction((ActionEvent event) -> {
-            ArrayList<NoteMarker> markers = noteTaker.getNoteMarkers();
-            if (markers.isEmpty()) {
-                alertNothingToSave();
+            if (!hasMarkersToSave()) {
                 return;
             }
-            ArrayList<NoteMarkerInfo> infoList = new ArrayList();
-            for (NoteMarker marker : markers) {
-                infoList.add(marker.info);
+            if (autosave.getJournal() == null) {
+                saveProgressFile(false);
+            } else {
+                autosave.saveNow();
             }
-            saveProgressFile(infoList);
         });
         saveProgress.setDisable(true);
         return saveProgress;
     }
 
+    /*
+    make and return the menu item that the user can click on to save
+    their progress in a new .DAT file of their choice
+     */
+    private MenuItem makeSaveProgressAsMenuItem() {
+        MenuItem saveProgressAs = new MenuItem("Save progress as");
+        saveProgressAs.setOnAction((ActionEvent event) -> {
+            if (hasMarkersToSave()) {
+                saveProgressFile(false);
+            }
+        });
+        return saveProgressAs;
+    }
+
+    /*
+    make and return the menu item that the user can click on to save
+    their progress in a new .DAT file of their choice, encrypted with a
+    passphrase they choose
+     */
+    private MenuItem makeSaveEncryptedProgressMenuItem() {
+        MenuItem saveEncrypted = new MenuItem("Save encrypted progress as");
+        saveEncrypted.setOnAction((ActionEvent event) -> {
+            if (hasMarkersToSave()) {
+                saveProgressFile(true);
+            }
+        });
+        return saveEncrypted;
+    }
+
     /*
     make and return the menu item that the user can click on to
-    extract and save their notes as text files
+    extract and save their notes in one of the export formats (plain
+    text, Markdown, JSON, CSV, or subtitles to overlay in other players)
      */
     private MenuItem makeExtractAndSaveMenuItem() {
         MenuItem extractAndSave = new MenuItem("Extract notes and save as");
         extractAndSave.setOnAction((ActionEvent event) -> {
-            FileChooser fc = new FileChooser();
-            fc.setTitle("Extract and save note");
-
             ArrayList<NoteMarker> markers = noteTaker.getNoteMarkers();
             if (markers.isEmpty()) {
                 alertNothingToSave();
                 return;
             }
 
-            String note = writeNoteAsTxt(markers);
+            FileChooser fc = new FileChooser();
+            fc.setTitle("Extract and save note");
+            for (ExportFormat format : ExportFormat.values()) {
+                fc.getExtensionFilters().add(new ExtensionFilter(
+                        format.getDescription() + " (" + format.getExtension()
+                        + ")", "*" + format.getExtension()));
+            }
             File file = fc.showSaveDialog(stage);
-            if (file != null) {
-                writeNoteToFile(note, file);
+            if (file == null) {
+                return;
+            }
+            ExportFormat format = ExportFormat.fromFileName(file.getName());
+            if (format == null) {
+                int chosen = fc.getExtensionFilters().indexOf(
+                        fc.getSelectedExtensionFilter());
+                format = ExportFormat.values()[Math.max(0, chosen)];
+                file = new File(file.getPath() + format.getExtension());
+            }
+            ArrayList<NoteMarkerInfo> infoList = new ArrayList();
+            for (NoteMarker marker : markers) {
+                if (marker.hasBeenSet()) {
+                    infoList.add(marker.info);
+                }
             }
+            exportNotes(format, infoList, file);
         });
         extractAndSave.setDisable(true);
         return extractAndSave;
     }
 
     /*
-    read from file the previous progress (i.e. the previous notes)
-    the user has made
+    make and return the menu item that the user can click on to import
+    markers for the current media from a subtitle file (.vtt or .srt) or a
+    list of timestamps (.txt), e.g. the chapters of a lecture
+     */
+    private MenuItem makeImportNotesMenuItem() {
+        MenuItem importNotes = new MenuItem("Import notes");
+        importNotes.setOnAction((ActionEvent event) -> {
+            FileChooser fc = new FileChooser();
+            fc.setTitle("Import notes");
+            fc.getExtensionFilters().addAll(
+                    new ExtensionFilter("Subtitles or timestamps "
+                            + "(.vtt, .srt, .txt)", "*.vtt", "*.srt", "*.txt"),
+                    new ExtensionFilter("All files", "*.*"));
+            File file = fc.showOpenDialog(stage);
+            if (file == null) {
+                return;
+            }
+            String type = chooseImportType();
+            if (type != null) {
+                importNotes(file, type);
+            }
+        });
+        return importNotes;
+    }
+
+    /*
+    let the user choose the type given to imported markers whose topic
+    doesn't name one, and return it, or null if they cancel
+     */
+    private String chooseImportType() {
+        ChoiceDialog<String> dialog = new ChoiceDialog<>(
+                CatalogEntry.TYPES[0], CatalogEntry.TYPES);
+        dialog.setTitle("Import notes");
+        dialog.setHeaderText("Choose the type of the imported markers");
+        dialog.setContentText("A marker whose topic starts with a type in "
+                + "brackets, e.g. [Extra], gets that type instead.");
+        Optional<String> type = dialog.showAndWait();
+        return type.isPresent() ? type.get() : null;
+    }
+
+    /*
+    read the markers in file in the background, giving them type unless
+    they name their own, and add them all at once to the current note
+    taker; alert the user if file can't be read or has no markers in it
+    
+    requires: file, type != null
+     */
+    private void importNotes(final File file, final String type) {
+        MediaNoteTaker target = noteTaker;
+        Duration total = target.getTotalDuration();
+        long totalMillis = total == null || total.isUnknown()
+                || total.isIndefinite() ? -1 : (long) total.toMillis();
+        Task<ArrayList<NoteMarkerInfo>> importing =
+                new Task<ArrayList<NoteMarkerInfo>>() {
+            @Override
+            protected ArrayList<NoteMarkerInfo> call() throws IOException {
+                return new NoteImporter(type, totalMillis).importFile(file);
+            }
+        };
+        importing.setOnSucceeded((WorkerStateEvent event) -> {
+            ArrayList<NoteMarkerInfo> infoList = importing.getValue();
+            if (infoList.isEmpty()) {
+                Alert alert = new Alert(AlertType.INFORMATION);
+                alert.setTitle("Open Dialog");
+                alert.setHeaderText("There are no timestamps in "
+                        + file.getName());
+                alert.showAndWait();
+            } else if (noteTaker == target) {
+                target.addImportedMarkers(infoList);
+            }
+        });
+        importing.setOnFailed((WorkerStateEvent event) -> {
+            Alert alert = new Alert(AlertType.ERROR);
+            alert.setTitle("Open Dialog");
+            alert.setHeaderText("Couldn't read " + file.getName());
+            alert.showAndWait();
+        });
+        startDaemon(importing, "Note importer");
+    }
+
+    /*
+    write the notes in infoList into file in format in the background,
+    and alert the user if that fails
+    
+    requires: format, infoList, file != null
+     */
+    private void exportNotes(final ExportFormat format,
+            final ArrayList<NoteMarkerInfo> infoList, final File file) {
+        String name = mediaName;
+        Task<Void> exporting = new Task<Void>() {
+            @Override
+            protected Void call() throws IOException {
+                NoteExporter.export(format, name, infoList, file);
+                return null;
+            }
+        };
+        exporting.setOnFailed((WorkerStateEvent event) -> {
+            Alert alert = new Alert(AlertType.ERROR);
+            alert.setTitle("Save Dialog");
+            alert.setHeaderText("Couldn't save the notes in "
+                    + file.getName());
+            alert.showAndWait();
+        });
+        startDaemon(exporting, "Note exporter");
+    }
+
+    /*
+    read from file the previous progress like readProgressFromFile(file,
+    key, saveProgress, extractAndSave) does; if file is encrypted, the user
+    is asked for its passphrase first (again, if it's wrong)
+    
+    requires: file of type .DAT and is created and saved through this
+              application
+              saveProgress, extractAndSave != null
+     */
+    private void readProgressFromFile(final File file,
+            final MenuItem saveProgress, final MenuItem extractAndSave) {
+        if (!EncryptedProgressFile.isEncrypted(file)) {
+            readProgressFromFile(file, null, saveProgress, extractAndSave);
+            return;
+        }
+        Optional<char[]> passphrase = new PassphraseDialog(
+                "Please enter the passphrase of " + file.getName(),
+                false).showAndWait();
+        if (!passphrase.isPresent()) {
+            return;
+        }
+        Task<ProgressKey> unlocking = new Task<ProgressKey>() {
+            @Override
+            protected ProgressKey call() throws Exception {
+                return EncryptedProgressFile.unlock(file, passphrase.get());
+            }
+        };
+        unlocking.setOnSucceeded((WorkerStateEvent event) -> {
+            if (unlocking.getValue() == null) {
+                alertWrongPassphrase();
+                readProgressFromFile(file, saveProgress, extractAndSave);
+            } else {
+                readProgressFromFile(file, unlocking.getValue(), saveProgress,
+                        extractAndSave);
+            }
+        });
+        unlocking.setOnFailed((WorkerStateEvent event) -> {
+            alertCannotReadProgress(file);
+        });
+        startDaemon(unlocking, "Progress unlocker");
+    }
+
+    /*
+    read from file the previous progress (i.e. the previous notes) the
+    user has made, including the changes recorded in its journal since it
+    was last compacted, in the background; once it's read, continue the
+    work on it (see continueFromProgress). Files saved as serialized
+    objects by older versions of the application are read as well. The
+    progress is added to the progress library if it isn't there yet. If
+    its local media has been moved, it's looked for in the media folders
+    (see MediaRelinker), and if it isn't found there the user can choose
+    another folder to look in. An encrypted progress is decrypted with key,
+    and it isn't added to the library.
     
     requires: file of type .DAT and is created and saved through this
               application
+              key != null if file is encrypted
+              saveProgress, extractAndSave != null
      */
-    private NoteProgress readProgressFromFile(final File file) {
-        NoteProgress progress = new NoteProgress();
-        try {
-            FileInputStream fis = new FileInputStream(file);
-            ObjectInputStream in = new ObjectInputStream(fis);
-            while (true) {
+    private void readProgressFromFile(final File file, final ProgressKey key,
+            final MenuItem saveProgress, final MenuItem extractAndSave) {
+        ProgressJournal fileJournal = new ProgressJournal(file, key);
+        Task<NoteProgress> reading = new Task<NoteProgress>() {
+            @Override
+            protected NoteProgress call() throws IOException {
+                NoteProgress progress = fileJournal.open();
+                if (progress.isForLocalMedia() && !relinker.relink(progress)) {
+                    return null;
+                }
                 try {
-                    progress = (NoteProgress) (in.readObject());
-                } catch (EOFException ex) {
-                    break;
+                    if (key == null && catalog.isOutdated(file)) {
+                        catalog.update(file, progress);
+                    }
+                } catch (IOException ex) {
+                }
+                return progress;
+            }
+        };
+        reading.setOnSucceeded((WorkerStateEvent event) -> {
+            if (reading.getValue() == null) {
+                File folder = askForMediaFolder();
+                if (folder != null) {
+                    relinker.addMediaFolder(folder);
+                    readProgressFromFile(file, key, saveProgress,
+                            extractAndSave);
                 }
+                return;
             }
-            fis.close();
-            in.close();
-        } catch (IOException | ClassNotFoundException ex) {
+            continueFromProgress(reading.getValue(), saveProgress,
+                    extractAndSave);
+            startAutosave(fileJournal);
+            // keeps where the media was found and its identity, if new
+            autosave.markDirty();
+        });
+        reading.setOnFailed((WorkerStateEvent event) -> {
+            alertCannotReadProgress(file);
+        });
+        startDaemon(reading, "Progress reader");
+    }
+
+    // run task on a new daemon thread named name
+    private static void startDaemon(final Task<?> task, final String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /*
+    open the media progress was made on, along with all the notes in
+    progress, and enable the user to save their new progress in this
+    session or to extract/save their notes by enabling the saveProgress
+    and the extractAndSave menu items
+    
+    requires: progress, saveProgress, extractAndSave != null
+     */
+    private void continueFromProgress(final NoteProgress progress,
+            final MenuItem saveProgress, final MenuItem extractAndSave) {
+        autosave.unbind();
+        if (noteTaker != null) {
+            isAudioOnly = false;
+            noteTaker.close();
+            noteTaker = null;
+        }
+        if (progress.isForLocalMedia()) {
+            noteTaker = new LocalMediaNoteTaker((int)(width * 0.85), 
+                (int)(height * 0.9));
+            noteTaker.setEnginePool(enginePool);
+            root.setCenter(noteTaker);
+            ((LocalMediaNoteTaker) noteTaker).setPeakCache(peakCache,
+                    CompletableFuture.completedFuture(
+                            progress.getMediaIdentity()));
+            ((LocalMediaNoteTaker) noteTaker).
+                    startPlaying(progress.getMediaSource(), progress);
+        } else {
+            noteTaker = new YouTubeNoteTaker((int)(width * 0.85), 
+                (int)(height * 0.9));
+            noteTaker.setEnginePool(enginePool);
+            root.setCenter(noteTaker);
+            ((YouTubeNoteTaker) noteTaker).setMetadataCache(videoCache);
+            ((YouTubeNoteTaker) noteTaker).
+                    startPlaying(progress.getMediaSource(), progress);
         }
-        return progress;
+        mediaName = progress.getMediaName();
+        mediaSource = progress.getMediaSource();
+        mediaIdentity = progress.getMediaIdentity();
+        forLocalMedia = progress.isForLocalMedia();
+        isAudioOnly = progress.isAudioOnly();
+        saveProgress.setDisable(false);
+        extractAndSave.setDisable(false);
     }
 
     /*
     make and return the menu item that the user can click on to
     continue their work by opening the .DAT file that they've saved
-    earlier; also, enable the user to save their new progress in this
-    session or to extract/save their notes by enabling the saveProgress
-    and the extractAndSave menu items
+    earlier
      */
     private MenuItem makeContinuePreviousMenuItem(final MenuItem saveProgress,
             final MenuItem extractAndSave) {
@@ -316,31 +720,57 @@ public class MediaNoteTakerLaunch extends Application {
             if (file == null) {
                 return;
             }
-            NoteProgress progress = readProgressFromFile(file);
-            if (noteTaker != null) {
-                isAudioOnly = false;
-                noteTaker.stopVideo();
-                noteTaker = null;
-                System.gc();
-            }
-            if (progress.isForLocalMedia()) {
-                noteTaker = new LocalMediaNoteTaker((int)(width * 0.85), 
-                    (int)(height * 0.9));
-                root.setCenter(noteTaker);
-                ((LocalMediaNoteTaker) noteTaker).
-                        startPlaying(progress.getMediaSource(), progress);
+            readProgressFromFile(file, saveProgress, extractAndSave);
+        });
+        return continuePrevious;
+    }
+
+    /*
+    make and return the menu item that the user can click on to see all
+    the progress they've saved in the progress library, from which they
+    can continue any of them
+     */
+    private MenuItem makeLibraryMenuItem(final MenuItem saveProgress,
+            final MenuItem extractAndSave) {
+        MenuItem library = new MenuItem("Library");
+        library.setOnAction((ActionEvent event) -> {
+            if (libraryStage == null) {
+                libraryStage = new Stage();
+                libraryStage.setTitle("Library");
+                libraryStage.initOwner(stage);
+                libraryStage.setScene(new Scene(new ProgressLibraryView(
+                        catalog, (File file) -> {
+                    libraryStage.hide();
+                    readProgressFromFile(file, saveProgress, extractAndSave);
+                }), width * 0.8, height * 0.6));
             } else {
-                noteTaker = new YouTubeNoteTaker((int)(width * 0.85), 
-                    (int)(height * 0.9));
-                root.setCenter(noteTaker);
-                ((YouTubeNoteTaker) noteTaker).
-                        startPlaying(progress.getMediaSource(), progress);
+                ((ProgressLibraryView) libraryStage.getScene().getRoot())
+                        .refresh();
             }
-            mediaName = progress.getMediaName();
-            saveProgress.setDisable(false);
-            extractAndSave.setDisable(false);
+            libraryStage.show();
+            libraryStage.toFront();
         });
-        return continuePrevious;
+        return library;
+    }
+
+    /*
+    make and return the menu item that the user can click on to see how
+    the automatic saves are going: how long they take, how many are
+    waiting to be written and whether any failed
+     */
+    private MenuItem makeAutosaveStatusMenuItem() {
+        MenuItem autosaveStatus = new MenuItem("Autosave status");
+        autosaveStatus.setOnAction((ActionEvent event) -> {
+            Alert alert = new Alert(AlertType.INFORMATION);
+            alert.setTitle("Autosave");
+            alert.setHeaderText(autosave.getJournal() == null
+                    ? "The progress isn't being saved to a file yet"
+                    : "Saving to "
+                    + autosave.getJournal().getProgressFile().getName());
+            alert.setContentText(autosave.status());
+            alert.showAndWait();
+        });
+        return autosaveStatus;
     }
 
     /* 
@@ -353,51 +783,94 @@ public class MediaNoteTakerLaunch extends Application {
         Menu menuFile = new Menu("File");
 
         MenuItem saveProgress = makeSaveProgressMenuItem();
+        MenuItem saveProgressAs = makeSaveProgressAsMenuItem();
+        saveProgressAs.disableProperty().bind(saveProgress.disableProperty());
+        MenuItem saveEncrypted = makeSaveEncryptedProgressMenuItem();
+        saveEncrypted.disableProperty().bind(saveProgress.disableProperty());
         MenuItem extractAndSave = makeExtractAndSaveMenuItem();
+        MenuItem importNotes = makeImportNotesMenuItem();
+        importNotes.disableProperty().bind(saveProgress.disableProperty());
         MenuItem localOpen = makeLocalOpenMenuItem(saveProgress, extractAndSave);
         MenuItem urlOpen = makeURLOpenMenuItem(saveProgress, extractAndSave);
         MenuItem continuePrevious = makeContinuePreviousMenuItem(saveProgress,
                 extractAndSave);
+        MenuItem library = makeLibraryMenuItem(saveProgress, extractAndSave);
+        MenuItem autosaveStatus = makeAutosaveStatusMenuItem();
 
         menuFile.getItems().addAll(localOpen, urlOpen, continuePrevious,
-                saveProgress, extractAndSave);
+                library, saveProgress, saveProgressAs, saveEncrypted,
+                importNotes, extractAndSave, autosaveStatus);
         bar.getMenus().add(menuFile);
         return bar;
     }
 
-    // alert the user that he/she haven't added any notes to save
-    private void alertNothingToSave() {
-        Alert alert = new Alert(AlertType.INFORMATION);
-        alert.setTitle("Save Dialog");
-        alert.setHeaderText("Nothing to save!");
+    /*
+    tell the user that the media of the progress they want to continue
+    couldn't be found, and let them choose a folder to look for it in;
+    return that folder, or null if they don't choose one
+     */
+    private File askForMediaFolder() {
+        Alert alert = new Alert(AlertType.CONFIRMATION);
+        alert.setTitle("Open Dialog");
+        alert.setHeaderText("Couldn't find the media of this progress");
+        alert.setContentText("It might have been moved or renamed. Please "
+                + "choose a folder to look for it in.");
+        Optional<ButtonType> answer = alert.showAndWait();
+        if (!answer.isPresent() || answer.get() != ButtonType.OK) {
+            return null;
+        }
+        DirectoryChooser dc = new DirectoryChooser();
+        dc.setTitle("Look for the media in");
+        return dc.showDialog(stage);
+    }
+
+    // alert the user that the passphrase they entered is wrong
+    private void alertWrongPassphrase() {
+        Alert alert = new Alert(AlertType.ERROR);
+        alert.setTitle("Open Dialog");
+        alert.setHeaderText("Wrong passphrase!");
         alert.showAndWait();
     }
 
     /*
-    return the info of markers arranged in a way that's easy to read;
-    this should be called when the user wants to extract and save his/her
-    notes separately
-     */
-    private String writeNoteAsTxt(final ArrayList<NoteMarker> markers) {
-        String note = mediaName + "\n\n";
-        for (NoteMarker marker : markers) {
-            note += marker.info;
-        }
-        return note;
+    alert the user that the progress couldn't be saved because of ex; the
+    file keeps the progress as it was last saved
+    */
+    private void alertCannotSave(final IOException ex) {
+        Alert alert = new Alert(AlertType.ERROR);
+        alert.setTitle("Save Dialog");
+        alert.setHeaderText("Couldn't save the progress");
+        alert.setContentText(ex.getMessage() + "\nThe file keeps the "
+                + "progress as it was last saved, and saving will be tried "
+                + "again shortly.");
+        alert.showAndWait();
     }
 
-    /* 
-    write the noteContent into file
-    
-    requires: file != null
-     */
-    private void writeNoteToFile(final String noteContent, final File file) {
-        try {
-            FileWriter fw = new FileWriter(file);
-            fw.write(noteContent);
-            fw.close();
-        } catch (IOException ex) {
-        }
+    // alert the user that the progress couldn't be encrypted
+    private void alertCannotEncrypt() {
+        Alert alert = new Alert(AlertType.ERROR);
+        alert.setTitle("Save Dialog");
+        alert.setHeaderText("Couldn't encrypt the progress");
+        alert.setContentText("Encryption isn't available on this system.");
+        alert.showAndWait();
+    }
+
+    // alert the user that the progress in file couldn't be read
+    private void alertCannotReadProgress(final File file) {
+        Alert alert = new Alert(AlertType.ERROR);
+        alert.setTitle("Open Dialog");
+        alert.setHeaderText("Couldn't read the progress in " + file.getName());
+        alert.setContentText("The file might be damaged, or it isn't a "
+                + "progress saved by this application.");
+        alert.showAndWait();
+    }
+
+    // alert the user that he/she haven't added any notes to save
+    private void alertNothingToSave() {
+        Alert alert = new Alert(AlertType.INFORMATION);
+        alert.setTitle("Save Dialog");
+        alert.setHeaderText("Nothing to save!");
+        alert.showAndWait();
     }
 
     /*
@@ -0,0 +1,167 @@
+package medianotetaker;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.prefs.Preferences;
+import java.util.stream.Collectors;
+
+
+/*
+The media relinker finds the local media of a progress again after it has
+been moved or renamed, by looking for a file with the same media identity
+in the media folders the user has told it about. The folders are scanned
+in parallel, and only the files with the right size are hashed, those with
+the media's old name first. Progress saved before media identities were
+kept can only be relinked by the name of the media.
+
+The media folders are kept in the user's preferences.
+*/
+final class MediaRelinker {
+
+    private static final String FOLDERS_KEY = "mediaFolders";
+
+    private final Preferences preferences;
+
+    // constructor
+    MediaRelinker() {
+        preferences = Preferences.userNodeForPackage(MediaRelinker.class);
+    }
+
+    // return the folders searched for moved media
+    ArrayList<File> getMediaFolders() {
+        ArrayList<File> folders = new ArrayList();
+        String stored = preferences.get(FOLDERS_KEY, "");
+        for (String path : stored.split(File.pathSeparator)) {
+            if (!path.isEmpty()) {
+                folders.add(new File(path));
+            }
+        }
+        return folders;
+    }
+
+    /*
+    add folder to the folders searched for moved media
+
+    requires: folder != null
+    */
+    void addMediaFolder(final File folder) {
+        ArrayList<File> folders = getMediaFolders();
+        File absolute = folder.getAbsoluteFile();
+        if (!folders.contains(absolute)) {
+            folders.add(absolute);
+            preferences.put(FOLDERS_KEY, folders.stream().map(File::getPath)
+                    .collect(Collectors.joining(File.pathSeparator)));
+        }
+    }
+
+    /*
+    make sure the local media of progress can be opened: if it's where the
+    progress says, give the progress the media's identity in case it
+    doesn't have one yet; otherwise look for the media in the media folders
+    and point the progress at it if it's found. Return true if the media
+    can be opened afterwards. This reads files, so it shouldn't be called
+    on the JavaFX Application Thread.
+
+    requires: progress != null
+              progress.isForLocalMedia()
+    */
+    boolean relink(final NoteProgress progress) {
+        File media = toFile(progress.getMediaSource());
+        if (media != null && media.isFile()) {
+            if (progress.getMediaIdentity() == null) {
+                try {
+                    progress.setMediaIdentity(MediaIdentity.of(media));
+                } catch (IOException ex) {
+                }
+            }
+            return true;
+        }
+        String name = media != null ? media.getName()
+                : progress.getMediaName();
+        File found = find(progress.getMediaIdentity(), name);
+        if (found == null) {
+            return false;
+        }
+        progress.setMediaSource(found.toURI().toString());
+        return true;
+    }
+
+    /*
+    return a file in the media folders that has the content identified by
+    identity, preferring one named name, or null if there's none; if
+    identity is null, return a file named name instead
+    */
+    File find(final String identity, final String name) {
+        long size = identity == null ? -1 : MediaIdentity.sizeOf(identity);
+        if (identity != null && size < 0) {
+            return null;
+        }
+        List<File> candidates = getMediaFolders().parallelStream()
+                .flatMap((File folder) -> findCandidates(folder.toPath(), size,
+                        name).stream())
+                .sorted(Comparator.comparing(
+                        (File f) -> !f.getName().equals(name)))
+                .collect(Collectors.toList());
+        if (identity == null) {
+            return candidates.isEmpty() ? null : candidates.get(0);
+        }
+        Optional<File> found = candidates.parallelStream()
+                .filter((File f) -> MediaIdentity.matches(f, identity))
+                .findFirst();
+        return found.orElse(null);
+    }
+
+    /*
+    return the files under folder that have the given size, or, if size is
+    negative, that are named name; folders that can't be read are skipped
+    */
+    private static List<File> findCandidates(final Path folder,
+            final long size, final String name) {
+        ArrayList<File> candidates = new ArrayList();
+        try {
+            Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file,
+                        final BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && (size < 0
+                            ? file.getFileName().toString().equals(name)
+                            : attrs.size() == size)) {
+                        candidates.add(file.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file,
+                        final IOException ex) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+        }
+        return candidates;
+    }
+
+    // return the local file source refers to, or null if it isn't one
+    private static File toFile(final String source) {
+        if (source == null) {
+            return null;
+        }
+        try {
+            return new File(new URI(source));
+        } catch (URISyntaxException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+}
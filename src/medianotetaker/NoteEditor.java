@@ -0,0 +1,232 @@
+package medianotetaker;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.geometry.HPos;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextArea;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.GridPane;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+import javafx.stage.WindowEvent;
+import javafx.util.Callback;
+
+
+/*
+The note editor is the note stage: the window in which the user enters
+(or changes) the type, topic and note of a marker, and whether it's by
+itself or the start of a section. A note taker has a single note editor,
+built the first time a marker is added or opened, which is bound to the
+marker being edited each time it's shown; markers don't have windows of
+their own, so opening a progress with thousands of markers builds no
+controls for them. The note of a marker is only read when it's edited.
+*/
+final class NoteEditor {
+
+    private final Stage noteStage;
+    private final ComboBox<String> typeSelect;
+    private final TextField topicField;
+    private final TextArea noteArea;
+    private final CheckBox checkByItself, checkPartOfSection;
+    private NoteMarker marker;
+    private Consumer<NoteMarker> onCancel;
+
+    /*
+    constructor: create the (hidden) note stage; the types are listed in
+    the colors typeColor gives them, and enterNote is the button that
+    finishes adding the note
+
+    requires: typeColor, enterNote != null
+    */
+    NoteEditor(final Function<String, Color> typeColor,
+            final Button enterNote) {
+        typeSelect = createTypeSelect(typeColor);
+        topicField = new TextField();
+        topicField.setPromptText("The topic of your note");
+        noteArea = new TextArea();
+        noteArea.setPromptText("Please enter your note (optional)");
+        noteArea.setWrapText(true);
+        checkByItself = new CheckBox();
+        checkPartOfSection = new CheckBox();
+        configureCheckBoxes();
+
+        BorderPane notePane = new BorderPane();
+        notePane.setTop(typeSelect);
+        notePane.setCenter(createNoteTextEnterPane());
+        notePane.setBottom(createNotePaneBottom(enterNote));
+
+        noteStage = new Stage();
+        noteStage.setTitle("Adding a marker");
+        noteStage.setScene(new Scene(notePane, 400, 430));
+        noteStage.setResizable(false);
+        noteStage.setOnCloseRequest((WindowEvent event) -> {
+            NoteMarker closed = marker;
+            marker = null;
+            if (onCancel != null && closed != null) {
+                onCancel.accept(closed);
+            }
+        });
+    }
+
+    /*
+    set what to do with the marker being edited when the note stage is
+    closed without finishing it
+    */
+    void setOnCancel(final Consumer<NoteMarker> onCancel) {
+        this.onCancel = onCancel;
+    }
+
+    /*
+    fill the note stage in with what marker holds (or leave it blank, if
+    it hasn't been set yet), and show it; if the marker's note can't be
+    read, the IOException is thrown and the note stage is left as it was,
+    so the note can't be overwritten with an empty one
+
+    requires: marker != null
+    */
+    void edit(final NoteMarker marker) throws IOException {
+        boolean set = marker.hasBeenSet();
+        String note = set && marker.info.hasNote()
+                ? marker.info.getNote() : "";
+        this.marker = marker;
+        typeSelect.setValue(set ? marker.info.getType() : null);
+        topicField.setText(set ? marker.info.getTopic() : "");
+        noteArea.setText(note);
+        checkByItself.setSelected(set && marker.info.isByItself());
+        checkPartOfSection.setSelected(!checkByItself.isSelected());
+        noteStage.show();
+        noteStage.toFront();
+    }
+
+    // hide the note stage, unbinding it from the marker being edited
+    void hide() {
+        marker = null;
+        noteStage.hide();
+    }
+
+    // return the marker being edited, or null if the note stage isn't shown
+    NoteMarker getMarker() {
+        return marker;
+    }
+
+    // return the type chosen, or null if none has been
+    String getType() {
+        return typeSelect.getValue();
+    }
+
+    // return the topic entered
+    String getTopic() {
+        return topicField.getText();
+    }
+
+    // return the note entered
+    String getNote() {
+        return noteArea.getText();
+    }
+
+    // return true if the marker is to be by itself
+    boolean isByItself() {
+        return checkByItself.isSelected();
+    }
+
+    /*
+    make and return the combo box in the note pane, through which user
+    selects the type of the note he/she is adding
+    */
+    private static ComboBox<String> createTypeSelect(
+            final Function<String, Color> typeColor) {
+        ObservableList<String> types = FXCollections.observableArrayList(
+                CatalogEntry.TYPES);
+        ComboBox<String> typeSelect = new ComboBox(types);
+        typeSelect.setPrefWidth(400);
+        typeSelect.setPromptText("Choose the type of your marker");
+
+        typeSelect.setCellFactory(
+                new Callback<ListView<String>, ListCell<String>>() {
+            @Override
+            public ListCell<String> call(ListView<String> param) {
+                return new ListCell<String>() {
+                    @Override
+                    protected void updateItem(String item, boolean empty) {
+                        super.updateItem(item, empty);
+                        if (item != null && !empty) {
+                            setText(item);
+                            setTextFill(typeColor.apply(item));
+                        } else {
+                            setText(null);
+                            setGraphic(null);
+                        }
+                    }
+                };
+            }
+        });
+        return typeSelect;
+    }
+
+    /*
+    make checkPartOfSection true by default and make sure it and
+    checkByItself cannot be both checked
+    */
+    private void configureCheckBoxes() {
+        checkByItself.setText("By itself");
+        checkByItself.selectedProperty().addListener(
+                (ObservableValue<? extends Boolean> observable,
+                        Boolean oldValue, Boolean newValue) -> {
+                    checkPartOfSection.setSelected(!newValue);
+                }
+        );
+
+        checkPartOfSection.setText("Start of a section");
+        checkPartOfSection.selectedProperty().addListener(
+                (ObservableValue<? extends Boolean> observable,
+                        Boolean oldValue, Boolean newValue) -> {
+                    checkByItself.setSelected(!newValue);
+                }
+        );
+
+        checkPartOfSection.setSelected(true);
+    }
+
+    /*
+    create a pane and add the checkboxes and the enterNote button to it,
+    and then setting their layouts; eventually return the pane
+    */
+    private GridPane createNotePaneBottom(final Button enterNote) {
+        GridPane bottomPane = new GridPane();
+        bottomPane.setHgap(20.0);
+        bottomPane.setPadding(new Insets(10.0));
+
+        bottomPane.setAlignment(Pos.BOTTOM_RIGHT);
+        bottomPane.add(checkByItself, 1, 0);
+        bottomPane.add(checkPartOfSection, 2, 0);
+        GridPane.setHalignment(checkByItself, HPos.RIGHT);
+        GridPane.setHalignment(checkPartOfSection, HPos.LEFT);
+        bottomPane.add(enterNote, 3, 3);
+        return bottomPane;
+    }
+
+    /*
+    create a pane and add the note area and the topic field to it, and
+    then setting their layouts; eventually return the pane
+    */
+    private BorderPane createNoteTextEnterPane() {
+        BorderPane noteTextEnterPane = new BorderPane();
+        noteTextEnterPane.setTop(topicField);
+        noteTextEnterPane.setCenter(noteArea);
+        BorderPane.setMargin(topicField, new Insets(20, 10, 10, 10));
+        return noteTextEnterPane;
+    }
+}
@@ -0,0 +1,470 @@
+package medianotetaker;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import static medianotetaker.TimeFormatter.formatTime;
+
+
+/*
+A note exporter writes the notes of a progress to a writer in one of the
+export formats, one marker at a time, so exporting takes time linear in
+the number of markers and only ever holds one note in memory (notes that
+are fetched lazily stay in their bounded cache, see LazyNoteStore). An
+export is begun once, given every marker in turn, and ended once.
+
+The exporters for the formats in ExportFormat are nested here.
+*/
+abstract class NoteExporter {
+
+    // how long a subtitle cue for a marker that's by itself is shown
+    static final long POINT_CUE_MILLIS = 4000;
+
+    // how many low bits of a sort key hold the marker's index
+    private static final int INDEX_BITS = 24;
+
+    protected final Writer out;
+
+    // constructor: create the exporter that writes to out
+    NoteExporter(final Writer out) {
+        this.out = out;
+    }
+
+    /*
+    export the notes of infos, made on the media named mediaName, into file
+    in format, replacing whatever file contained before
+
+    requires: format, infos, file != null
+    */
+    static void export(final ExportFormat format, final String mediaName,
+            final List<NoteMarkerInfo> infos, final File file)
+            throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8),
+                1 << 16)) {
+            NoteExporter exporter = format.newExporter(writer);
+            exporter.begin(mediaName);
+            for (int i : exporter.order(infos)) {
+                exporter.write(infos.get(i));
+            }
+            exporter.end();
+        }
+    }
+
+    /*
+    return the indices of infos in the order they should be exported in;
+    by default the order the user added them in
+    */
+    int[] order(final List<NoteMarkerInfo> infos) {
+        int[] order = new int[infos.size()];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    // write what comes before the markers
+    abstract void begin(String mediaName) throws IOException;
+
+    // write one marker
+    abstract void write(NoteMarkerInfo info) throws IOException;
+
+    // write what comes after the markers
+    void end() throws IOException {
+    }
+
+    // return s, or "" if it's null
+    static String orEmpty(final String s) {
+        return s == null ? "" : s;
+    }
+
+    // return the start time of info in ms, or 0 if it has none
+    static long startMillis(final NoteMarkerInfo info) {
+        return info.getStartTime() == null ? 0
+                : ProgressFileFormat.toMillis(info.getStartTime());
+    }
+
+    // return the end time of info in ms, or -1 if it's by itself
+    static long endMillis(final NoteMarkerInfo info) {
+        return info.isByItself() || info.getEndTime() == null ? -1
+                : ProgressFileFormat.toMillis(info.getEndTime());
+    }
+
+    /*
+    write millis as hours:minutes:seconds followed by separator and the
+    milliseconds, all zero-padded (e.g. 01:02:03.004)
+    */
+    void writeTimestamp(final long millis, final char separator)
+            throws IOException {
+        long seconds = millis / 1000;
+        writeDigits(seconds / 3600, 2);
+        out.write(':');
+        writeDigits(seconds / 60 % 60, 2);
+        out.write(':');
+        writeDigits(seconds % 60, 2);
+        out.write(separator);
+        writeDigits(millis % 1000, 3);
+    }
+
+    // write value with at least width digits
+    private void writeDigits(final long value, final int width)
+            throws IOException {
+        String digits = Long.toString(value);
+        for (int i = digits.length(); i < width; ++i) {
+            out.write('0');
+        }
+        out.write(digits);
+    }
+
+    // writes the notes like the note taker has always extracted them
+    static final class TextExporter extends NoteExporter {
+
+        TextExporter(final Writer out) {
+            super(out);
+        }
+
+        @Override
+        void begin(final String mediaName) throws IOException {
+            out.write(orEmpty(mediaName));
+            out.write("\n\n");
+        }
+
+        @Override
+        void write(final NoteMarkerInfo info) throws IOException {
+            out.write(formatTime(info.getStartTime()));
+            if (!info.isByItself()) {
+                out.write(" - ");
+                out.write(formatTime(info.getEndTime()));
+            }
+            out.write("\nTopic: ");
+            out.write(String.valueOf(info.getTopic()));
+            out.write("\nType: ");
+            out.write(String.valueOf(info.getType()));
+            out.write('\n');
+            out.write(String.valueOf(info.getNote()));
+            out.write("\n\n\n");
+        }
+    }
+
+    // writes a heading per marker, followed by its type and note
+    static final class MarkdownExporter extends NoteExporter {
+
+        MarkdownExporter(final Writer out) {
+            super(out);
+        }
+
+        @Override
+        void begin(final String mediaName) throws IOException {
+            out.write("# ");
+            out.write(orEmpty(mediaName));
+            out.write("\n\n");
+        }
+
+        @Override
+        void write(final NoteMarkerInfo info) throws IOException {
+            out.write("## ");
+            out.write(formatTime(info.getStartTime()));
+            if (!info.isByItself()) {
+                out.write(" - ");
+                out.write(formatTime(info.getEndTime()));
+            }
+            out.write(" | ");
+            out.write(orEmpty(info.getTopic()).replace('\n', ' '));
+            out.write("\n\n*");
+            out.write(orEmpty(info.getType()));
+            out.write("*\n\n");
+            out.write(orEmpty(info.getNote()));
+            out.write("\n\n");
+        }
+    }
+
+    /*
+    writes an object with the media's name and an array of the markers,
+    with their times in ms ("end" is null for markers that are by
+    themselves)
+    */
+    static final class JsonExporter extends NoteExporter {
+
+        private boolean first;
+
+        JsonExporter(final Writer out) {
+            super(out);
+        }
+
+        @Override
+        void begin(final String mediaName) throws IOException {
+            out.write("{\"media\": ");
+            writeString(mediaName);
+            out.write(",\n \"markers\": [");
+            first = true;
+        }
+
+        @Override
+        void write(final NoteMarkerInfo info) throws IOException {
+            out.write(first ? "\n  {\"start\": " : ",\n  {\"start\": ");
+            first = false;
+            out.write(Long.toString(startMillis(info)));
+            out.write(", \"end\": ");
+            long end = endMillis(info);
+            out.write(end < 0 ? "null" : Long.toString(end));
+            out.write(", \"type\": ");
+            writeString(info.getType());
+            out.write(", \"topic\": ");
+            writeString(info.getTopic());
+            out.write(", \"note\": ");
+            writeString(info.getNote());
+            out.write('}');
+        }
+
+        @Override
+        void end() throws IOException {
+            out.write("\n ]}\n");
+        }
+
+        // write s as a JSON string, or null
+        private void writeString(final String s) throws IOException {
+            if (s == null) {
+                out.write("null");
+                return;
+            }
+            out.write('"');
+            for (int i = 0; i < s.length(); ++i) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"':
+                        out.write("\\\"");
+                        break;
+                    case '\\':
+                        out.write("\\\\");
+                        break;
+                    case '\n':
+                        out.write("\\n");
+                        break;
+                    case '\r':
+                        out.write("\\r");
+                        break;
+                    case '\t':
+                        out.write("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            out.write(String.format("\\u%04x", (int) c));
+                        } else {
+                            out.write(c);
+                        }
+                }
+            }
+            out.write('"');
+        }
+    }
+
+    // writes a header row, then one row per marker (RFC 4180 quoting)
+    static final class CsvExporter extends NoteExporter {
+
+        CsvExporter(final Writer out) {
+            super(out);
+        }
+
+        @Override
+        void begin(final String mediaName) throws IOException {
+            out.write("start,end,topic,type,note\r\n");
+        }
+
+        @Override
+        void write(final NoteMarkerInfo info) throws IOException {
+            writeTimestamp(startMillis(info), '.');
+            out.write(',');
+            long end = endMillis(info);
+            if (end >= 0) {
+                writeTimestamp(end, '.');
+            }
+            out.write(',');
+            writeField(info.getTopic());
+            out.write(',');
+            writeField(info.getType());
+            out.write(',');
+            writeField(info.getNote());
+            out.write("\r\n");
+        }
+
+        // write s as a field, quoted if it has to be
+        private void writeField(final String s) throws IOException {
+            String field = orEmpty(s);
+            if (field.indexOf(',') < 0 && field.indexOf('"') < 0
+                    && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+                out.write(field);
+                return;
+            }
+            out.write('"');
+            out.write(field.replace("\"", "\"\""));
+            out.write('"');
+        }
+    }
+
+    /*
+    the subtitle exporters write a cue per marker, in the order of their
+    start times, which is what players expect; a marker that's by itself
+    is shown for POINT_CUE_MILLIS
+    */
+    abstract static class SubtitleExporter extends NoteExporter {
+
+        private int cueNumber;
+
+        SubtitleExporter(final Writer out) {
+            super(out);
+        }
+
+        /*
+        return the indices of infos sorted by start time; markers that are
+        already in order (the usual case) aren't sorted again
+
+        requires: infos.size() <= 2^INDEX_BITS
+        */
+        @Override
+        int[] order(final List<NoteMarkerInfo> infos) {
+            int[] order = super.order(infos);
+            long previous = Long.MIN_VALUE;
+            boolean sorted = true;
+            for (NoteMarkerInfo info : infos) {
+                long start = startMillis(info);
+                sorted &= start >= previous;
+                previous = start;
+            }
+            if (sorted) {
+                return order;
+            }
+            // the start time in the high bits, the index in the low ones
+            long[] keys = new long[infos.size()];
+            for (int i = 0; i < keys.length; ++i) {
+                keys[i] = (startMillis(infos.get(i)) << INDEX_BITS) | i;
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < keys.length; ++i) {
+                order[i] = (int) (keys[i] & ((1 << INDEX_BITS) - 1));
+            }
+            return order;
+        }
+
+        @Override
+        void write(final NoteMarkerInfo info) throws IOException {
+            long start = startMillis(info);
+            long end = endMillis(info);
+            if (end <= start) {
+                end = start + POINT_CUE_MILLIS;
+            }
+            writeCue(++cueNumber, start, end, orEmpty(info.getTopic()),
+                    orEmpty(info.getNote()));
+        }
+
+        // write the cue with number, times, and text (its topic and note)
+        abstract void writeCue(int number, long start, long end, String topic,
+                String note) throws IOException;
+
+        /*
+        write text without any blank lines, which would end the cue; line
+        breaks are written as \n
+        */
+        void writeCueText(final String text) throws IOException {
+            boolean lineStart = true;
+            for (int i = 0; i < text.length(); ++i) {
+                char c = text.charAt(i);
+                if (c == '\r') {
+                    continue;
+                }
+                if (c == '\n') {
+                    if (!lineStart) {
+                        out.write('\n');
+                    }
+                    lineStart = true;
+                    continue;
+                }
+                lineStart = false;
+                writeCueChar(c);
+            }
+            if (!lineStart) {
+                out.write('\n');
+            }
+        }
+
+        // write one character of cue text
+        void writeCueChar(final char c) throws IOException {
+            out.write(c);
+        }
+    }
+
+    // writes a WebVTT file, escaping what WebVTT treats as markup
+    static final class WebVttExporter extends SubtitleExporter {
+
+        WebVttExporter(final Writer out) {
+            super(out);
+        }
+
+        @Override
+        void begin(final String mediaName) throws IOException {
+            out.write("WEBVTT\n\n");
+        }
+
+        @Override
+        void writeCue(final int number, final long start, final long end,
+                final String topic, final String note) throws IOException {
+            out.write(Integer.toString(number));
+            out.write('\n');
+            writeTimestamp(start, '.');
+            out.write(" --> ");
+            writeTimestamp(end, '.');
+            out.write('\n');
+            writeCueText(topic);
+            writeCueText(note);
+            out.write('\n');
+        }
+
+        @Override
+        void writeCueChar(final char c) throws IOException {
+            switch (c) {
+                case '&':
+                    out.write("&amp;");
+                    break;
+                case '<':
+                    out.write("&lt;");
+                    break;
+                case '>':
+                    out.write("&gt;");
+                    break;
+                default:
+                    out.write(c);
+            }
+        }
+    }
+
+    // writes a SubRip (.srt) file
+    static final class SrtExporter extends SubtitleExporter {
+
+        SrtExporter(final Writer out) {
+            super(out);
+        }
+
+        @Override
+        void begin(final String mediaName) {
+        }
+
+        @Override
+        void writeCue(final int number, final long start, final long end,
+                final String topic, final String note) throws IOException {
+            out.write(Integer.toString(number));
+            out.write('\n');
+            writeTimestamp(start, ',');
+            out.write(" --> ");
+            writeTimestamp(end, ',');
+            out.write('\n');
+            writeCueText(topic);
+            writeCueText(note);
+            out.write('\n');
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package medianotetaker;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import javafx.util.Duration;
+import static medianotetaker.TimeFormatter.parseMillis;
+
+
+/*
+The note importer turns a subtitle file (WebVTT or SubRip) or a plain list
+of timestamps (a line per section, e.g. "12:34 Proof of the lemma") into
+note marker infos, each for the section of the media it covers:
+    - a subtitle cue covers the time it's shown; the first line of its
+      text is the topic and the rest of it (if any) the note
+    - a timestamp covers the time up to the next one (or to the end of the
+      media, if it's known, for the last one); lines without a timestamp
+      are the note of the timestamp before them
+A topic that starts with the short name of a marker type in brackets
+(e.g. "[Extra] A side remark", see CatalogEntry.TYPE_NAMES) gets that
+type; every other marker gets the default type. The file is read line by
+line in one pass, so importing is linear in the size of the file; the
+markers are only shown once the whole file has been read (see
+MediaNoteTaker.addImportedMarkers).
+*/
+final class NoteImporter {
+
+    // the extensions of the files that can be imported
+    static final String[] EXTENSIONS = {".vtt", ".srt", ".txt"};
+
+    private final String defaultType;
+    private final long totalMillis;
+    private final ArrayList<NoteMarkerInfo> infoList;
+    private NoteMarkerInfo current;
+    private StringBuilder note;
+
+    /*
+    constructor: create an importer that gives markers defaultType unless
+    their topic says otherwise, for media totalMillis long (or -1 if that
+    isn't known)
+
+    requires: defaultType is one of CatalogEntry.TYPES
+    */
+    NoteImporter(final String defaultType, final long totalMillis) {
+        this.defaultType = defaultType;
+        this.totalMillis = totalMillis;
+        infoList = new ArrayList();
+        note = new StringBuilder();
+    }
+
+    /*
+    return the infos of the markers in file; it's read as subtitles if its
+    extension is .vtt or .srt, or if a line of its first few has a cue
+    timing in it, and as a list of timestamps otherwise
+
+    requires: file != null
+    */
+    ArrayList<NoteMarkerInfo> importFile(final File file) throws IOException {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8),
+                1 << 16)) {
+            String name = file.getName().toLowerCase();
+            boolean subtitles = name.endsWith(".vtt")
+                    || name.endsWith(".srt");
+            if (!subtitles) {
+                in.mark(1 << 15);
+                String line;
+                for (int i = 0; i < 16 && (line = in.readLine()) != null;
+                        ++i) {
+                    subtitles |= line.contains("-->");
+                }
+                in.reset();
+            }
+            return subtitles ? readSubtitles(in) : readTimestamps(in);
+        }
+    }
+
+    /*
+    return the infos of the cues read from in, a WebVTT or SubRip file;
+    blocks without a cue timing (the header, numbers, comments, styles)
+    are skipped
+
+    requires: in != null
+    */
+    ArrayList<NoteMarkerInfo> readSubtitles(final Reader in)
+            throws IOException {
+        BufferedReader lines = in instanceof BufferedReader
+                ? (BufferedReader) in : new BufferedReader(in);
+        boolean inCue = false;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                finishMarker();
+                inCue = false;
+                continue;
+            }
+            int arrow = line.indexOf("-->");
+            if (!inCue && arrow >= 0) {
+                finishMarker();
+                inCue = startCue(line, arrow);
+                continue;
+            }
+            if (inCue) {
+                addText(stripMarkup(line));
+            }
+        }
+        finishMarker();
+        return infoList;
+    }
+
+    /*
+    return the infos of the timestamps read from in, a line per section;
+    the timestamp can be put in brackets or parentheses and come after a
+    list bullet, and the topic can be set off from it by a dash or a colon
+    (e.g. "- [1:02:03] - Topic")
+
+    requires: in != null
+    */
+    ArrayList<NoteMarkerInfo> readTimestamps(final Reader in)
+            throws IOException {
+        BufferedReader lines = in instanceof BufferedReader
+                ? (BufferedReader) in : new BufferedReader(in);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            if (!startTimestamp(line) && current != null) {
+                addText(line.trim());
+            }
+        }
+        finishMarker();
+        // each section ends where the next one starts
+        for (int i = 0; i + 1 < infoList.size(); ++i) {
+            NoteMarkerInfo info = infoList.get(i);
+            Duration next = infoList.get(i + 1).getStartTime();
+            if (next.greaterThan(info.getStartTime())) {
+                info.setEndTime(next);
+            } else {
+                info.setByItself(true);
+            }
+        }
+        if (!infoList.isEmpty()) {
+            NoteMarkerInfo last = infoList.get(infoList.size() - 1);
+            if (totalMillis > ProgressFileFormat.toMillis(
+                    last.getStartTime())) {
+                last.setEndTime(Duration.millis(totalMillis));
+            } else {
+                last.setByItself(true);
+            }
+        }
+        return infoList;
+    }
+
+    /*
+    start a marker for the cue timed by line ("start --> end", followed by
+    optional cue settings), whose arrow is at index arrow; return false if
+    line isn't a valid cue timing
+    */
+    private boolean startCue(final String line, final int arrow) {
+        int from = skipSpaces(line, 0);
+        int to = arrow;
+        while (to > from && Character.isWhitespace(line.charAt(to - 1))) {
+            --to;
+        }
+        long start = parseMillis(line, from, to);
+        from = skipSpaces(line, arrow + 3);
+        to = from;
+        while (to < line.length() && !Character.isWhitespace(
+                line.charAt(to))) {
+            ++to;
+        }
+        long end = parseMillis(line, from, to);
+        if (start < 0 || end < 0) {
+            return false;
+        }
+        current = new NoteMarkerInfo(Duration.millis(start));
+        if (end > start) {
+            current.setEndTime(Duration.millis(end));
+        } else {
+            current.setByItself(true);
+        }
+        return true;
+    }
+
+    /*
+    start a marker if line begins with a timestamp, and return true if it
+    does
+    */
+    private boolean startTimestamp(final String line) {
+        int from = skipSpaces(line, 0);
+        if (from < line.length()
+                && "-*\u2022".indexOf(line.charAt(from)) >= 0) {
+            from = skipSpaces(line, from + 1);
+        }
+        boolean bracketed = from < line.length()
+                && (line.charAt(from) == '[' || line.charAt(from) == '(');
+        if (bracketed) {
+            ++from;
+        }
+        int to = from;
+        while (to < line.length() && (Character.isDigit(line.charAt(to))
+                || ":.,".indexOf(line.charAt(to)) >= 0)) {
+            ++to;
+        }
+        // a comma or period right after the time separates it from the topic
+        while (to > from && !Character.isDigit(line.charAt(to - 1))) {
+            --to;
+        }
+        long start = parseMillis(line, from, to);
+        if (start < 0) {
+            return false;
+        }
+        if (bracketed) {
+            if (to >= line.length() || (line.charAt(to) != ']'
+                    && line.charAt(to) != ')')) {
+                return false;
+            }
+            ++to;
+        }
+        int topic = skipSpaces(line, to);
+        if (topic < line.length()
+                && "-\u2013\u2014:|.,".indexOf(line.charAt(topic)) >= 0) {
+            topic = skipSpaces(line, topic + 1);
+        }
+        finishMarker();
+        current = new NoteMarkerInfo(Duration.millis(start));
+        addText(line.substring(topic).trim());
+        return true;
+    }
+
+    /*
+    add line to the text of the current marker: the first line that isn't
+    empty is its topic, the others are its note
+    */
+    private void addText(final String line) {
+        if (current.getTopic() == null) {
+            if (!line.isEmpty()) {
+                setTopicAndType(line);
+            }
+        } else {
+            if (note.length() > 0) {
+                note.append('\n');
+            }
+            note.append(line);
+        }
+    }
+
+    /*
+    set the topic of the current marker to topic and its type to the one
+    named in brackets at the start of topic, or to the default type
+    */
+    private void setTopicAndType(String topic) {
+        String type = defaultType;
+        int close = topic.indexOf(']');
+        if (topic.startsWith("[") && close > 0) {
+            String name = topic.substring(1, close).trim();
+            for (int i = 0; i < CatalogEntry.TYPES.length; ++i) {
+                if (CatalogEntry.TYPE_NAMES[i].equalsIgnoreCase(name)) {
+                    type = CatalogEntry.TYPES[i];
+                    topic = topic.substring(close + 1).trim();
+                    break;
+                }
+            }
+        }
+        current.setType(type);
+        current.setTopic(topic);
+    }
+
+    /*
+    add the current marker (if there's one) to the infos, with the note
+    gathered for it; a marker without any text gets its start time as its
+    topic, since every marker needs one
+    */
+    private void finishMarker() {
+        if (current == null) {
+            return;
+        }
+        if (current.getTopic() == null) {
+            current.setType(defaultType);
+            current.setTopic(TimeFormatter.formatTime(
+                    current.getStartTime()));
+        }
+        current.setNote(note.length() > 0 ? note.toString() : null);
+        infoList.add(current);
+        current = null;
+        note.setLength(0);
+    }
+
+    // return the index of the first character of s from from on that isn't
+    // a space
+    private static int skipSpaces(final String s, int from) {
+        while (from < s.length() && Character.isWhitespace(s.charAt(from))) {
+            ++from;
+        }
+        return from;
+    }
+
+    /*
+    return line of cue text without its tags (e.g. <i>, <v Speaker>, <b>)
+    and with the character references WebVTT and SubRip use replaced by
+    the characters they stand for
+    */
+    static String stripMarkup(final String line) {
+        if (line.indexOf('<') < 0 && line.indexOf('&') < 0) {
+            return line.trim();
+        }
+        StringBuilder text = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); ++i) {
+            char c = line.charAt(i);
+            if (c == '<') {
+                int close = line.indexOf('>', i);
+                if (close > 0) {
+                    i = close;
+                    continue;
+                }
+            } else if (c == '&') {
+                int semicolon = line.indexOf(';', i);
+                String reference = semicolon > 0
+                        ? line.substring(i, semicolon + 1) : "";
+                String replacement = null;
+                switch (reference) {
+                    case "&amp;":
+                        replacement = "&";
+                        break;
+                    case "&lt;":
+                        replacement = "<";
+                        break;
+                    case "&gt;":
+                        replacement = ">";
+                        break;
+                    case "&nbsp;":
+                        replacement = " ";
+                        break;
+                    case "&quot;":
+                        replacement = "\"";
+                        break;
+                    default:
+                }
+                if (replacement != null) {
+                    text.append(replacement);
+                    i = semicolon;
+                    continue;
+                }
+            }
+            text.append(c);
+        }
+        return text.toString().trim();
+    }
+}
@@ -1,78 +1,86 @@
 package medianotetaker;
 
 import javafx.scene.paint.Color;
-import javafx.scene.shape.Rectangle;
-import javafx.stage.Stage;
 import javafx.util.Duration;
 
-public class NoteMarker extends Rectangle {
+/*
+A note marker is what the note timeline shows for each note: its info, the
+colors it's drawn in, and where along the note marking area it (and its
+section, if it has one) is drawn. Note markers aren't nodes themselves;
+the note timeline draws all of them onto one canvas.
+ */
+public class NoteMarker {
 
     NoteMarkerInfo info;
-    private Stage noteStage;
-    private Rectangle section;
+    private Color fill, sectionFill;
+    private double x, endX;
     private boolean isSet;
     static final Color DEFAULT_MARKER_COLOR = Color.ORANGE;
 
     /*
-    constructs a new oranged note marker with dimension width * height
+    constructs a new orange note marker that is associated with a
+    specified time (in the media)
      */
-    public NoteMarker(final double width, final double height) {
-        super(width, height);
-        setFill(DEFAULT_MARKER_COLOR);
-        setOpacity(0.7);
-    }
-
-    /*
-    constructs a new orange note marker with width and height that is
-    associated with a specified time (in the media)
-     */
-    public NoteMarker(final double width, final double height,
-            final Duration time) {
-        this(width, height);
+    public NoteMarker(final Duration time) {
         info = new NoteMarkerInfo(time);
+        fill = DEFAULT_MARKER_COLOR;
         isSet = false;
     }
 
     /*
-    constructs a new orange note marker with width and height that contains
-    info, most likely from a previous session
+    constructs a new orange note marker that contains info, most likely
+    from a previous session
      */
-    public NoteMarker(final double width, final double height,
-            NoteMarkerInfo info) {
-        this(width, height);
+    public NoteMarker(NoteMarkerInfo info) {
         this.info = info;
+        fill = DEFAULT_MARKER_COLOR;
         isSet = true;
     }
 
     /*
-    set the note stage of the note marker
+    set the color of the marker and of its section (if it has one)
+    requires: fill, sectionFill != null
      */
-    void setNoteStage(final Stage noteStage) {
-        this.noteStage = noteStage;
+    void setFill(final Color fill, final Color sectionFill) {
+        this.fill = fill;
+        this.sectionFill = sectionFill;
     }
 
-    /*
-    return the note stage of the note marker
-     */
-    Stage getNoteStage() {
-        return noteStage;
+    // return the color of the marker
+    Color getFill() {
+        return fill;
+    }
+
+    // return the color of the marker's section
+    Color getSectionFill() {
+        return sectionFill;
     }
 
     /*
-    set the rectangle representation of the section in the media
-    associated with this note marker
-    requires: section != null
+    set where along the note marking area the marker starts, and where its
+    section ends (which is ignored if it has no section)
      */
-    void setSection(final Rectangle section) {
-        this.section = section;
+    void setPosition(final double x, final double endX) {
+        this.x = x;
+        this.endX = endX;
+    }
+
+    // return where along the note marking area the marker starts
+    double getX() {
+        return x;
+    }
+
+    // return where along the note marking area the marker's section ends
+    double getEndX() {
+        return endX;
     }
 
     /*
-    return the rectangle representation of the section in the media
-    associated with this note marker
+    return true if the marker has a section drawn after it, i.e. it's been
+    set and isn't by itself
      */
-    Rectangle getSection() {
-        return section;
+    boolean hasSection() {
+        return isSet && !info.isByItself();
     }
 
     /*
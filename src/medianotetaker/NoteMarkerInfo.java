@@ -1,5 +1,6 @@
 package medianotetaker;
 
+import java.io.IOException;
 import java.io.Serializable;
 import javafx.util.Duration;
 import static medianotetaker.TimeFormatter.formatTime;
@@ -14,10 +15,22 @@ created for them to aid the visual display of the info
  */
 public class NoteMarkerInfo implements Serializable {
 
+    // pinned to the value of the first released version, so that progress
+    // files saved by it can still be read after the class changes
+    private static final long serialVersionUID = -5365215759395708729L;
+
     private Duration startTime, endTime;
     private boolean byItself;
     private String type; // indicates the user's comfort level with the material
-    private String topic, note;
+    private String topic;
+    private volatile String note;
+
+    /* where the note is fetched from if it hasn't been read yet; a
+       background save can bind the note to a new store while the note is
+       being shown, so the note fields are only changed (and read together)
+       while holding the info's lock */
+    private transient volatile LazyNoteStore noteStore;
+    private transient int noteIndex;
 
     // constructs a note marker info for a given time in the media
     // requires: time != null
@@ -25,15 +38,85 @@ public class NoteMarkerInfo implements Serializable {
     public NoteMarkerInfo(final Duration time) {
         startTime = time;
     }
+
+    /*
+    return a new note marker info with the same content as this one;
+    a note that hasn't been read yet stays bound to the same store
+    */
+    synchronized NoteMarkerInfo copy() {
+        NoteMarkerInfo copy = new NoteMarkerInfo(startTime);
+        copy.endTime = endTime;
+        copy.byItself = byItself;
+        copy.type = type;
+        copy.topic = topic;
+        copy.note = note;
+        copy.noteIndex = noteIndex;
+        copy.noteStore = noteStore;
+        return copy;
+    }
     
     // set the note stored in the note info
-    void setNote(final String note) {
+    synchronized void setNote(final String note) {
         this.note = note;
+        noteStore = null;
     }
     
-    // get the note stored in note info
-    String getNote() {
-        return note;
+    /*
+    get the note stored in note info; if the note is only bound to a
+    progress file it's fetched from there (or from the file's note cache).
+    If that fails the IOException is thrown, rather than the note being
+    taken for empty and saved as such. A note that's bound to a new
+    snapshot while it's being fetched is fetched again from there.
+    */
+    String getNote() throws IOException {
+        while (true) {
+            String current;
+            LazyNoteStore store;
+            int index;
+            synchronized (this) {
+                current = note;
+                store = noteStore;
+                index = noteIndex;
+            }
+            if (current != null || store == null) {
+                return current;
+            }
+            try {
+                return store.load(index);
+            } catch (IOException ex) {
+                if (store == getNoteStore()) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /*
+    return true if the note info has a note, without fetching the note
+    if it hasn't been read yet
+    */
+    boolean hasNote() {
+        return note != null || noteStore != null;
+    }
+
+    /*
+    bind the note of this info to the note with index in store, so that
+    it's only read when it's asked for
+
+    requires: store != null
+    */
+    synchronized void bindNote(final LazyNoteStore store, final int index) {
+        noteIndex = index;
+        noteStore = store;
+        note = null;
+    }
+
+    /*
+    return the store the note is fetched from, or null if the note
+    (if any) is held in memory
+    */
+    LazyNoteStore getNoteStore() {
+        return noteStore;
     }
 
     // set the topic of the note
@@ -126,7 +209,11 @@ public class NoteMarkerInfo implements Serializable {
         noteToPrint += "\n";
         noteToPrint += "Topic: " + topic + "\n";
         noteToPrint += "Type: " + type + "\n";
-        noteToPrint += this.note + "\n";
+        try {
+            noteToPrint += getNote() + "\n";
+        } catch (IOException ex) {
+            noteToPrint += "(the note couldn't be read)\n";
+        }
         noteToPrint += "\n\n";
         return noteToPrint;
     }
@@ -12,9 +12,13 @@ the user can open if he/she wishes to continue the work from last time
 
 public class NoteProgress implements Serializable {
 
+    // pinned to the value of the first released version, so that progress
+    // files saved by it can still be read after the class changes
+    private static final long serialVersionUID = -8275177273586781891L;
+
     private ArrayList<NoteMarkerInfo> infoList;
     private boolean forLocalMedia, audioOnly;
-    private String mediaSource, mediaName;
+    private String mediaSource, mediaName, mediaIdentity;
     private Duration totalDuration;
 
     // constructor
@@ -53,6 +57,27 @@ public class NoteProgress implements Serializable {
         return mediaSource;
     }
     
+    /*
+    point the progress at mediaSource instead, e.g. after the local media
+    it was made on has been moved
+    */
+    void setMediaSource(final String mediaSource) {
+        this.mediaSource = mediaSource;
+    }
+
+    /*
+    return the identity of the local media the progress was made on (see
+    MediaIdentity), or null if it isn't known
+    */
+    String getMediaIdentity() {
+        return mediaIdentity;
+    }
+
+    // set the identity of the local media the progress was made on
+    void setMediaIdentity(final String mediaIdentity) {
+        this.mediaIdentity = mediaIdentity;
+    }
+
     // return the media name
     String getMediaName(){ 
         return mediaName;
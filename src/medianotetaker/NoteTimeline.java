@@ -0,0 +1,749 @@
+package medianotetaker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Tooltip;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontWeight;
+import javafx.scene.text.TextAlignment;
+
+
+/*
+The note timeline is the note marking area: it draws every note marker
+(and the section after it) onto a single canvas, and finds the marker
+that's clicked on with one mouse handler, so the scene graph doesn't grow
+with the number of markers.
+
+The markers are positioned (by the note taker) along the whole media as
+if the timeline weren't zoomed; the timeline shows part of that, zoom
+times as wide, starting at viewStart. Scrolling zooms in and out around
+the mouse, and dragging (or scrolling sideways) pans; while zoomed in, a
+minimap along the bottom shows where the markers are in the whole media
+and which part of it is shown, and can be clicked or dragged to move
+there. Double-clicking where there's no marker zooms out again.
+
+To draw only what's visible, the timeline asks the note taker's marker
+index (which keeps the markers sorted by start time, which is also their
+order along the timeline) which markers start before a point, whose
+sections overlap the part being drawn, and how many markers of each type
+lie between two points. The timeline is cut into cells
+CLUSTER_WIDTH wide (on screen); a cell with more than CLUSTER_THRESHOLD
+markers in it is drawn as a cluster glyph showing how many markers of
+each type it has (clicking one zooms in on it). Drawing thus takes time
+depending on the width and the sections visible rather than on the
+number of markers, and zooming needs nothing to be worked out again.
+
+Sections and markers are drawn a pixel column at a time rather than a
+marker at a time: the visible ones are gone through from the one on top
+(the one added last) to the one at the bottom, and each takes the columns
+it covers that no marker above it has taken yet; the columns are then
+filled in runs of the same color. That draws at most a rectangle per
+column, and leaves each column in the color of the marker on top, as if
+each marker were drawn in turn. Only the part of the canvas that has
+changed is redrawn, at the next pulse.
+*/
+final class NoteTimeline extends Region {
+
+    static final double MARKER_WIDTH = 5;
+    static final double OPACITY = 0.7;
+    // at most this many highlighted markers are outlined
+    static final int MAX_HIGHLIGHTED = 64;
+    static final double MINIMAP_HEIGHT = 8;
+    static final double CLUSTER_WIDTH = 24;
+    static final int CLUSTER_THRESHOLD = 4;
+    static final double MAX_ZOOM = 1024;
+    static final double ZOOM_STEP = 1.25;
+    // how much clicking on a cluster zooms in
+    static final double CLUSTER_ZOOM = 4;
+    // the colors of the types in CatalogEntry.TYPES, then of other markers
+    static final Color[] TYPE_COLORS = {Color.RED, Color.DARKVIOLET,
+        Color.BLUE, Color.GREEN, NoteMarker.DEFAULT_MARKER_COLOR};
+
+    private static final long NO_CELL = Long.MIN_VALUE;
+
+    private final List<NoteMarker> markers;
+    private final MarkerIndex index;
+    private final double markerHeight, sectionHeight;
+    private final Canvas canvas;
+    private final ArrayList<Color> palette;
+    private Tooltip clusterTip;
+    private Consumer<NoteMarker> onMarkerClicked;
+    private Runnable onRelayout;
+    private Runnable onViewChanged;
+    private boolean positionsStale;
+    private int[] highlighted;
+    private double dirtyFrom, dirtyTo;
+    private double zoom, viewStart;
+    // where a drag started, and whether it's on the minimap
+    private double pressX, pressViewStart;
+    private boolean onMinimap;
+    private long tipCell;
+
+    // per pixel column redrawn: the next column not taken yet, its color
+    private int[] nextFree;
+    private int[] columnColor;
+    // the indices of the markers (or sections) to draw
+    private int[] candidates;
+    private int candidateCount;
+    private long[] candidateBits;
+    private final IntConsumer addCandidate;
+
+    /*
+    constructor: create the timeline that draws markers, markerHeight high,
+    with their sections sectionHeight high; markers is the list the note
+    taker keeps, and index the note taker's index of it, so the timeline
+    is only told what has changed in it
+
+    requires: markers, index != null
+    */
+    NoteTimeline(final List<NoteMarker> markers, final MarkerIndex index,
+            final double markerHeight, final double sectionHeight) {
+        this.markers = markers;
+        this.index = index;
+        this.markerHeight = markerHeight;
+        this.sectionHeight = sectionHeight;
+        canvas = new Canvas();
+        getChildren().add(canvas);
+        palette = new ArrayList();
+        tipCell = NO_CELL;
+        highlighted = new int[0];
+        zoom = 1;
+        nextFree = new int[0];
+        columnColor = new int[0];
+        candidates = new int[64];
+        candidateBits = new long[0];
+        addCandidate = this::addCandidate;
+        setOnMousePressed(this::mousePressed);
+        setOnMouseDragged(this::mouseDragged);
+        setOnMouseClicked(this::mouseClicked);
+        setOnMouseMoved(this::mouseMoved);
+        setOnMouseExited((MouseEvent event) -> showClusterTip(NO_CELL));
+        setOnScroll(this::scrolled);
+    }
+
+    // set what to do when a marker (or its section) is clicked on
+    void setOnMarkerClicked(final Consumer<NoteMarker> onMarkerClicked) {
+        this.onMarkerClicked = onMarkerClicked;
+    }
+
+    /*
+    redraw where marker and its section are drawn at the next pulse; this
+    should be called both before and after the marker is moved or
+    recolored (and markersChanged after it's added or removed)
+
+    requires: marker != null
+    */
+    void markDirty(final NoteMarker marker) {
+        double from = toScreen(marker.getX());
+        double to = from + MARKER_WIDTH;
+        if (marker.hasSection()) {
+            to = Math.max(to, toScreen(marker.getEndX()));
+        }
+        // the cell the marker is in may have become (or stopped being) a
+        // cluster
+        markDirty(from - CLUSTER_WIDTH, to + CLUSTER_WIDTH);
+    }
+
+    // redraw the part of the timeline from x = from to x = to (on screen)
+    // at the next pulse
+    void markDirty(final double from, final double to) {
+        if (dirtyFrom >= dirtyTo) {
+            dirtyFrom = from;
+            dirtyTo = to;
+        } else {
+            dirtyFrom = Math.min(dirtyFrom, from);
+            dirtyTo = Math.max(dirtyTo, to);
+        }
+        requestLayout();
+    }
+
+    /*
+    have the whole timeline redrawn at the next pulse; this should be
+    called after markers are added to or removed from the list, or their
+    times are edited (once the marker index has been told)
+    */
+    void markersChanged() {
+        redraw();
+    }
+
+    /*
+    outline the markers with markerIndices (indices into the markers,
+    e.g. the ones covering what's playing now) instead of the ones
+    outlined so far
+
+    requires: markerIndices != null
+    */
+    void setHighlighted(final int[] markerIndices) {
+        markHighlightedDirty();
+        highlighted = markerIndices;
+        markHighlightedDirty();
+    }
+
+    // redraw where the highlighted markers are at the next pulse
+    private void markHighlightedDirty() {
+        int count = Math.min(highlighted.length, MAX_HIGHLIGHTED);
+        for (int i = 0; i < count; ++i) {
+            if (highlighted[i] < markers.size()) {
+                markDirty(markers.get(highlighted[i]));
+            }
+        }
+    }
+
+    /*
+    set what works out the markers' positions along the timeline again
+    (e.g. after the media's length on screen has changed)
+    */
+    void setOnRelayout(final Runnable onRelayout) {
+        this.onRelayout = onRelayout;
+    }
+
+    /*
+    set what to do when the part of the media shown changes (by zooming,
+    panning or resizing); see getViewFrom and getViewTo
+    */
+    void setOnViewChanged(final Runnable onViewChanged) {
+        this.onViewChanged = onViewChanged;
+    }
+
+    // return where the part of the media shown starts, as a fraction of it
+    double getViewFrom() {
+        double width = getWidth();
+        return width > 0 ? viewStart / width : 0;
+    }
+
+    // return where the part of the media shown ends, as a fraction of it
+    double getViewTo() {
+        return Math.min(1, getViewFrom() + 1 / zoom);
+    }
+
+    /*
+    have the markers' positions worked out again and the whole timeline
+    redrawn at the next pulse; however often this is called before then
+    (e.g. on every width change while a window edge is dragged), that's
+    only done once
+    */
+    void relayout() {
+        positionsStale = true;
+        requestLayout();
+    }
+
+    // redraw the whole timeline at the next pulse
+    void redraw() {
+        markDirty(0, Math.max(getWidth(), canvas.getWidth()));
+    }
+
+    // return how many times wider than the timeline the whole media is shown
+    double getZoom() {
+        return zoom;
+    }
+
+    /*
+    show the whole media zoom times as wide as the timeline (within 1 and
+    MAX_ZOOM), keeping what's shown at x where it is
+    */
+    void zoom(final double zoom, final double x) {
+        double anchor = toBase(x);
+        this.zoom = Math.max(1, Math.min(MAX_ZOOM, zoom));
+        setViewStart(anchor - x / this.zoom);
+    }
+
+    // show the whole media again
+    void resetZoom() {
+        zoom = 1;
+        setViewStart(0);
+    }
+
+    // show the part of the media from start (unzoomed) on, and redraw
+    private void setViewStart(final double start) {
+        double width = getWidth();
+        viewStart = Math.max(0, Math.min(start, width - width / zoom));
+        redraw();
+        if (onViewChanged != null) {
+            onViewChanged.run();
+        }
+    }
+
+    // return where the unzoomed position base is shown
+    private double toScreen(final double base) {
+        return (base - viewStart) * zoom;
+    }
+
+    // return the unzoomed position shown at screen
+    private double toBase(final double screen) {
+        return viewStart + screen / zoom;
+    }
+
+    @Override
+    protected double computePrefHeight(final double width) {
+        return markerHeight + MINIMAP_HEIGHT;
+    }
+
+    @Override
+    protected double computeMinHeight(final double width) {
+        return markerHeight + MINIMAP_HEIGHT;
+    }
+
+    /*
+    resize the canvas to the timeline, reposition the markers if they've
+    been asked to, and redraw what's dirty
+    */
+    @Override
+    protected void layoutChildren() {
+        double width = getWidth(), height = getHeight();
+        boolean resized = canvas.getWidth() != width
+                || canvas.getHeight() != height;
+        if (resized) {
+            canvas.setWidth(width);
+            canvas.setHeight(height);
+            viewStart = Math.max(0, Math.min(viewStart,
+                    width - width / zoom));
+            if (onViewChanged != null) {
+                onViewChanged.run();
+            }
+        }
+        if (positionsStale) {
+            positionsStale = false;
+            if (onRelayout != null) {
+                onRelayout.run();
+            }
+            index.refreshPositions();
+            resized = true;
+        }
+        if (resized) {
+            dirtyFrom = 0;
+            dirtyTo = width;
+        }
+        if (dirtyFrom < dirtyTo) {
+            draw((int) Math.max(0, Math.floor(dirtyFrom)),
+                    (int) Math.min(Math.ceil(width), Math.ceil(dirtyTo)));
+            dirtyFrom = dirtyTo = 0;
+        }
+    }
+
+    // return the cell the unzoomed position base is in
+    private long cellOf(final double base) {
+        return (long) Math.floor(base * zoom / CLUSTER_WIDTH);
+    }
+
+    // return the unzoomed position cell starts at
+    private double cellStart(final long cell) {
+        return cell * CLUSTER_WIDTH / zoom;
+    }
+
+    /*
+    make the candidates the markers whose sections overlap the unzoomed
+    positions from up to to
+    */
+    private void collectSections(final double from, final double to) {
+        candidateCount = 0;
+        index.collectSections(from, to, addCandidate);
+    }
+
+    // add the marker with markerIndex to the candidates
+    private void addCandidate(final int markerIndex) {
+        if (candidateCount == candidates.length) {
+            candidates = Arrays.copyOf(candidates, 2 * candidateCount);
+        }
+        candidates[candidateCount++] = markerIndex;
+    }
+
+    /*
+    return the number of markers in the cluster drawn at x, or 0 if
+    there's no cluster there
+    */
+    private int clusterSizeAt(final double x) {
+        long cell = cellOf(toBase(x));
+        int count = index.startsBefore(cellStart(cell + 1))
+                - index.startsBefore(cellStart(cell));
+        return count > CLUSTER_THRESHOLD ? count : 0;
+    }
+
+    /*
+    return the marker drawn at (x, y), or null if there's none (or there's
+    a cluster there); markers are drawn over sections, so a marker is
+    looked for first
+    */
+    NoteMarker markerAt(final double x, final double y) {
+        if (y < 0 || y > markerHeight || clusterSizeAt(x) > 0) {
+            return null;
+        }
+        double base = toBase(x);
+        int top = -1;
+        int end = index.startsBefore(Math.nextUp(base));
+        for (int k = index.startsBefore(base - MARKER_WIDTH / zoom);
+                k < end; ++k) {
+            int i = index.indexAt(k);
+            if (toScreen(markers.get(i).getX()) + MARKER_WIDTH > x) {
+                top = Math.max(top, i);
+            }
+        }
+        if (top >= 0) {
+            return markers.get(top);
+        }
+        if (y > sectionHeight) {
+            return null;
+        }
+        collectSections(base, Math.nextUp(base));
+        for (int i = 0; i < candidateCount; ++i) {
+            NoteMarker marker = markers.get(candidates[i]);
+            if (toScreen(marker.getX()) + MARKER_WIDTH <= x) {
+                top = Math.max(top, candidates[i]);
+            }
+        }
+        return top >= 0 ? markers.get(top) : null;
+    }
+
+    // redraw the pixel columns from from up to (but not including) to
+    private void draw(final int from, final int to) {
+        if (from >= to) {
+            return;
+        }
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.save();
+        gc.beginPath();
+        gc.rect(from, 0, to - from, canvas.getHeight());
+        gc.clip();
+        gc.clearRect(from, 0, to - from, canvas.getHeight());
+        gc.setGlobalAlpha(OPACITY);
+        collectSections(toBase(from), toBase(to));
+        takeColumns(from, to, true);
+        fillColumns(gc, from, to, sectionHeight);
+
+        // the markers of the cells that aren't clusters
+        candidateCount = 0;
+        ArrayList<long[]> clusters = new ArrayList();
+        long lastCell = cellOf(toBase(to));
+        for (long cell = cellOf(toBase(from - MARKER_WIDTH));
+                cell <= lastCell; ++cell) {
+            int first = index.startsBefore(cellStart(cell));
+            int end = index.startsBefore(cellStart(cell + 1));
+            if (end - first > CLUSTER_THRESHOLD) {
+                clusters.add(new long[]{cell, first, end});
+            } else {
+                for (int k = first; k < end; ++k) {
+                    addCandidate(index.indexAt(k));
+                }
+            }
+        }
+        takeColumns(from, to, false);
+        fillColumns(gc, from, to, markerHeight);
+        gc.setGlobalAlpha(1.0);
+
+        for (long[] cluster : clusters) {
+            drawCluster(gc, cluster[0], (int) cluster[1], (int) cluster[2]);
+        }
+        outlineHighlighted(gc, from, to);
+        if (zoom > 1) {
+            drawMinimap(gc, from, to);
+        }
+        gc.restore();
+    }
+
+    /*
+    draw the glyph of the cluster in cell, which has the markers from
+    first up to end (in order of start time): a band per type, as high as
+    its share of the markers, under the number of markers
+    */
+    private void drawCluster(final GraphicsContext gc, final long cell,
+            final int first, final int end) {
+        double x = toScreen(cellStart(cell)) + 1;
+        double width = CLUSTER_WIDTH - 2, height = markerHeight - 2;
+        int count = end - first;
+        gc.setFill(Color.DIMGRAY);
+        gc.fillRoundRect(x, 1, width, height, 6, 6);
+        double y = markerHeight - 1;
+        for (int t = 0; t < TYPE_COLORS.length; ++t) {
+            int n = index.countOfType(t, first, end);
+            if (n > 0) {
+                double h = height * n / count;
+                gc.setFill(TYPE_COLORS[t]);
+                gc.fillRect(x + 2, y - h, width - 4, h);
+                y -= h;
+            }
+        }
+        gc.setFill(Color.WHITE);
+        gc.setFont(Font.font(null, FontWeight.BOLD, 10));
+        gc.setTextAlign(TextAlignment.CENTER);
+        gc.setTextBaseline(VPos.CENTER);
+        gc.fillText(count > 999 ? "999+" : Integer.toString(count),
+                x + width / 2, markerHeight / 2, width);
+        gc.setStroke(Color.BLACK);
+        gc.setLineWidth(1);
+        gc.strokeRoundRect(x, 1, width, height, 6, 6);
+    }
+
+    /*
+    draw the part of the minimap from from up to to: how many markers
+    start at each column of the whole media (on a log scale), and the
+    part of it that's shown
+    */
+    private void drawMinimap(final GraphicsContext gc, final int from,
+            final int to) {
+        double top = markerHeight;
+        gc.setFill(Color.LIGHTGRAY);
+        gc.fillRect(from, top, to - from, MINIMAP_HEIGHT);
+        gc.setFill(Color.DIMGRAY);
+        int before = index.startsBefore(from);
+        for (int x = from; x < to; ++x) {
+            int next = index.startsBefore(x + 1);
+            if (next > before) {
+                double h = MINIMAP_HEIGHT * Math.min(1,
+                        Math.log1p(next - before) / Math.log1p(16));
+                gc.fillRect(x, top + MINIMAP_HEIGHT - h, 1, h);
+            }
+            before = next;
+        }
+        gc.setStroke(Color.BLACK);
+        gc.setLineWidth(1);
+        gc.strokeRect(viewStart + 0.5, top + 0.5,
+                Math.max(1, getWidth() / zoom - 1), MINIMAP_HEIGHT - 1);
+    }
+
+    // outline the highlighted markers, as far as they're between from and to
+    private void outlineHighlighted(final GraphicsContext gc, final int from,
+            final int to) {
+        int count = Math.min(highlighted.length, MAX_HIGHLIGHTED);
+        gc.setStroke(Color.BLACK);
+        gc.setLineWidth(2);
+        for (int i = 0; i < count; ++i) {
+            if (highlighted[i] >= markers.size()) {
+                continue;
+            }
+            NoteMarker marker = markers.get(highlighted[i]);
+            double start = toScreen(marker.getX());
+            double end = start + MARKER_WIDTH;
+            if (marker.hasSection()) {
+                end = Math.max(end, toScreen(marker.getEndX()));
+            }
+            if (end >= from && start <= to) {
+                gc.strokeRect(start + 1, 1, end - start - 2,
+                        markerHeight - 2);
+            }
+        }
+    }
+
+    /*
+    give each pixel column from from up to to the color of the section
+    (or of the marker, if sections is false) of the candidates on top of
+    it, or -1 if there's none
+    */
+    private void takeColumns(final int from, final int to,
+            final boolean sections) {
+        int width = to - from;
+        if (nextFree.length < width + 1) {
+            nextFree = new int[width + 1];
+            columnColor = new int[width + 1];
+        }
+        for (int i = 0; i <= width; ++i) {
+            nextFree[i] = i;
+            columnColor[i] = -1;
+        }
+        // the marker added last is on top
+        sortCandidates();
+        int taken = 0;
+        for (int i = candidateCount - 1; i >= 0 && taken < width; --i) {
+            NoteMarker marker = markers.get(candidates[i]);
+            double start = toScreen(marker.getX()), end;
+            Color color;
+            if (sections) {
+                start += MARKER_WIDTH;
+                end = toScreen(marker.getEndX());
+                color = marker.getSectionFill();
+            } else {
+                end = start + MARKER_WIDTH;
+                color = marker.getFill();
+            }
+            int a = (int) Math.max(0, Math.floor(start) - from);
+            int b = (int) Math.min(width, Math.floor(end) - from);
+            if (a >= b) {
+                continue;
+            }
+            int colorIndex = colorIndex(color);
+            for (int j = findFree(a); j < b; j = findFree(j + 1)) {
+                columnColor[j] = colorIndex;
+                nextFree[j] = j + 1;
+                ++taken;
+            }
+        }
+    }
+
+    /*
+    sort the candidates by index; when they're a good part of all the
+    markers (e.g. the sections seen with the timeline zoomed out), that's
+    done by setting their bits in a bit set and reading them back, which
+    takes linear time
+    */
+    private void sortCandidates() {
+        int count = markers.size();
+        if (candidateCount < 1024 || candidateCount < count / 16) {
+            Arrays.sort(candidates, 0, candidateCount);
+            return;
+        }
+        if (candidateBits.length < (count + 63) / 64) {
+            candidateBits = new long[(count + 63) / 64];
+        }
+        for (int i = 0; i < candidateCount; ++i) {
+            candidateBits[candidates[i] >>> 6] |= 1L << candidates[i];
+        }
+        int sorted = 0;
+        for (int word = 0; word < (count + 63) / 64; ++word) {
+            long bits = candidateBits[word];
+            candidateBits[word] = 0;
+            while (bits != 0) {
+                candidates[sorted++] = (word << 6)
+                        + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    // return the first column from column on that hasn't been taken yet
+    private int findFree(final int column) {
+        int free = column;
+        while (nextFree[free] != free) {
+            free = nextFree[free];
+        }
+        // point every column passed on straight at the free one
+        int c = column;
+        while (nextFree[c] != free) {
+            int next = nextFree[c];
+            nextFree[c] = free;
+            c = next;
+        }
+        return free;
+    }
+
+    // fill the columns from from up to to in their colors, height high
+    private void fillColumns(final GraphicsContext gc, final int from,
+            final int to, final double height) {
+        int width = to - from;
+        int runStart = 0;
+        for (int i = 1; i <= width; ++i) {
+            if (i == width || columnColor[i] != columnColor[runStart]) {
+                if (columnColor[runStart] >= 0) {
+                    gc.setFill(palette.get(columnColor[runStart]));
+                    gc.fillRect(from + runStart, 0, i - runStart, height);
+                }
+                runStart = i;
+            }
+        }
+    }
+
+    // return the index of color in the palette, adding it if it's new
+    private int colorIndex(final Color color) {
+        Color c = color == null ? NoteMarker.DEFAULT_MARKER_COLOR : color;
+        for (int i = 0; i < palette.size(); ++i) {
+            if (palette.get(i) == c) {
+                return i;
+            }
+        }
+        int index = palette.indexOf(c);
+        if (index < 0) {
+            palette.add(c);
+            index = palette.size() - 1;
+        }
+        return index;
+    }
+
+    // start a drag, moving the view there at once if it's on the minimap
+    private void mousePressed(final MouseEvent event) {
+        pressX = event.getX();
+        pressViewStart = viewStart;
+        onMinimap = zoom > 1 && event.getY() > markerHeight;
+        if (onMinimap) {
+            setViewStart(event.getX() - getWidth() / zoom / 2);
+        }
+    }
+
+    // pan the view, or move it to where the minimap is dragged to
+    private void mouseDragged(final MouseEvent event) {
+        if (onMinimap) {
+            setViewStart(event.getX() - getWidth() / zoom / 2);
+        } else if (zoom > 1) {
+            setViewStart(pressViewStart - (event.getX() - pressX) / zoom);
+        }
+    }
+
+    /*
+    open the marker clicked on, or zoom in on the cluster clicked on; a
+    double click on neither zooms out again
+    */
+    private void mouseClicked(final MouseEvent event) {
+        if (event.getButton() != MouseButton.PRIMARY
+                || !event.isStillSincePress() || onMinimap) {
+            return;
+        }
+        if (event.getY() <= markerHeight && clusterSizeAt(event.getX()) > 0) {
+            zoom(zoom * CLUSTER_ZOOM, event.getX());
+            return;
+        }
+        NoteMarker marker = markerAt(event.getX(), event.getY());
+        if (marker != null) {
+            if (onMarkerClicked != null) {
+                onMarkerClicked.accept(marker);
+            }
+        } else if (event.getClickCount() == 2) {
+            resetZoom();
+        }
+    }
+
+    // show how many markers of each type the cluster pointed at has
+    private void mouseMoved(final MouseEvent event) {
+        showClusterTip(event.getY() <= markerHeight
+                && clusterSizeAt(event.getX()) > 0
+                ? cellOf(toBase(event.getX())) : NO_CELL);
+    }
+
+    // show the tooltip of the cluster in cell, or none if it's NO_CELL
+    private void showClusterTip(final long cell) {
+        if (cell == tipCell) {
+            return;
+        }
+        tipCell = cell;
+        if (clusterTip == null) {
+            clusterTip = new Tooltip();
+        }
+        Tooltip.uninstall(this, clusterTip);
+        if (cell == NO_CELL) {
+            return;
+        }
+        int first = index.startsBefore(cellStart(cell));
+        int end = index.startsBefore(cellStart(cell + 1));
+        StringBuilder text = new StringBuilder();
+        text.append(end - first).append(" markers (click to zoom in)");
+        for (int t = 0; t < TYPE_COLORS.length; ++t) {
+            int n = index.countOfType(t, first, end);
+            if (n > 0) {
+                text.append('\n').append(t < CatalogEntry.TYPE_NAMES.length
+                        ? CatalogEntry.TYPE_NAMES[t] : "Unset")
+                        .append(": ").append(n);
+            }
+        }
+        clusterTip.setText(text.toString());
+        Tooltip.install(this, clusterTip);
+    }
+
+    // zoom around the mouse, or pan if it's scrolled sideways
+    private void scrolled(final ScrollEvent event) {
+        double sideways = event.getDeltaX() != 0 ? event.getDeltaX()
+                : event.isShiftDown() ? event.getDeltaY() : 0;
+        if (sideways != 0) {
+            setViewStart(viewStart - sideways / zoom);
+        } else if (event.getDeltaY() != 0) {
+            zoom(event.getDeltaY() > 0 ? zoom * ZOOM_STEP
+                    : zoom / ZOOM_STEP, event.getX());
+        }
+        event.consume();
+    }
+}
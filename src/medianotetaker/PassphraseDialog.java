@@ -0,0 +1,60 @@
+package medianotetaker;
+
+import javafx.application.Platform;
+import javafx.beans.binding.Bindings;
+import javafx.beans.binding.BooleanBinding;
+import javafx.geometry.Insets;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.PasswordField;
+import javafx.scene.layout.GridPane;
+
+
+/*
+The passphrase dialog asks the user for the passphrase of an encrypted
+progress; when a new passphrase is chosen, the user has to type it twice.
+The passphrase is returned as a char array so that it can be wiped once
+the key has been derived from it.
+*/
+final class PassphraseDialog extends Dialog<char[]> {
+
+    /*
+    constructor: create the dialog with headerText; if confirm is true the
+    user has to enter the passphrase a second time
+
+    requires: headerText != null
+    */
+    PassphraseDialog(final String headerText, final boolean confirm) {
+        setTitle("Passphrase");
+        setHeaderText(headerText);
+
+        PasswordField passphrase = new PasswordField();
+        PasswordField again = new PasswordField();
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.setPadding(new Insets(20, 10, 10, 10));
+        grid.addRow(0, new Label("Passphrase:"), passphrase);
+        if (confirm) {
+            grid.addRow(1, new Label("Again:"), again);
+        }
+        getDialogPane().setContent(grid);
+        getDialogPane().getButtonTypes().addAll(ButtonType.OK,
+                ButtonType.CANCEL);
+
+        BooleanBinding mismatched = Bindings.createBooleanBinding(
+                () -> confirm && !passphrase.getText().equals(again.getText()),
+                passphrase.textProperty(), again.textProperty());
+        getDialogPane().lookupButton(ButtonType.OK).disableProperty().bind(
+                passphrase.textProperty().isEmpty().or(mismatched));
+        setResultConverter((ButtonType button) -> {
+            char[] result = button == ButtonType.OK
+                    ? passphrase.getText().toCharArray() : null;
+            passphrase.clear();
+            again.clear();
+            return result;
+        });
+        Platform.runLater(passphrase::requestFocus);
+    }
+}
@@ -0,0 +1,97 @@
+package medianotetaker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+
+/*
+The peak cache keeps the waveform peaks of local media files on disk, in
+a directory next to the progress catalog, so a file that has been opened
+before shows its waveform at once instead of being read again. Each file
+of peaks is named by the media identity of the file it was computed for,
+so it's found again after the media is moved or renamed. Peaks are
+stored with an atomic file write, so a crash while storing them leaves
+the previous file (or none) rather than a truncated one that would be
+read as the wrong waveform. Only the MAX_FILES files last used are kept.
+
+The cache can be used from any thread.
+*/
+final class PeakCache {
+
+    static final String DIRECTORY_NAME = "peaks";
+    static final String SUFFIX = ".peaks";
+    static final int MAX_FILES = 100;
+
+    private final File directory;
+
+    /*
+    constructor: create the cache stored in directory; nothing is read or
+    made until the cache is first used
+
+    requires: directory != null
+    */
+    PeakCache(final File directory) {
+        this.directory = directory;
+    }
+
+    // return the directory the cache of the current user is stored in
+    static File defaultDirectory() {
+        return new File(ProgressCatalog.defaultFile().getParentFile(),
+                DIRECTORY_NAME);
+    }
+
+    /*
+    return the peaks of the media with identity, or null if they aren't
+    cached (or can't be read)
+
+    requires: identity != null
+    */
+    synchronized WaveformPeaks get(final String identity) {
+        File file = fileOf(identity);
+        if (!file.exists()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            WaveformPeaks peaks = WaveformPeaks.read(in, file.length());
+            // keeps the file from being the next one dropped
+            file.setLastModified(System.currentTimeMillis());
+            return peaks;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /*
+    store the peaks of the media with identity, dropping the files used
+    the longest ago if there are too many
+
+    requires: identity, peaks != null
+    */
+    synchronized void put(final String identity, final WaveformPeaks peaks)
+            throws IOException {
+        AtomicFile.write(fileOf(identity), peaks::write);
+        dropOldest();
+    }
+
+    // return the file the peaks of the media with identity are stored in
+    private File fileOf(final String identity) {
+        return new File(directory, identity + SUFFIX);
+    }
+
+    // delete the files used the longest ago, past the MAX_FILES newest
+    private void dropOldest() {
+        File[] files = directory.listFiles((File dir, String name)
+                -> name.endsWith(SUFFIX));
+        if (files == null || files.length <= MAX_FILES) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length - MAX_FILES; ++i) {
+            files[i].delete();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package medianotetaker;
+
+import java.util.ArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javafx.animation.AnimationTimer;
+import javafx.util.Duration;
+
+
+/*
+The playback clock of a session hands the time in the media out to what
+shows it (the progress bar, the time label, the notes shown as covering
+what's playing, visualizers), so the player is listened to once, however
+many things follow it. It reads the time at most once per pulse and
+gives it to each consumer that hasn't seen it yet, unless the consumer
+has been given a time less than the consumer's own minimum interval ago.
+
+The clock only runs (and so only costs anything) while there's a time to
+hand out: while the media plays, or from when it's told the time has
+changed (e.g. by a seek) until every consumer has been given the new time.
+It's only used on the JavaFX application thread.
+*/
+final class PlaybackClock {
+
+    private final Supplier<Duration> time;
+    private final ArrayList<Subscription> subscriptions;
+    private final AnimationTimer timer;
+    private boolean playing, pending, running;
+
+    /*
+    constructor: create the clock that reads the time in the media from
+    time, which may return null while the time isn't known
+
+    requires: time != null
+    */
+    PlaybackClock(final Supplier<Duration> time) {
+        this.time = time;
+        subscriptions = new ArrayList();
+        timer = new AnimationTimer() {
+            @Override
+            public void handle(final long now) {
+                pulse(now);
+            }
+        };
+    }
+
+    /*
+    give consumer the time in the media whenever it changes, but not more
+    often than once every minInterval (Duration.ZERO for every pulse)
+
+    requires: consumer, minInterval != null
+    */
+    void subscribe(final Consumer<Duration> consumer,
+            final Duration minInterval) {
+        subscriptions.add(new Subscription(consumer,
+                (long) (minInterval.toMillis() * 1e6)));
+        changed();
+    }
+
+    // stop giving consumer the time
+    void unsubscribe(final Consumer<Duration> consumer) {
+        subscriptions.removeIf((Subscription subscription)
+                -> subscription.consumer == consumer);
+    }
+
+    /*
+    set whether the media is playing, i.e. whether the time keeps changing
+    without the clock being told
+    */
+    void setPlaying(final boolean playing) {
+        this.playing = playing;
+        changed();
+    }
+
+    // tell the clock the time has changed, so it's handed out on next pulse
+    void changed() {
+        pending = true;
+        if (!running && !subscriptions.isEmpty()) {
+            running = true;
+            timer.start();
+        }
+    }
+
+    // stop the clock for good, dropping every consumer
+    void close() {
+        timer.stop();
+        running = false;
+        subscriptions.clear();
+    }
+
+    /*
+    read the time and give it to the consumers due for it, stopping the
+    clock once the media doesn't play and every consumer has the time
+    */
+    private void pulse(final long now) {
+        pending = false;
+        Duration current = time.get();
+        // whether a consumer is still to be given the time
+        boolean behind = false;
+        if (current != null) {
+            for (int i = 0; i < subscriptions.size(); ++i) {
+                Subscription subscription = subscriptions.get(i);
+                if (current.equals(subscription.last)) {
+                    continue;
+                }
+                if (now - subscription.lastNanos < subscription.minNanos) {
+                    behind = true;
+                    continue;
+                }
+                subscription.last = current;
+                subscription.lastNanos = now;
+                subscription.consumer.accept(current);
+            }
+        }
+        if (!playing && !pending && !behind) {
+            timer.stop();
+            running = false;
+        }
+    }
+
+    // a consumer, with its rate limit and the time it was last given
+    private static final class Subscription {
+
+        final Consumer<Duration> consumer;
+        final long minNanos;
+        Duration last;
+        long lastNanos;
+
+        Subscription(final Consumer<Duration> consumer, final long minNanos) {
+            this.consumer = consumer;
+            this.minNanos = minNanos;
+            lastNanos = Long.MIN_VALUE / 2;
+        }
+    }
+}
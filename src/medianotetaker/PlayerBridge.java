@@ -0,0 +1,163 @@
+package medianotetaker;
+
+
+/*
+The player bridge is the object the YouTube player page calls into (as
+window.javaBridge) whenever the player's state changes, and every
+TICK_INTERVAL while it plays. From what the page last told it, the bridge
+keeps a local clock: the time in the video when it last heard, when that
+was, and whether the video is playing (and how fast), so the time now is
+worked out without asking the page, i.e. without a script round trip. The
+ticks keep the clock from drifting away from the player's.
+
+The page is only ever called from, and calls into the bridge on, the
+JavaFX application thread; the bridge also records how long after the
+page sent each message it arrived. Its methods called by the page have to
+be public (as does the class) for the web engine to find them.
+*/
+public final class PlayerBridge {
+
+    // how often (in ms) the page tells the time while the video plays
+    static final int TICK_INTERVAL = 1000;
+
+    // the states of the YouTube player
+    static final int UNSTARTED = -1;
+    static final int ENDED = 0;
+    static final int PLAYING = 1;
+    static final int PAUSED = 2;
+    static final int BUFFERING = 3;
+    static final int CUED = 5;
+
+    private final LatencyHistogram pushLatency;
+    private boolean ready;
+    private int state;
+    private double baseMillis, rate, durationMillis;
+    private long baseNanos;
+    private Runnable onStateChanged, onReady;
+
+    // constructor: create the bridge of a player that isn't ready yet
+    PlayerBridge() {
+        pushLatency = new LatencyHistogram("page to Java");
+        state = UNSTARTED;
+        rate = 1;
+        durationMillis = -1;
+    }
+
+    // set what to run on the application thread when the player is ready
+    void setOnReady(final Runnable onReady) {
+        this.onReady = onReady;
+    }
+
+    /*
+    set what to run on the application thread every time the player's
+    state changes (e.g. it's paused, or it plays again after a seek)
+    */
+    void setOnStateChanged(final Runnable onStateChanged) {
+        this.onStateChanged = onStateChanged;
+    }
+
+    /*
+    called by the page when the player is ready, with the video's duration
+    in seconds, and when the page sent it (in ms since the epoch)
+    */
+    public void ready(final double duration, final double sentAt) {
+        recordPush(sentAt);
+        ready = true;
+        if (duration > 0) {
+            durationMillis = duration * 1000;
+        }
+        setClock(0);
+        if (onReady != null) {
+            onReady.run();
+        }
+    }
+
+    /*
+    called by the page when the player's state changes, with the time in
+    the video (and its duration) in seconds, the playback rate, and when
+    the page sent it
+    */
+    public void stateChanged(final int state, final double time,
+            final double duration, final double rate, final double sentAt) {
+        recordPush(sentAt);
+        this.state = state;
+        this.rate = rate > 0 ? rate : 1;
+        if (duration > 0) {
+            durationMillis = duration * 1000;
+        }
+        setClock(time * 1000);
+        if (onStateChanged != null) {
+            onStateChanged.run();
+        }
+    }
+
+    /*
+    called by the page every TICK_INTERVAL while the video plays, with the
+    time in the video in seconds, the playback rate, and when the page sent
+    it
+    */
+    public void tick(final double time, final double rate,
+            final double sentAt) {
+        recordPush(sentAt);
+        this.rate = rate > 0 ? rate : 1;
+        setClock(time * 1000);
+    }
+
+    /*
+    set the clock to millis in the video straight away, e.g. when the video
+    is sought to; the page corrects it once the player has caught up
+    */
+    void seek(final double millis) {
+        setClock(millis);
+    }
+
+    // return true if the player is ready (i.e. it has loaded the video)
+    boolean isReady() {
+        return ready;
+    }
+
+    // return true if the video is playing
+    boolean isPlaying() {
+        return state == PLAYING;
+    }
+
+    // return the duration of the video in ms, or -1 if it's not known yet
+    double getDurationMillis() {
+        return durationMillis;
+    }
+
+    /*
+    return the time in the video now in ms, from when the page last told
+    it; this makes no script call
+
+    requires: isReady()
+    */
+    double getCurrentMillis() {
+        double millis = baseMillis;
+        if (state == PLAYING) {
+            millis += (System.nanoTime() - baseNanos) / 1e6 * rate;
+        }
+        return durationMillis > 0 ? Math.min(millis, durationMillis)
+                : millis;
+    }
+
+    // return how long the page's messages took to arrive
+    LatencyHistogram getPushLatency() {
+        return pushLatency;
+    }
+
+    // have the clock read millis in the video now
+    private void setClock(final double millis) {
+        baseMillis = Math.max(0, millis);
+        baseNanos = System.nanoTime();
+    }
+
+    // record how long ago (from sentAt, in ms since the epoch) a message
+    // was sent
+    private void recordPush(final double sentAt) {
+        if (sentAt > 0) {
+            pushLatency.record((long) ((System.currentTimeMillis() - sentAt)
+                    * 1e6));
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package medianotetaker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/*
+The progress batch tool processes progress files from the command line,
+without starting the user interface (or needing a display), e.g.:
+
+    java medianotetaker.ProgressBatchTool export --format md --out notes/ 2019/
+
+Every .dat file given, or found under a directory given, is processed on a
+bounded pool of worker threads (one per core unless --threads says
+otherwise), and a summary is printed at the end. The commands are:
+    validate    read every progress completely, verifying its checksums
+    migrate     rewrite every progress in place in the current format,
+                folding in its journal
+    convert     write every progress in the current format into --out
+                (encrypted progress is written encrypted again)
+    export      write the notes of every progress into --out, in --format
+Encrypted progress files are skipped unless --passphrase-env names an
+environment variable holding their passphrase.
+*/
+public final class ProgressBatchTool {
+
+    // exit statuses
+    static final int OK = 0;
+    static final int FAILURES = 1;
+    static final int USAGE = 2;
+
+    private final String command;
+    private final List<Path> inputs;
+    private final Path outDir;
+    private final ExportFormat format;
+    private final int threads;
+    private final String passphrase;
+    private final boolean verbose;
+    private final PrintStream out;
+
+    private final AtomicInteger processed, succeeded, skipped, failed;
+    private final AtomicLong bytesRead, bytesWritten;
+    private final List<String> failures;
+
+    private ProgressBatchTool(final String command, final List<Path> inputs,
+            final Path outDir, final ExportFormat format, final int threads,
+            final String passphrase, final boolean verbose,
+            final PrintStream out) {
+        this.command = command;
+        this.inputs = inputs;
+        this.outDir = outDir;
+        this.format = format;
+        this.threads = threads;
+        this.passphrase = passphrase;
+        this.verbose = verbose;
+        this.out = out;
+        processed = new AtomicInteger();
+        succeeded = new AtomicInteger();
+        skipped = new AtomicInteger();
+        failed = new AtomicInteger();
+        bytesRead = new AtomicLong();
+        bytesWritten = new AtomicLong();
+        failures = new ArrayList();
+    }
+
+    public static void main(final String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /*
+    parse args, process the files they name and print the summary to out
+    (and usage errors to err); return the exit status
+    */
+    static int run(final String[] args, final PrintStream out,
+            final PrintStream err) {
+        return run(args, System.getenv(), out, err);
+    }
+
+    /*
+    run the tool like run(String[], PrintStream, PrintStream) does, taking
+    the variables --passphrase-env names from environment
+    */
+    static int run(final String[] args,
+            final Map<String, String> environment, final PrintStream out,
+            final PrintStream err) {
+        if (args.length == 0 || args[0].equals("--help")) {
+            printUsage(out);
+            return args.length == 0 ? USAGE : OK;
+        }
+        String command = args[0];
+        if (!command.equals("validate") && !command.equals("migrate")
+                && !command.equals("convert") && !command.equals("export")) {
+            err.println("Unknown command: " + command);
+            printUsage(err);
+            return USAGE;
+        }
+
+        List<Path> inputs = new ArrayList();
+        Path outDir = null;
+        ExportFormat format = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String passphrase = null;
+        boolean verbose = false;
+        try {
+            for (int i = 1; i < args.length; ++i) {
+                switch (args[i]) {
+                    case "--out":
+                        outDir = Paths.get(args[++i]);
+                        break;
+                    case "--format":
+                        format = ExportFormat.fromFileName("." + args[++i]);
+                        if (format == null) {
+                            err.println("Unknown format: " + args[i]);
+                            return USAGE;
+                        }
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--passphrase-env":
+                        passphrase = environment.get(args[++i]);
+                        if (passphrase == null) {
+                            err.println("Environment variable " + args[i]
+                                    + " isn't set");
+                            return USAGE;
+                        }
+                        break;
+                    case "--verbose":
+                        verbose = true;
+                        break;
+                    default:
+                        inputs.add(Paths.get(args[i]));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+            err.println("Missing or malformed option value");
+            return USAGE;
+        }
+
+        if (inputs.isEmpty() || threads < 1) {
+            printUsage(err);
+            return USAGE;
+        }
+        boolean writesOut = command.equals("convert")
+                || command.equals("export");
+        if (writesOut && outDir == null) {
+            err.println(command + " needs --out");
+            return USAGE;
+        }
+        if (command.equals("export") && format == null) {
+            format = ExportFormat.TEXT;
+        }
+        return new ProgressBatchTool(command, inputs, outDir, format, threads,
+                passphrase, verbose, out).process();
+    }
+
+    // print how the tool is used to stream
+    private static void printUsage(final PrintStream stream) {
+        stream.println("usage: ProgressBatchTool <command> [options] "
+                + "<file or directory>...");
+        stream.println("commands:");
+        stream.println("  validate   verify every progress can be read");
+        stream.println("  migrate    rewrite every progress in place in the "
+                + "current format");
+        stream.println("  convert    write every progress in the current "
+                + "format into --out");
+        stream.println("  export     write the notes of every progress into "
+                + "--out");
+        stream.println("options:");
+        stream.println("  --out <dir>             where convert and export "
+                + "write to");
+        stream.println("  --format <extension>    txt (default), md, json, "
+                + "csv, vtt or srt");
+        stream.println("  --threads <n>           worker threads (default: "
+                + "one per core)");
+        stream.println("  --passphrase-env <var>  environment variable "
+                + "holding the passphrase");
+        stream.println("                          of encrypted progress");
+        stream.println("  --verbose               print a line per file");
+    }
+
+    /*
+    process every progress file under the inputs on the worker pool, print
+    the summary, and return the exit status
+    */
+    private int process() {
+        long start = System.nanoTime();
+        // a bounded queue: submitting blocks (by running the file on the
+        // submitting thread) instead of queuing every file in a large tree
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 4),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        for (Path input : inputs) {
+            for (Path file : progressFiles(input)) {
+                pool.execute(() -> processFile(input, file));
+            }
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        printSummary((System.nanoTime() - start) / 1e9);
+        return failed.get() == 0 ? OK : FAILURES;
+    }
+
+    /*
+    return input if it's a file, or every progress file (.dat) under it if
+    it's a directory, in a stable order
+    */
+    private List<Path> progressFiles(final Path input) {
+        if (!Files.isDirectory(input)) {
+            ArrayList<Path> single = new ArrayList();
+            single.add(input);
+            return single;
+        }
+        try (Stream<Path> walk = Files.walk(input)) {
+            return walk.filter((Path p) -> Files.isRegularFile(p)
+                    && p.getFileName().toString().toLowerCase()
+                            .endsWith(".dat"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException | RuntimeException ex) {
+            fail(input, "can't list the directory: " + ex.getMessage());
+            return new ArrayList();
+        }
+    }
+
+    // process one progress file found under input
+    private void processFile(final Path input, final Path path) {
+        processed.incrementAndGet();
+        File file = path.toFile();
+        NoteProgress progress = null;
+        try {
+            ProgressKey key = null;
+            if (EncryptedProgressFile.isEncrypted(file)) {
+                if (passphrase == null) {
+                    skip(path, "encrypted");
+                    return;
+                }
+                key = EncryptedProgressFile.unlock(file,
+                        passphrase.toCharArray());
+                if (key == null) {
+                    fail(path, "wrong passphrase");
+                    return;
+                }
+            }
+            bytesRead.addAndGet(file.length());
+            switch (command) {
+                case "validate":
+                    progress = ProgressFileFormat.read(file, key);
+                    break;
+                case "migrate":
+                    progress = migrate(file, key);
+                    if (progress == null) {
+                        skip(path, "already in the current format");
+                        return;
+                    }
+                    break;
+                case "convert":
+                    progress = new ProgressJournal(file, key).open();
+                    File converted = outputFile(input, path, ".dat");
+                    // an encrypted progress stays encrypted, with its key
+                    ProgressFileFormat.write(progress, converted, key);
+                    bytesWritten.addAndGet(converted.length());
+                    break;
+                default:
+                    progress = new ProgressJournal(file, key).open();
+                    File exported = outputFile(input, path,
+                            format.getExtension());
+                    NoteExporter.export(format, progress.getMediaName(),
+                            progress.getInfoList(), exported);
+                    bytesWritten.addAndGet(exported.length());
+            }
+            succeeded.incrementAndGet();
+            if (verbose) {
+                out.println("ok      " + path);
+            }
+        } catch (IOException | GeneralSecurityException
+                | RuntimeException ex) {
+            fail(path, ex.toString());
+        } finally {
+            if (progress != null) {
+                releaseNotes(progress);
+            }
+        }
+    }
+
+    /*
+    rewrite file in the current format with its journal folded in, and
+    return the progress, or null if it's already in the current format
+    and has no journal to fold in
+    */
+    private NoteProgress migrate(final File file, final ProgressKey key)
+            throws IOException {
+        boolean current = key != null
+                || ProgressFileFormat.readVersion(file)
+                == ProgressFileFormat.VERSION;
+        File journalFile = ProgressJournal.journalFileFor(file);
+        if (current && !journalFile.exists()) {
+            return null;
+        }
+        ProgressJournal journal = new ProgressJournal(file, key);
+        NoteProgress progress = journal.open();
+        journal.compact(progress);
+        journalFile.delete();
+        bytesWritten.addAndGet(file.length());
+        return progress;
+    }
+
+    /*
+    return the file in the output directory that path (found under input)
+    is written to, with extension instead of its own, creating its
+    directory if needed
+    */
+    private File outputFile(final Path input, final Path path,
+            final String extension) throws IOException {
+        Path relative = Files.isDirectory(input) ? input.relativize(path)
+                : path.getFileName();
+        String name = relative.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        name = (dot > 0 ? name.substring(0, dot) : name) + extension;
+        Path target = outDir.resolve(relative).resolveSibling(name);
+        Files.createDirectories(target.getParent());
+        return target.toFile();
+    }
+
+    // close the files the notes of progress are fetched from
+    private static void releaseNotes(final NoteProgress progress) {
+        LazyNoteStore previous = null;
+        for (NoteMarkerInfo info : progress.getInfoList()) {
+            LazyNoteStore store = info.getNoteStore();
+            if (store != null && store != previous) {
+                store.close();
+                previous = store;
+            }
+        }
+    }
+
+    // count path as skipped because of reason
+    private void skip(final Path path, final String reason) {
+        skipped.incrementAndGet();
+        if (verbose) {
+            out.println("skipped " + path + " (" + reason + ")");
+        }
+    }
+
+    // count path as failed because of reason
+    private void fail(final Path path, final String reason) {
+        failed.incrementAndGet();
+        synchronized (failures) {
+            failures.add(path + ": " + reason);
+        }
+    }
+
+    // print what has been done in seconds
+    private void printSummary(final double seconds) {
+        synchronized (failures) {
+            failures.sort(null);
+            for (String failure : failures) {
+                out.println("FAILED  " + failure);
+            }
+        }
+        out.printf("%s: %d files, %d ok, %d skipped, %d failed%n", command,
+                processed.get(), succeeded.get(), skipped.get(), failed.get());
+        out.printf("read %.1f MB, wrote %.1f MB in %.2f s on %d threads"
+                + " (%.0f files/s)%n", bytesRead.get() / 1e6,
+                bytesWritten.get() / 1e6, seconds, threads,
+                seconds > 0 ? processed.get() / seconds : 0.0);
+    }
+}
@@ -0,0 +1,371 @@
+package medianotetaker;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.zip.CRC32;
+
+
+/*
+The progress catalog keeps a summary (a catalog entry) of every progress
+the user has saved, so the progress library can list them all without
+opening any progress file. The catalog is kept in memory and stored in a
+small append-only file in the user's home directory: every save of a
+progress appends one checksummed record replacing that progress's entry,
+and the file is rewritten from memory once it holds many more records
+than entries. As with the progress journal, a record torn by a crash is
+dropped together with everything after it.
+
+The catalog can be used from any thread.
+*/
+final class ProgressCatalog {
+
+    static final int MAGIC = 0x4D4E5443; // "MNTC"
+    static final int VERSION = 1;
+    static final String DIRECTORY = ".medianotetaker";
+    static final String FILE_NAME = "catalog.dat";
+
+    // record kinds
+    private static final int PUT = 1;
+    private static final int REMOVE = 2;
+
+    private static final int HEADER_LENGTH = 5;
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 64;
+
+    private final File file;
+    private final HashMap<String, CatalogEntry> entries;
+    private boolean loaded;
+    private int recordCount;
+    private long validLength;
+
+    /*
+    constructor: create the catalog stored in file; nothing is read until
+    the catalog is first used
+
+    requires: file != null
+    */
+    ProgressCatalog(final File file) {
+        this.file = file;
+        entries = new HashMap();
+        loaded = false;
+    }
+
+    // return the file the catalog of the current user is stored in
+    static File defaultFile() {
+        File dir = new File(System.getProperty("user.home"), DIRECTORY);
+        return new File(dir, FILE_NAME);
+    }
+
+    // return all the entries in the catalog, in no particular order
+    synchronized ArrayList<CatalogEntry> list() throws IOException {
+        load();
+        return new ArrayList(entries.values());
+    }
+
+    /*
+    return the entry of the progress saved in progressFile, or null if
+    it isn't in the catalog
+    */
+    synchronized CatalogEntry get(final File progressFile) throws IOException {
+        load();
+        return entries.get(progressFile.getAbsolutePath());
+    }
+
+    /*
+    add entry to the catalog, replacing the entry of the same progress file
+    if there is one
+
+    requires: entry != null
+    */
+    synchronized void put(final CatalogEntry entry) throws IOException {
+        putAll(Collections.singletonList(entry));
+    }
+
+    /*
+    add added to the catalog like put does, appending their records (and
+    syncing the catalog file) all at once
+
+    requires: added != null
+    */
+    synchronized void putAll(final Collection<CatalogEntry> added)
+            throws IOException {
+        load();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        for (CatalogEntry entry : added) {
+            entries.put(entry.getProgressPath(), entry);
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            entry.write(new DataOutputStream(payload));
+            writeRecord(records, PUT, payload.toByteArray());
+        }
+        appendRecords(records, added.size());
+    }
+
+    /*
+    update the entry of the progress that has just been saved in
+    progressFile
+
+    requires: progressFile, progress != null
+              progress.getInfoList() != null
+    */
+    void update(final File progressFile, final NoteProgress progress)
+            throws IOException {
+        put(CatalogEntry.of(progressFile, progress));
+    }
+
+    // remove the entry of the progress saved in progressFile, if any
+    synchronized void remove(final File progressFile) throws IOException {
+        load();
+        String path = progressFile.getAbsolutePath();
+        if (entries.remove(path) == null) {
+            return;
+        }
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        writeRemoveRecord(record, path);
+        appendRecords(record, 1);
+    }
+
+    /*
+    add every progress file (.dat) in dir and its subdirectories that isn't
+    in the catalog, or has changed since it was added, to the catalog, and
+    return how many were added; files that can't be read as progress are
+    skipped. A progress counts as changed when its journal has, and the
+    records in the journal are replayed onto it, so markers only saved to
+    the journal are counted too. Only the markers of each progress are
+    read, not its notes, and the entries found are written to the catalog
+    together once the whole directory has been gone through.
+
+    requires: dir != null
+    */
+    int indexDirectory(final File dir) throws IOException {
+        LinkedHashSet<File> progressFiles = new LinkedHashSet();
+        ArrayDeque<File> dirs = new ArrayDeque();
+        dirs.add(dir);
+        while (!dirs.isEmpty()) {
+            File[] files = dirs.poll().listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File f : files) {
+                String name = f.getName().toLowerCase();
+                if (f.isDirectory()) {
+                    dirs.add(f);
+                } else if (name.endsWith(".dat")) {
+                    progressFiles.add(f);
+                } else if (name.endsWith(".dat" + ProgressJournal.EXTENSION)) {
+                    // the journal of a progress file, which may have changed
+                    // while the progress file didn't
+                    String path = f.getPath();
+                    int end = path.length()
+                            - ProgressJournal.EXTENSION.length();
+                    File progressFile = new File(path.substring(0, end));
+                    if (progressFile.isFile()) {
+                        progressFiles.add(progressFile);
+                    }
+                }
+            }
+        }
+
+        ArrayList<CatalogEntry> added = new ArrayList();
+        for (File f : progressFiles) {
+            if (f.equals(file) || !isOutdated(f)) {
+                continue;
+            }
+            try {
+                added.add(CatalogEntry.of(f, new ProgressJournal(f).open()));
+            } catch (IOException ex) {
+            }
+        }
+        if (!added.isEmpty()) {
+            putAll(added);
+        }
+        return added.size();
+    }
+
+    /*
+    return true if progressFile isn't in the catalog as it is now (with
+    its journal)
+    */
+    boolean isOutdated(final File progressFile)
+            throws IOException {
+        CatalogEntry entry = get(progressFile);
+        return entry == null || entry.getLastModified()
+                != ProgressJournal.lastSaved(progressFile);
+    }
+
+    /*
+    remove the entries whose progress file doesn't exist anymore, and
+    return how many were removed; their records are appended to the
+    catalog file together, with a single sync
+    */
+    synchronized int prune() throws IOException {
+        load();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int removed = 0;
+        Iterator<CatalogEntry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            CatalogEntry entry = it.next();
+            if (!entry.getProgressFile().exists()) {
+                it.remove();
+                writeRemoveRecord(records, entry.getProgressPath());
+                ++removed;
+            }
+        }
+        if (removed > 0) {
+            appendRecords(records, removed);
+        }
+        return removed;
+    }
+
+    // write to records a record removing the entry of the progress at path
+    private static void writeRemoveRecord(final ByteArrayOutputStream records,
+            final String path) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        ProgressFileFormat.writeString(new DataOutputStream(payload), path);
+        writeRecord(records, REMOVE, payload.toByteArray());
+    }
+
+    /*
+    read the catalog file into memory, unless that's been done already; a
+    record whose length goes past the end of the file is taken for a torn
+    one, so a garbled length is never allocated
+    */
+    private void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        validLength = 0;
+        if (!file.exists()) {
+            return;
+        }
+        long fileLength = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() > VERSION) {
+                return;
+            }
+            validLength = HEADER_LENGTH;
+            while (true) {
+                int kind = in.read();
+                if (kind == -1) {
+                    break;
+                }
+                long length = ProgressFileFormat.readVarLong(in);
+                long left = fileLength - validLength - 1
+                        - varLongLength(length);
+                if (length < 0 || length + 4 > left) {
+                    break;
+                }
+                byte[] payload = new byte[(int) length];
+                in.readFully(payload);
+                int storedCrc = in.readInt();
+
+                CRC32 crc = new CRC32();
+                crc.update(kind);
+                crc.update(payload);
+                if ((kind != PUT && kind != REMOVE)
+                        || (int) crc.getValue() != storedCrc) {
+                    break;
+                }
+                DataInputStream record = new DataInputStream(
+                        new ByteArrayInputStream(payload));
+                if (kind == PUT) {
+                    CatalogEntry entry = CatalogEntry.read(record);
+                    entries.put(entry.getProgressPath(), entry);
+                } else {
+                    entries.remove(ProgressFileFormat.readString(record));
+                }
+                ++recordCount;
+                validLength += 1 + varLongLength(length) + length + 4;
+            }
+        } catch (EOFException ex) {
+            // a record torn by a crash; everything before it is kept
+        }
+    }
+
+    /*
+    append count records (written by writeRecord) to the catalog file with
+    a single sync, first cutting off whatever torn record a crash might
+    have left at its end, or rewrite the whole file if it would grow too
+    long
+    */
+    private void appendRecords(final ByteArrayOutputStream records,
+            final int count) throws IOException {
+        int limit = Math.max(MIN_RECORDS_BEFORE_COMPACTION,
+                2 * entries.size());
+        if (validLength < HEADER_LENGTH || recordCount + count > limit) {
+            compact();
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() != validLength) {
+                raf.setLength(validLength);
+            }
+            raf.seek(validLength);
+            raf.write(records.toByteArray());
+            raf.getFD().sync();
+        }
+        validLength += records.size();
+        recordCount += count;
+    }
+
+    /*
+    replace the catalog file with one holding a record per entry in memory,
+    dropping the records the entries replaced
+    */
+    private void compact() throws IOException {
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(contents);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        for (CatalogEntry entry : entries.values()) {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            entry.write(new DataOutputStream(payload));
+            writeRecord(contents, PUT, payload.toByteArray());
+        }
+        AtomicFile.write(file, contents::writeTo);
+        validLength = contents.size();
+        recordCount = entries.size();
+    }
+
+    /*
+    write one record to out: its kind, the length of its payload, the
+    payload, and a checksum of the kind and the payload
+    */
+    private static void writeRecord(final ByteArrayOutputStream out,
+            final int kind, final byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(kind);
+        crc.update(payload);
+
+        DataOutputStream record = new DataOutputStream(out);
+        record.writeByte(kind);
+        ProgressFileFormat.writeVarLong(record, payload.length);
+        record.write(payload);
+        record.writeInt((int) crc.getValue());
+    }
+
+    // return how many bytes writeVarLong uses for v
+    private static int varLongLength(long v) {
+        int length = 1;
+        while ((v & ~0x7FL) != 0) {
+            v >>>= 7;
+            ++length;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,1041 @@
+package medianotetaker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import javafx.util.Duration;
+
+
+/*
+The progress file format is the compact binary layout the note progress is
+saved in. Instead of serializing the whole object graph, a progress file
+holds (in this order):
+    - a header: the magic number, the format version, flags, the media
+      source and name, the identity of local media (see MediaIdentity),
+      and the total duration in milliseconds
+    - a string table holding every distinct marker type and topic once
+    - the markers: per marker a flag byte, the start time as a
+      millisecond delta to the previous marker's start time, the end time
+      as a delta to its own start time, and indices into the string table
+    - a CRC32 checksum of everything above
+    - the note index: per note its stored and its original byte length
+    - the note bodies, each deflated on its own (short ones are stored
+      as they are) so any one of them can be read without the others
+    - a CRC32 checksum of everything that comes before it
+Version 1 files, which kept all note bodies in one deflated block,
+version 2 files, which had no media identity, and files saved by older
+versions of the application (plain serialized NoteProgress objects) are
+still read transparently.
+*/
+final class ProgressFileFormat {
+
+    static final int MAGIC = 0x4D4E5450; // "MNTP"
+    static final int VERSION = 3;
+
+    // header flags
+    private static final int FOR_LOCAL_MEDIA = 1;
+    private static final int AUDIO_ONLY = 1 << 1;
+    private static final int HAS_TOTAL_DURATION = 1 << 2;
+    private static final int HAS_MEDIA_IDENTITY = 1 << 3;
+
+    // marker flags
+    private static final int BY_ITSELF = 1;
+    private static final int HAS_START = 1 << 1;
+    private static final int HAS_END = 1 << 2;
+    private static final int HAS_TYPE = 1 << 3;
+    private static final int HAS_TOPIC = 1 << 4;
+    private static final int HAS_NOTE = 1 << 5;
+
+    // notes shorter than this many bytes are stored without deflating
+    private static final int MIN_DEFLATED_NOTE = 64;
+    // deflate never shrinks data more than this many times
+    private static final int MAX_DEFLATE_RATIO = 1032;
+
+    // the first two bytes of every Java serialization stream
+    private static final int SERIALIZATION_MAGIC = 0xACED;
+
+    private ProgressFileFormat() {
+    }
+
+    /*
+    write progress into file in the binary progress format, replacing
+    whatever file contained before; return the checksum stored at the end
+    of the file
+
+    requires: progress, file != null
+              progress.getInfoList() != null
+    */
+    static int write(final NoteProgress progress, final File file)
+            throws IOException {
+        return write(progress, file, null);
+    }
+
+    /*
+    write progress into file like write(NoteProgress, File) does, as an
+    encrypted progress file (see EncryptedProgressFile) encrypted with key
+    if key isn't null
+
+    requires: progress, file != null
+              progress.getInfoList() != null
+    */
+    static int write(final NoteProgress progress, final File file,
+            final ProgressKey key) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            if (key == null) {
+                return write(progress, out);
+            }
+            EncryptedProgressFile.EncryptingOutputStream encrypted
+                    = EncryptedProgressFile.encrypt(out, key);
+            int checksum = write(progress, encrypted);
+            encrypted.finish();
+            return checksum;
+        }
+    }
+
+    /*
+    write progress to out in the binary progress format and return the
+    checksum written at its end; out is flushed but not closed
+
+    requires: progress, out != null
+              progress.getInfoList() != null
+    */
+    static int write(final NoteProgress progress, final OutputStream out)
+            throws IOException {
+        return writeIndexed(progress, out).checksum;
+    }
+
+    /*
+    write progress to out like write does, and return the checksum along
+    with where each note body ended up, so that the notes can be bound to
+    the written file afterwards. The index of the notes comes before their
+    bodies, so each note is fetched (and deflated) twice rather than all
+    of them being held until the index is written.
+
+    requires: progress, out != null
+              progress.getInfoList() != null
+    */
+    static NoteIndex writeIndexed(final NoteProgress progress,
+            final OutputStream out) throws IOException {
+        CRC32 crc = new CRC32();
+        DataOutputStream data = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(out, 1 << 16), crc));
+        ArrayList<NoteMarkerInfo> infoList = progress.getInfoList();
+
+        // header
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        int flags = 0;
+        if (progress.isForLocalMedia()) {
+            flags |= FOR_LOCAL_MEDIA;
+        }
+        if (progress.isAudioOnly()) {
+            flags |= AUDIO_ONLY;
+        }
+        if (progress.getTotalDuration() != null) {
+            flags |= HAS_TOTAL_DURATION;
+        }
+        if (progress.getMediaIdentity() != null) {
+            flags |= HAS_MEDIA_IDENTITY;
+        }
+        data.writeByte(flags);
+        writeString(data, progress.getMediaSource());
+        writeString(data, progress.getMediaName());
+        if (progress.getMediaIdentity() != null) {
+            writeString(data, progress.getMediaIdentity());
+        }
+        if (progress.getTotalDuration() != null) {
+            writeVarLong(data, toMillis(progress.getTotalDuration()));
+        }
+
+        // string table
+        HashMap<String, Integer> stringIndex = new HashMap();
+        ArrayList<String> strings = new ArrayList();
+        for (NoteMarkerInfo info : infoList) {
+            addToStringTable(info.getType(), stringIndex, strings);
+            addToStringTable(info.getTopic(), stringIndex, strings);
+        }
+        writeVarLong(data, strings.size());
+        for (String s : strings) {
+            writeString(data, s);
+        }
+
+        // markers
+        writeVarLong(data, infoList.size());
+        long previousStart = 0;
+        int noteCount = 0;
+        for (NoteMarkerInfo info : infoList) {
+            int markerFlags = markerFlags(info);
+            data.writeByte(markerFlags);
+            long start = 0;
+            if ((markerFlags & HAS_START) != 0) {
+                start = toMillis(info.getStartTime());
+                writeVarLong(data, zigZag(start - previousStart));
+                previousStart = start;
+            }
+            if ((markerFlags & HAS_END) != 0) {
+                writeVarLong(data, zigZag(toMillis(info.getEndTime()) - start));
+            }
+            if ((markerFlags & HAS_TYPE) != 0) {
+                writeVarLong(data, stringIndex.get(info.getType()));
+            }
+            if ((markerFlags & HAS_TOPIC) != 0) {
+                writeVarLong(data, stringIndex.get(info.getTopic()));
+            }
+            if ((markerFlags & HAS_NOTE) != 0) {
+                ++noteCount;
+            }
+        }
+        data.flush();
+        data.writeInt((int) crc.getValue());
+
+        // note index, then the note bodies; each note is stored twice
+        // over, once to learn its length for the index and once to write
+        // it, so only one note at a time is ever held in memory
+        NoteIndex index = new NoteIndex(noteCount, infoList.size());
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        byte[] buffer = new byte[1 << 16];
+        try {
+            writeVarLong(data, noteCount);
+            int noteIndex = 0;
+            for (int i = 0; i < infoList.size(); ++i) {
+                if ((markerFlags(infoList.get(i)) & HAS_NOTE) == 0) {
+                    continue;
+                }
+                byte[] raw = rawNote(infoList.get(i));
+                byte[] stored = storedNote(raw, deflater, buffer);
+                boolean deflated = stored != raw;
+                writeVarLong(data, ((long) stored.length << 1)
+                        | (deflated ? 1 : 0));
+                writeVarLong(data, raw.length);
+                index.hasNote[i] = true;
+                index.storedLengths[noteIndex] = deflated
+                        ? -stored.length - 1 : stored.length;
+                index.rawLengths[noteIndex] = raw.length;
+                ++noteIndex;
+            }
+            index.bodiesStart = data.size();
+            noteIndex = 0;
+            for (int i = 0; i < infoList.size(); ++i) {
+                if (!index.hasNote[i]) {
+                    continue;
+                }
+                byte[] stored = storedNote(rawNote(infoList.get(i)),
+                        deflater, buffer);
+                int length = index.storedLengths[noteIndex++];
+                if (stored.length != (length < 0 ? -length - 1 : length)) {
+                    throw new IOException("A note changed while it was "
+                            + "being saved");
+                }
+                data.write(stored);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        // checksum
+        data.flush();
+        index.checksum = (int) crc.getValue();
+        data.writeInt(index.checksum);
+        data.flush();
+        return index;
+    }
+
+    /*
+    the note index of a version 2 (or later) progress file: which markers
+    have a note, where the note bodies start in the file, and the stored
+    (negative for deflated notes) and original byte length of each note
+    */
+    static final class NoteIndex {
+        final boolean[] hasNote;
+        final int[] storedLengths, rawLengths;
+        long bodiesStart;
+        int checksum;
+
+        private NoteIndex(final int noteCount, final int markerCount) {
+            this(new boolean[markerCount], new int[noteCount],
+                    new int[noteCount]);
+        }
+
+        private NoteIndex(final boolean[] hasNote, final int[] storedLengths,
+                final int[] rawLengths) {
+            this.hasNote = hasNote;
+            this.storedLengths = storedLengths;
+            this.rawLengths = rawLengths;
+        }
+
+        /*
+        return the checksum at the end of the file; for an encrypted file
+        it's set to the last four bytes of the file instead (see
+        readChecksum)
+        */
+        int getChecksum() {
+            return checksum;
+        }
+
+        /*
+        bind the note of every info in infoList that has one to the file
+        this index was read from or written to, dropping notes held in
+        memory; return the store the notes are now fetched from
+
+        requires: infoList holds the markers of file, in order
+        */
+        LazyNoteStore bindNotes(final ArrayList<NoteMarkerInfo> infoList,
+                final File file) {
+            return bindNotes(infoList, file, null);
+        }
+
+        /*
+        bind the notes like bindNotes(infoList, file) does, where file is
+        encrypted with key (or isn't encrypted, if key is null)
+        */
+        LazyNoteStore bindNotes(final ArrayList<NoteMarkerInfo> infoList,
+                final File file, final ProgressKey key) {
+            LazyNoteStore store = new LazyNoteStore(file, key, bodiesStart,
+                    storedLengths, rawLengths);
+            int noteIndex = 0;
+            for (int i = 0; i < infoList.size(); ++i) {
+                if (hasNote[i]) {
+                    infoList.get(i).bindNote(store, noteIndex++);
+                }
+            }
+            return store;
+        }
+    }
+
+    /*
+    read and return the progress stored in file, which can be either in
+    the binary progress format or a serialized NoteProgress saved by an
+    older version of the application
+
+    requires: file != null
+    */
+    static NoteProgress read(final File file) throws IOException {
+        return read(file, null);
+    }
+
+    /*
+    read and return the progress stored in file like read(File) does; if
+    file is an encrypted progress file (see EncryptedProgressFile) it's
+    decrypted with key
+
+    requires: file != null
+              key != null if file is encrypted
+    */
+    static NoteProgress read(final File file, final ProgressKey key)
+            throws IOException {
+        try (InputStream in = new BufferedInputStream(
+                open(file, key), 1 << 16)) {
+            // decrypting only makes a file shorter
+            return read(in, file.length());
+        }
+    }
+
+    /*
+    open and return a stream of the contents of file, decrypted with key
+    if it's an encrypted progress file
+    */
+    private static InputStream open(final File file, final ProgressKey key)
+            throws IOException {
+        if (!EncryptedProgressFile.isEncrypted(file)) {
+            return new FileInputStream(file);
+        }
+        if (key == null) {
+            throw new IOException("Progress file is encrypted");
+        }
+        return EncryptedProgressFile.decrypt(file, key);
+    }
+
+    /*
+    read and return the progress from in, which holds at most length
+    bytes; see read(File)
+
+    requires: in != null and supports mark/reset
+    */
+    static NoteProgress read(final InputStream in, final long length)
+            throws IOException {
+        in.mark(4);
+        DataInputStream peek = new DataInputStream(in);
+        int magic = peek.readInt();
+        in.reset();
+        if (magic == MAGIC) {
+            return readBinary(new CountingInputStream(in), length);
+        }
+        if ((magic >>> 16) == SERIALIZATION_MAGIC) {
+            return readLegacy(in);
+        }
+        throw new IOException("Not a progress file");
+    }
+
+    /*
+    read and return the progress stored in file without reading its note
+    bodies: each marker's note is instead fetched from file (through a
+    bounded cache) the first time it's asked for. Only the markers' part of
+    the file is checked against its checksum; a note body that turns out
+    to be damaged is reported when it's fetched. Files in older formats are
+    read completely, as with read(File).
+
+    requires: file != null
+    */
+    static NoteProgress readLazily(final File file) throws IOException {
+        return readLazily(file, null);
+    }
+
+    /*
+    read and return the progress stored in file like readLazily(File)
+    does; if file is an encrypted progress file it's decrypted with key,
+    and only the blocks holding a note are decrypted to fetch it
+
+    requires: file != null
+              key != null if file is encrypted
+    */
+    static NoteProgress readLazily(final File file, final ProgressKey key)
+            throws IOException {
+        boolean encrypted = EncryptedProgressFile.isEncrypted(file);
+        if (!encrypted && readVersion(file) < 2) {
+            return read(file);
+        }
+        Contents contents;
+        NoteIndex index;
+        try (InputStream in = new BufferedInputStream(open(file, key),
+                1 << 16)) {
+            in.mark(4);
+            int magic = new DataInputStream(in).readInt();
+            in.reset();
+            if (magic != MAGIC) {
+                throw new IOException("Not a progress file");
+            }
+            CountingInputStream counter = new CountingInputStream(in);
+            contents = readContents(counter, true, file.length());
+            if (contents.version < 2) {
+                throw new IOException("Encrypted progress is too old");
+            }
+            index = new NoteIndex(contents.hasNote, contents.storedLengths,
+                    contents.rawLengths);
+            index.bodiesStart = counter.getCount();
+        }
+        index.bindNotes(contents.progress.getInfoList(), file,
+                encrypted ? key : null);
+        return contents.progress;
+    }
+
+    /*
+    return true if file starts with the magic number of the binary
+    progress format (as opposed to a legacy serialized progress)
+
+    requires: file != null
+    */
+    static boolean isBinaryProgress(final File file) {
+        return readVersion(file) > 0;
+    }
+
+    /*
+    return the version of the binary progress format file is in, or 0 if
+    it isn't a binary progress file (or can't be read)
+
+    requires: file != null
+    */
+    static int readVersion(final File file) {
+        try (DataInputStream in = new DataInputStream(
+                new FileInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                return 0;
+            }
+            return in.readUnsignedByte();
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    /*
+    return the last four bytes of file, which for a progress in the binary
+    format is its checksum; this identifies one particular saved version
+    of a progress file
+
+    requires: file != null
+    */
+    static int readChecksum(final File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < 4) {
+                throw new EOFException("Progress file is truncated");
+            }
+            raf.seek(raf.length() - 4);
+            return raf.readInt();
+        }
+    }
+
+    /*
+    write info as a self-contained marker record: its flags, absolute
+    start and end times, and its type, topic and note written inline
+
+    requires: out, info != null
+    */
+    static void writeMarkerRecord(final DataOutputStream out,
+            final NoteMarkerInfo info) throws IOException {
+        int markerFlags = markerFlags(info);
+        out.writeByte(markerFlags);
+        long start = 0;
+        if ((markerFlags & HAS_START) != 0) {
+            start = toMillis(info.getStartTime());
+            writeVarLong(out, start);
+        }
+        if ((markerFlags & HAS_END) != 0) {
+            writeVarLong(out, zigZag(toMillis(info.getEndTime()) - start));
+        }
+        if ((markerFlags & HAS_TYPE) != 0) {
+            writeString(out, info.getType());
+        }
+        if ((markerFlags & HAS_TOPIC) != 0) {
+            writeString(out, info.getTopic());
+        }
+        if ((markerFlags & HAS_NOTE) != 0) {
+            writeString(out, info.getNote());
+        }
+    }
+
+    // read and return a marker record written by writeMarkerRecord
+    static NoteMarkerInfo readMarkerRecord(final DataInputStream in)
+            throws IOException {
+        int markerFlags = in.readUnsignedByte();
+        long start = 0;
+        Duration startTime = null;
+        if ((markerFlags & HAS_START) != 0) {
+            start = readVarLong(in);
+            startTime = Duration.millis(start);
+        }
+        NoteMarkerInfo info = new NoteMarkerInfo(startTime);
+        info.setByItself((markerFlags & BY_ITSELF) != 0);
+        if ((markerFlags & HAS_END) != 0) {
+            info.setEndTime(Duration.millis(
+                    start + unZigZag(readVarLong(in))));
+        }
+        if ((markerFlags & HAS_TYPE) != 0) {
+            info.setType(readString(in));
+        }
+        if ((markerFlags & HAS_TOPIC) != 0) {
+            info.setTopic(readString(in));
+        }
+        if ((markerFlags & HAS_NOTE) != 0) {
+            info.setNote(readString(in));
+        }
+        return info;
+    }
+
+    /*
+    what readContents found in a binary progress file: the progress
+    (without note bodies), which markers have a note, and for version 2
+    (or later) files the lengths from the note index
+    */
+    private static final class Contents {
+        NoteProgress progress;
+        boolean[] hasNote;
+        int[] storedLengths, rawLengths;
+        CRC32 crc;
+        DataInputStream data;
+        int version;
+        CountingInputStream counter;
+        long length;
+
+        // return how many bytes of the file there can be left to read
+        long left() {
+            return length - counter.getCount();
+        }
+    }
+
+    /*
+    read everything in a binary progress file up to (but not including)
+    the note bodies from in, which holds at most length bytes; if
+    onlyMarkers is true, the checksum of the markers' part is verified
+    here, otherwise it's left to the caller to verify the checksum at the
+    end of the file. Every count and length is checked against the bytes
+    left before anything is allocated for it.
+    */
+    private static Contents readContents(final CountingInputStream in,
+            final boolean onlyMarkers, final long length)
+            throws IOException {
+        Contents contents = new Contents();
+        contents.crc = new CRC32();
+        contents.counter = in;
+        contents.length = length;
+        DataInputStream data = new DataInputStream(
+                new CheckedInputStream(in, contents.crc));
+        contents.data = data;
+
+        // header
+        data.readInt();
+        int version = data.readUnsignedByte();
+        if (version > VERSION) {
+            throw new IOException("Unsupported progress file version "
+                    + version);
+        }
+        contents.version = version;
+        int flags = data.readUnsignedByte();
+        String mediaSource = readString(data, contents.left());
+        String mediaName = readString(data, contents.left());
+        String mediaIdentity = null;
+        if ((flags & HAS_MEDIA_IDENTITY) != 0) {
+            mediaIdentity = readString(data, contents.left());
+        }
+        Duration totalDuration = null;
+        if ((flags & HAS_TOTAL_DURATION) != 0) {
+            totalDuration = Duration.millis(readVarLong(data));
+        }
+
+        // string table; every string and marker takes at least a byte
+        String[] strings = new String[readCount(data, contents.left())];
+        for (int i = 0; i < strings.length; ++i) {
+            strings[i] = readString(data, contents.left());
+        }
+
+        // markers
+        int markerCount = readCount(data, contents.left());
+        ArrayList<NoteMarkerInfo> infoList = new ArrayList(markerCount);
+        boolean[] hasNote = new boolean[markerCount];
+        int noteCount = 0;
+        long previousStart = 0;
+        for (int i = 0; i < markerCount; ++i) {
+            int markerFlags = data.readUnsignedByte();
+            long start = 0;
+            Duration startTime = null;
+            if ((markerFlags & HAS_START) != 0) {
+                start = previousStart + unZigZag(readVarLong(data));
+                previousStart = start;
+                startTime = Duration.millis(start);
+            }
+            NoteMarkerInfo info = new NoteMarkerInfo(startTime);
+            info.setByItself((markerFlags & BY_ITSELF) != 0);
+            if ((markerFlags & HAS_END) != 0) {
+                info.setEndTime(Duration.millis(
+                        start + unZigZag(readVarLong(data))));
+            }
+            if ((markerFlags & HAS_TYPE) != 0) {
+                info.setType(strings[readStringIndex(data, strings)]);
+            }
+            if ((markerFlags & HAS_TOPIC) != 0) {
+                info.setTopic(strings[readStringIndex(data, strings)]);
+            }
+            hasNote[i] = (markerFlags & HAS_NOTE) != 0;
+            if (hasNote[i]) {
+                ++noteCount;
+            }
+            infoList.add(info);
+        }
+        contents.hasNote = hasNote;
+        contents.progress = new NoteProgress(infoList,
+                (flags & FOR_LOCAL_MEDIA) != 0, (flags & AUDIO_ONLY) != 0,
+                mediaSource, mediaName, totalDuration);
+        contents.progress.setMediaIdentity(mediaIdentity);
+        if (version < 2) {
+            return contents;
+        }
+
+        int expected = (int) contents.crc.getValue();
+        if (data.readInt() != expected && onlyMarkers) {
+            throw new IOException("Progress file is corrupted "
+                    + "(checksum mismatch)");
+        }
+
+        // note index
+        if (readCount(data, contents.left()) != noteCount) {
+            throw new IOException("Progress file is corrupted "
+                    + "(note index doesn't match the markers)");
+        }
+        contents.storedLengths = new int[noteCount];
+        contents.rawLengths = new int[noteCount];
+        long storedTotal = 0;
+        for (int i = 0; i < noteCount; ++i) {
+            long entry = readVarLong(data);
+            // the lowest bit tells if the note is deflated; it's kept as
+            // the sign so the store doesn't need another array
+            boolean deflated = (entry & 1) != 0;
+            long stored = entry >>> 1;
+            long raw = readVarLong(data);
+            storedTotal += stored;
+            // the bodies are followed by the file's checksum
+            if (storedTotal + 4 > contents.left() || raw < 0
+                    || raw > Integer.MAX_VALUE || (deflated
+                    ? raw > stored * MAX_DEFLATE_RATIO : raw != stored)) {
+                throw new IOException("Progress file is corrupted "
+                        + "(a note is longer than the file)");
+            }
+            contents.storedLengths[i] = deflated ? (int) -stored - 1
+                    : (int) stored;
+            contents.rawLengths[i] = (int) raw;
+        }
+        return contents;
+    }
+
+    /*
+    read a progress in the binary progress format from in, which holds at
+    most length bytes
+    */
+    private static NoteProgress readBinary(final CountingInputStream in,
+            final long length) throws IOException {
+        Contents contents = readContents(in, false, length);
+        DataInputStream data = contents.data;
+        ArrayList<NoteMarkerInfo> infoList = contents.progress.getInfoList();
+
+        // note bodies
+        if (contents.version < 2) {
+            readNoteBlock(data, infoList, contents.hasNote, contents.left());
+        } else {
+            Inflater inflater = new Inflater(true);
+            try {
+                int noteIndex = 0;
+                for (int i = 0; i < infoList.size(); ++i) {
+                    if (!contents.hasNote[i]) {
+                        continue;
+                    }
+                    int stored = contents.storedLengths[noteIndex];
+                    boolean deflated = stored < 0;
+                    byte[] body = new byte[deflated ? -stored - 1 : stored];
+                    data.readFully(body);
+                    infoList.get(i).setNote(decodeNote(inflater, body,
+                            deflated, contents.rawLengths[noteIndex]));
+                    ++noteIndex;
+                }
+            } finally {
+                inflater.end();
+            }
+        }
+
+        // checksum
+        int expected = (int) contents.crc.getValue();
+        if (data.readInt() != expected) {
+            throw new IOException("Progress file is corrupted "
+                    + "(checksum mismatch)");
+        }
+        return contents.progress;
+    }
+
+    /*
+    read the single deflated block of note bodies of a version 1 file, of
+    which there are at most left bytes left
+    */
+    private static void readNoteBlock(final DataInputStream data,
+            final ArrayList<NoteMarkerInfo> infoList, final boolean[] hasNote,
+            final long left) throws IOException {
+        byte[] compressed = new byte[readCount(data, left)];
+        data.readFully(compressed);
+        if (compressed.length == 0) {
+            return;
+        }
+        Inflater inflater = new Inflater();
+        DataInputStream notes;
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    compressed.length * 3);
+            byte[] buffer = new byte[1 << 16];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput()
+                        || inflater.needsDictionary())) {
+                    throw new EOFException("Truncated note block");
+                }
+                out.write(buffer, 0, n);
+            }
+            notes = new DataInputStream(
+                    new ByteArrayInputStream(out.toByteArray()));
+        } catch (DataFormatException ex) {
+            throw new IOException("Progress file is corrupted", ex);
+        } finally {
+            inflater.end();
+        }
+        for (int i = 0; i < infoList.size(); ++i) {
+            if (hasNote[i]) {
+                infoList.get(i).setNote(readString(notes, notes.available()));
+            }
+        }
+    }
+
+    /*
+    turn the stored bytes of one note body back into the note; inflater
+    is reset and reused
+
+    requires: inflater was created with nowrap == true
+    */
+    static String decodeNote(final Inflater inflater, final byte[] body,
+            final boolean deflated, final int rawLength) throws IOException {
+        if (!deflated) {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+        inflater.reset();
+        inflater.setInput(body);
+        byte[] raw = new byte[rawLength];
+        try {
+            int n = 0;
+            while (n < rawLength) {
+                int read = inflater.inflate(raw, n, rawLength - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput()
+                        || inflater.needsDictionary())) {
+                    throw new IOException("Progress file is corrupted "
+                            + "(truncated note)");
+                }
+                n += read;
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Progress file is corrupted", ex);
+        }
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    // return the UTF-8 bytes of the note of info
+    private static byte[] rawNote(final NoteMarkerInfo info)
+            throws IOException {
+        String note = info.getNote();
+        return (note == null ? "" : note).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /*
+    return the bytes raw is stored as: deflated with deflater (using
+    buffer), if it's long enough and that makes it shorter, otherwise raw
+    itself
+    */
+    private static byte[] storedNote(final byte[] raw,
+            final Deflater deflater, final byte[] buffer) {
+        if (raw.length < MIN_DEFLATED_NOTE) {
+            return raw;
+        }
+        byte[] deflated = deflate(deflater, raw, buffer);
+        return deflated.length < raw.length ? deflated : raw;
+    }
+
+    // return raw deflated with deflater (which is reset first)
+    private static byte[] deflate(final Deflater deflater, final byte[] raw,
+            final byte[] buffer) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length);
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    // read a serialized NoteProgress written by older versions from in
+    private static NoteProgress readLegacy(final InputStream in)
+            throws IOException {
+        NoteProgress progress = null;
+        ObjectInputStream objects = new ObjectInputStream(in);
+        while (true) {
+            try {
+                progress = (NoteProgress) objects.readObject();
+            } catch (EOFException ex) {
+                break;
+            } catch (ClassNotFoundException | ClassCastException ex) {
+                throw new IOException("Not a progress file", ex);
+            }
+        }
+        if (progress == null) {
+            throw new IOException("Progress file is empty");
+        }
+        return progress;
+    }
+
+    // return the flags describing which fields of info are set
+    private static int markerFlags(final NoteMarkerInfo info) {
+        int flags = 0;
+        if (info.isByItself()) {
+            flags |= BY_ITSELF;
+        }
+        if (info.getStartTime() != null) {
+            flags |= HAS_START;
+        }
+        if (info.getEndTime() != null) {
+            flags |= HAS_END;
+        }
+        if (info.getType() != null) {
+            flags |= HAS_TYPE;
+        }
+        if (info.getTopic() != null) {
+            flags |= HAS_TOPIC;
+        }
+        if (info.hasNote()) {
+            flags |= HAS_NOTE;
+        }
+        return flags;
+    }
+
+    // add s to the string table if it's not null and not already in it
+    private static void addToStringTable(final String s,
+            final HashMap<String, Integer> stringIndex,
+            final ArrayList<String> strings) {
+        if (s != null && !stringIndex.containsKey(s)) {
+            stringIndex.put(s, strings.size());
+            strings.add(s);
+        }
+    }
+
+    // return the time rounded to whole milliseconds
+    static long toMillis(final Duration time) {
+        return Math.round(time.toMillis());
+    }
+
+    /*
+    an input stream that counts the bytes read through it, so the offset
+    of the note bodies in the file is known once the index has been read
+    */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                ++count;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len)
+                throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    // ---- primitive encodings, shared with the other progress files ----
+
+    /*
+    write s as a varint byte length followed by its UTF-8 bytes; null is
+    written as length 0 and read back as the empty string
+    */
+    static void writeString(final DataOutputStream out, final String s)
+            throws IOException {
+        if (s == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    // read a string written by writeString
+    static String readString(final DataInputStream in) throws IOException {
+        return readString(in, Integer.MAX_VALUE);
+    }
+
+    /*
+    read a string written by writeString from in, which has at most left
+    bytes left
+    */
+    static String readString(final DataInputStream in, final long left)
+            throws IOException {
+        byte[] bytes = new byte[readCount(in, left)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // write the non-negative value v in 7-bit groups, low bits first
+    static void writeVarLong(final DataOutputStream out, long v)
+            throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    // read a value written by writeVarLong
+    static long readVarLong(final DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Malformed variable-length number");
+    }
+
+    // read a varint that is used as a length or a count
+    static int readCount(final DataInputStream in) throws IOException {
+        return readCount(in, Integer.MAX_VALUE);
+    }
+
+    /*
+    read a varint that is used as a length or a count of bytes (or of
+    things that take at least a byte each) in in, which has at most left
+    bytes left
+    */
+    static int readCount(final DataInputStream in, final long left)
+            throws IOException {
+        long count = readVarLong(in);
+        if (count < 0 || count > Math.min(left, Integer.MAX_VALUE)) {
+            throw new IOException("Progress file is corrupted (length "
+                    + Long.toUnsignedString(count) + " past its end)");
+        }
+        return (int) count;
+    }
+
+    // read a varint index into strings
+    private static int readStringIndex(final DataInputStream in,
+            final String[] strings) throws IOException {
+        int index = readCount(in);
+        if (index >= strings.length) {
+            throw new IOException("String index out of range");
+        }
+        return index;
+    }
+
+    // map signed values to unsigned ones so small deltas stay short
+    static long zigZag(final long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    // undo zigZag
+    static long unZigZag(final long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
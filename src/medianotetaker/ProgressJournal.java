@@ -0,0 +1,448 @@
+package medianotetaker;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+
+/*
+The progress journal lets a progress be saved incrementally. Next to the
+progress file (the snapshot) lives an append-only journal file whose
+header names the snapshot it applies to (by the snapshot's checksum),
+followed by one small record for every marker added or edited since that
+snapshot was written. Each record is checksummed on its own, so a record
+torn by a crash mid-write is detected and dropped on replay together with
+everything after it.
+
+Once the journal grows large relative to the progress it's compacted: a
+new snapshot replaces the old one (see AtomicFile) and the journal is
+started over.
+
+The journal of an encrypted progress (see EncryptedProgressFile) seals the
+payload of every record with the progress's key, and its snapshots are
+written encrypted. Each sealed record is authenticated along with its
+kind, the checksum of the snapshot and its place in the journal, so a
+record can't be replayed on another snapshot or moved within the journal
+without it being noticed.
+*/
+final class ProgressJournal {
+
+    static final int MAGIC = 0x4D4E544A; // "MNTJ"
+    static final int VERSION = 2;
+    // journals of this version only authenticate the kind of a record
+    private static final int KIND_ONLY_AAD_VERSION = 1;
+    static final String EXTENSION = ".journal";
+
+    // record kinds
+    private static final int ADD = 1;
+    private static final int EDIT = 2;
+
+    private static final int HEADER_LENGTH = 9;
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 256;
+
+    private final File progressFile, journalFile;
+    private final ProgressKey key;
+    private boolean hasSnapshot;
+    private volatile int snapshotChecksum;
+    private String snapshotSource, snapshotIdentity;
+    private long snapshotDuration;
+    private int journaledCount, recordCount;
+    // the version of the journal file records are appended to
+    private int journalVersion;
+    private long validLength;
+
+    /*
+    constructor: create the journal for the progress saved in progressFile;
+    nothing is read or written until open, save or compact is called
+
+    requires: progressFile != null
+    */
+    ProgressJournal(final File progressFile) {
+        this(progressFile, null);
+    }
+
+    /*
+    constructor: create the journal for the progress saved in progressFile,
+    which is (or will be) encrypted with key; if key is null the progress
+    isn't encrypted
+
+    requires: progressFile != null
+    */
+    ProgressJournal(final File progressFile, final ProgressKey key) {
+        this.progressFile = progressFile;
+        this.key = key;
+        journalFile = journalFileFor(progressFile);
+        hasSnapshot = false;
+    }
+
+    // return the journal file that belongs to progressFile
+    static File journalFileFor(final File progressFile) {
+        return new File(progressFile.getPath() + EXTENSION);
+    }
+
+    /*
+    return when the progress saved in progressFile was last saved, counting
+    the records appended to its journal since its snapshot was written
+    */
+    static long lastSaved(final File progressFile) {
+        return Math.max(progressFile.lastModified(),
+                journalFileFor(progressFile).lastModified());
+    }
+
+    // return the progress file this journal belongs to
+    File getProgressFile() {
+        return progressFile;
+    }
+
+    // return true if the progress is saved encrypted
+    boolean isEncrypted() {
+        return key != null;
+    }
+
+    /*
+    read the snapshot and replay every intact journal record on top of it,
+    and return the resulting progress; a journal left over from an older
+    snapshot is ignored. Note bodies in the snapshot aren't read until
+    they're asked for (see ProgressFileFormat.readLazily).
+
+    requires: the progress file exists
+    */
+    NoteProgress open() throws IOException {
+        NoteProgress progress = ProgressFileFormat.readLazily(progressFile,
+                key);
+        hasSnapshot = key == null
+                ? ProgressFileFormat.isBinaryProgress(progressFile)
+                : EncryptedProgressFile.isEncrypted(progressFile);
+        if (hasSnapshot) {
+            snapshotChecksum = ProgressFileFormat.readChecksum(progressFile);
+        }
+        rememberHeader(progress);
+        journaledCount = progress.getInfoList().size();
+        recordCount = 0;
+        validLength = 0;
+        journalVersion = VERSION;
+        if (hasSnapshot && journalFile.exists()) {
+            replay(progress.getInfoList());
+        }
+        return progress;
+    }
+
+    /*
+    save progress: append a record for every marker added since the last
+    save and for every marker whose index is in changed, or write a fresh
+    snapshot if there's none yet or the journal has grown too long (see
+    compact)
+
+    requires: progress != null, progress.getInfoList() != null
+              changed != null and only has indices into the info list
+    */
+    void save(final NoteProgress progress,
+            final Collection<Integer> changed) throws IOException {
+        ArrayList<NoteMarkerInfo> infoList = progress.getInfoList();
+        int pending = changed.size() + infoList.size() - journaledCount;
+        if (needsCompaction(progress, pending)) {
+            compact(progress);
+            return;
+        }
+
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int appended = 0;
+        for (int index : changed) {
+            if (index < journaledCount) {
+                writeRecord(records, EDIT, recordCount + appended, index,
+                        infoList.get(index));
+                ++appended;
+            }
+        }
+        for (int index = journaledCount; index < infoList.size(); ++index) {
+            writeRecord(records, ADD, recordCount + appended, index,
+                    infoList.get(index));
+            ++appended;
+        }
+        if (appended > 0) {
+            append(records.toByteArray());
+            journaledCount = infoList.size();
+            recordCount += appended;
+        }
+    }
+
+    /*
+    fold the whole progress into a new snapshot, replacing the progress
+    file with an atomic file write, and start an empty journal for it.
+    Notes still in the old snapshot are fetched from it one at a time as
+    the new one is written (see ProgressFileFormat.writeIndexed), and the
+    notes of the progress are fetched from the new snapshot afterwards, so
+    compacting holds at most one note in memory.
+
+    requires: progress != null, progress.getInfoList() != null
+    */
+    void compact(final NoteProgress progress) throws IOException {
+        ProgressFileFormat.NoteIndex[] index
+                = new ProgressFileFormat.NoteIndex[1];
+        Set<LazyNoteStore> oldStores = noteStores(progress.getInfoList());
+        AtomicFile.write(progressFile, (OutputStream out) -> {
+            if (key == null) {
+                index[0] = ProgressFileFormat.writeIndexed(progress, out);
+            } else {
+                EncryptedProgressFile.EncryptingOutputStream encrypted
+                        = EncryptedProgressFile.encrypt(out, key);
+                index[0] = ProgressFileFormat.writeIndexed(progress,
+                        encrypted);
+                encrypted.finish();
+            }
+        });
+        if (key != null) {
+            // snapshots are told apart by their last four bytes, which for
+            // an encrypted file aren't the checksum of its contents
+            index[0].checksum = ProgressFileFormat.readChecksum(progressFile);
+        }
+        snapshotChecksum = index[0].getChecksum();
+        // bound before the old stores are closed, so a note being fetched
+        // from one of them right now is fetched again from the new
+        // snapshot (see NoteMarkerInfo.getNote)
+        index[0].bindNotes(progress.getInfoList(), progressFile, key);
+        for (LazyNoteStore store : oldStores) {
+            store.close();
+        }
+        hasSnapshot = true;
+        rememberHeader(progress);
+        journaledCount = progress.getInfoList().size();
+        recordCount = 0;
+        startJournal();
+    }
+
+    /*
+    return true if progress should be saved as a new snapshot rather than
+    by appending pending records to the journal
+    */
+    private boolean needsCompaction(final NoteProgress progress,
+            final int pending) {
+        if (!hasSnapshot || !progressFile.exists()
+                || progress.getInfoList().size() < journaledCount) {
+            return true;
+        }
+        if (!sameHeader(progress) || journalVersion != VERSION) {
+            // an older journal is folded in rather than appended to
+            return true;
+        }
+        int limit = Math.max(MIN_RECORDS_BEFORE_COMPACTION,
+                progress.getInfoList().size() / 2);
+        return recordCount + pending > limit;
+    }
+
+    // return the stores the notes in infoList are fetched from
+    private static Set<LazyNoteStore> noteStores(
+            final ArrayList<NoteMarkerInfo> infoList) {
+        Set<LazyNoteStore> stores = Collections.newSetFromMap(
+                new IdentityHashMap<LazyNoteStore, Boolean>());
+        for (NoteMarkerInfo info : infoList) {
+            LazyNoteStore store = info.getNoteStore();
+            if (store != null) {
+                stores.add(store);
+            }
+        }
+        return stores;
+    }
+
+    // remember the header fields of the snapshot the journal applies to
+    private void rememberHeader(final NoteProgress progress) {
+        snapshotSource = progress.getMediaSource();
+        snapshotIdentity = progress.getMediaIdentity();
+        snapshotDuration = progress.getTotalDuration() == null ? -1
+                : ProgressFileFormat.toMillis(progress.getTotalDuration());
+    }
+
+    // return true if progress has the header of the current snapshot
+    private boolean sameHeader(final NoteProgress progress) {
+        long duration = progress.getTotalDuration() == null ? -1
+                : ProgressFileFormat.toMillis(progress.getTotalDuration());
+        return duration == snapshotDuration
+                && Objects.equals(progress.getMediaSource(), snapshotSource)
+                && Objects.equals(progress.getMediaIdentity(),
+                        snapshotIdentity);
+    }
+
+    // create (or empty) the journal file and write its header
+    private void startJournal() throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(header);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeInt(snapshotChecksum);
+        try (FileOutputStream out = new FileOutputStream(journalFile)) {
+            header.writeTo(out);
+            out.getFD().sync();
+        }
+        validLength = HEADER_LENGTH;
+        journalVersion = VERSION;
+    }
+
+    /*
+    append records to the journal, first cutting off whatever torn record
+    a crash might have left at its end
+    */
+    private void append(final byte[] records) throws IOException {
+        if (validLength < HEADER_LENGTH || !journalFile.exists()) {
+            startJournal();
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+            if (raf.length() != validLength) {
+                raf.setLength(validLength);
+            }
+            raf.seek(validLength);
+            raf.write(records);
+            raf.getFD().sync();
+        }
+        validLength += records.length;
+    }
+
+    /*
+    write one record to out: its kind, the length of its payload, the
+    payload (the marker's index and the marker itself, sealed with the key
+    if the progress is encrypted), and a checksum of the kind and the
+    payload; sequence is the record's place in the journal
+    */
+    private void writeRecord(final ByteArrayOutputStream out,
+            final int kind, final int sequence, final int index,
+            final NoteMarkerInfo info) throws IOException {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(plain);
+        ProgressFileFormat.writeVarLong(data, index);
+        ProgressFileFormat.writeMarkerRecord(data, info);
+        byte[] payload = plain.toByteArray();
+        if (key != null) {
+            try {
+                payload = key.seal(payload, recordAad(kind, sequence));
+            } catch (GeneralSecurityException ex) {
+                throw new IOException("Couldn't encrypt the record", ex);
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(kind);
+        crc.update(payload);
+
+        DataOutputStream record = new DataOutputStream(out);
+        record.writeByte(kind);
+        ProgressFileFormat.writeVarLong(record, payload.length);
+        record.write(payload);
+        record.writeInt((int) crc.getValue());
+    }
+
+    /*
+    apply the journal's records to infoList in order, stopping at the
+    first record that is torn, corrupted or doesn't fit the list; a record
+    whose length runs past the end of the file counts as torn, so a
+    garbled length is never allocated
+    */
+    private void replay(final ArrayList<NoteMarkerInfo> infoList)
+            throws IOException {
+        long fileLength = journalFile.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(journalFile), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            int version = in.readUnsignedByte();
+            if (version > VERSION || in.readInt() != snapshotChecksum) {
+                return;
+            }
+            journalVersion = version;
+            long offset = HEADER_LENGTH;
+            validLength = offset;
+            while (true) {
+                int kind = in.read();
+                if (kind == -1) {
+                    break;
+                }
+                long before = offset;
+                long length = ProgressFileFormat.readVarLong(in);
+                long left = fileLength - before - 1 - varLongLength(length);
+                if (length < 0 || length + 4 > left) {
+                    break;
+                }
+                byte[] payload = new byte[(int) length];
+                in.readFully(payload);
+                int storedCrc = in.readInt();
+                if (kind != ADD && kind != EDIT) {
+                    break;
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(kind);
+                crc.update(payload);
+                if ((int) crc.getValue() != storedCrc) {
+                    break;
+                }
+                byte[] plain = payload;
+                if (key != null) {
+                    try {
+                        plain = key.open(payload,
+                                version == KIND_ONLY_AAD_VERSION
+                                ? new byte[]{(byte) kind}
+                                : recordAad(kind, recordCount));
+                    } catch (GeneralSecurityException ex) {
+                        break;
+                    }
+                }
+                DataInputStream record = new DataInputStream(
+                        new ByteArrayInputStream(plain));
+                int index = ProgressFileFormat.readCount(record);
+                NoteMarkerInfo info = ProgressFileFormat.readMarkerRecord(
+                        record);
+                if (index < infoList.size()) {
+                    infoList.set(index, info);
+                } else if (index == infoList.size()) {
+                    infoList.add(info);
+                } else {
+                    break;
+                }
+                ++recordCount;
+                offset = before + 1 + varLongLength(payload.length)
+                        + payload.length + 4;
+                validLength = offset;
+            }
+        } catch (EOFException ex) {
+            // a record torn by a crash; everything before it is kept
+        }
+        journaledCount = infoList.size();
+    }
+
+    /*
+    return the additional data a sealed record of kind is authenticated
+    with: its kind, the checksum of the snapshot the journal applies to
+    and the record's place in the journal
+    */
+    private byte[] recordAad(final int kind, final int sequence) {
+        return ByteBuffer.allocate(9).put((byte) kind)
+                .putInt(snapshotChecksum).putInt(sequence).array();
+    }
+
+    // return how many bytes writeVarLong uses for v
+    private static int varLongLength(long v) {
+        int length = 1;
+        while ((v & ~0x7FL) != 0) {
+            v >>>= 7;
+            ++length;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,137 @@
+package medianotetaker;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+
+/*
+The progress key is the AES key an encrypted progress is protected with,
+derived from the user's passphrase with PBKDF2 and a random salt that's
+stored (along with the iteration count) in the header of the encrypted
+file, so the same passphrase gives the same key again. Besides encrypting
+progress files (see EncryptedProgressFile), the key seals the records of
+the progress's journal one by one.
+*/
+final class ProgressKey {
+
+    static final int SALT_LENGTH = 16;
+    static final int ITERATIONS = 210000;
+    static final int KEY_BITS = 256;
+    static final int IV_LENGTH = 12;
+    static final int TAG_LENGTH = 16;
+    static final String CIPHER = "AES/GCM/NoPadding";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final byte[] salt;
+    private final int iterations;
+    private final SecretKey key;
+
+    private ProgressKey(final byte[] salt, final int iterations,
+            final SecretKey key) {
+        this.salt = salt;
+        this.iterations = iterations;
+        this.key = key;
+    }
+
+    /*
+    derive and return a key for a new encrypted progress from passphrase,
+    with a fresh salt; passphrase is wiped afterwards
+
+    requires: passphrase != null
+    */
+    static ProgressKey create(final char[] passphrase)
+            throws GeneralSecurityException {
+        return derive(passphrase, randomBytes(SALT_LENGTH), ITERATIONS);
+    }
+
+    /*
+    derive and return the key passphrase gives with salt and iterations;
+    passphrase is wiped afterwards
+
+    requires: passphrase, salt != null
+              iterations > 0
+    */
+    static ProgressKey derive(final char[] passphrase, final byte[] salt,
+            final int iterations) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(passphrase, salt, iterations,
+                KEY_BITS);
+        try {
+            byte[] derived = SecretKeyFactory.getInstance(
+                    "PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            return new ProgressKey(salt.clone(), iterations,
+                    new SecretKeySpec(derived, "AES"));
+        } finally {
+            spec.clearPassword();
+            Arrays.fill(passphrase, '\0');
+        }
+    }
+
+    // return the salt the key was derived with
+    byte[] getSalt() {
+        return salt.clone();
+    }
+
+    // return the number of PBKDF2 iterations the key was derived with
+    int getIterations() {
+        return iterations;
+    }
+
+    /*
+    return a cipher that encrypts (if encrypt is true) or decrypts with
+    the key and iv, authenticating aad along with the data
+
+    requires: iv.length == IV_LENGTH
+    */
+    Cipher cipher(final boolean encrypt, final byte[] iv, final byte[] aad)
+            throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, key,
+                new GCMParameterSpec(TAG_LENGTH * 8, iv));
+        if (aad != null) {
+            cipher.updateAAD(aad);
+        }
+        return cipher;
+    }
+
+    /*
+    encrypt and authenticate plain (and aad, which isn't included) under a
+    random iv, and return the iv followed by the ciphertext
+    */
+    byte[] seal(final byte[] plain, final byte[] aad)
+            throws GeneralSecurityException {
+        byte[] iv = randomBytes(IV_LENGTH);
+        byte[] sealed = cipher(true, iv, aad).doFinal(plain);
+        byte[] result = new byte[IV_LENGTH + sealed.length];
+        System.arraycopy(iv, 0, result, 0, IV_LENGTH);
+        System.arraycopy(sealed, 0, result, IV_LENGTH, sealed.length);
+        return result;
+    }
+
+    /*
+    return what sealed was sealed from; throw if it (or aad) has been
+    tampered with or was sealed with another key
+    */
+    byte[] open(final byte[] sealed, final byte[] aad)
+            throws GeneralSecurityException {
+        if (sealed.length < IV_LENGTH + TAG_LENGTH) {
+            throw new GeneralSecurityException("Sealed data is too short");
+        }
+        return cipher(false, Arrays.copyOf(sealed, IV_LENGTH), aad)
+                .doFinal(sealed, IV_LENGTH, sealed.length - IV_LENGTH);
+    }
+
+    // return length random bytes
+    static byte[] randomBytes(final int length) {
+        byte[] bytes = new byte[length];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+}
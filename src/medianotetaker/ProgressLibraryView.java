@@ -0,0 +1,233 @@
+package medianotetaker;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
+import javafx.event.ActionEvent;
+import javafx.geometry.Insets;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableCell;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableRow;
+import javafx.scene.control.TableView;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.stage.DirectoryChooser;
+import javafx.util.Duration;
+
+
+/*
+The progress library view lists every progress in the progress catalog in
+a sortable table, which only ever reads the catalog, never the progress
+files themselves. Double-clicking a row (or pressing "Open") continues the
+work on that progress; progress saved elsewhere can be added by scanning a
+folder for progress files.
+*/
+final class ProgressLibraryView extends BorderPane {
+
+    private final ProgressCatalog catalog;
+    private final Consumer<File> onOpen;
+    private final TableView<CatalogEntry> table;
+    private final Label status;
+    private final DateFormat dateFormat;
+
+    /*
+    constructor: create the view of catalog; onOpen is called with the
+    progress file the user chooses to continue from
+
+    requires: catalog, onOpen != null
+    */
+    ProgressLibraryView(final ProgressCatalog catalog,
+            final Consumer<File> onOpen) {
+        this.catalog = catalog;
+        this.onOpen = onOpen;
+        dateFormat = DateFormat.getDateTimeInstance(DateFormat.MEDIUM,
+                DateFormat.SHORT);
+        table = makeTable();
+        status = new Label();
+
+        Button open = new Button("Open");
+        open.disableProperty().bind(
+                table.getSelectionModel().selectedItemProperty().isNull());
+        open.setOnAction((ActionEvent event) -> {
+            openSelected();
+        });
+        Button addFolder = new Button("Add folder");
+        addFolder.setOnAction((ActionEvent event) -> {
+            addFolder();
+        });
+        Button removeMissing = new Button("Remove missing");
+        removeMissing.setOnAction((ActionEvent event) -> {
+            runInBackground(() -> catalog.prune() + " removed");
+        });
+
+        HBox controls = new HBox(10, open, addFolder, removeMissing, status);
+        controls.setPadding(new Insets(10));
+        setCenter(table);
+        setBottom(controls);
+        refresh();
+    }
+
+    // make and return the table of catalog entries
+    private TableView<CatalogEntry> makeTable() {
+        TableView<CatalogEntry> entries = new TableView();
+        entries.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+        entries.setPlaceholder(new Label("No saved progress yet"));
+
+        TableColumn<CatalogEntry, String> media = new TableColumn("Media");
+        media.setCellValueFactory((TableColumn.CellDataFeatures<
+                CatalogEntry, String> cell) -> new ReadOnlyStringWrapper(
+                cell.getValue().getMediaName()));
+        media.setPrefWidth(260);
+
+        TableColumn<CatalogEntry, String> source = new TableColumn("Source");
+        source.setCellValueFactory((TableColumn.CellDataFeatures<
+                CatalogEntry, String> cell) -> new ReadOnlyStringWrapper(
+                cell.getValue().isForLocalMedia() ? "Local" : "YouTube"));
+
+        TableColumn<CatalogEntry, Long> duration = makeLongColumn("Duration",
+                CatalogEntry::getDurationMillis, (Long millis) -> millis < 0
+                ? "" : TimeFormatter.formatTime(Duration.millis(millis)));
+        TableColumn<CatalogEntry, Long> markers = makeLongColumn("Markers",
+                CatalogEntry::getMarkerCount, String::valueOf);
+
+        entries.getColumns().addAll(media, source, duration, markers);
+        String[] colors = {"red", "darkviolet", "blue", "green"};
+        for (int i = 0; i < CatalogEntry.TYPES.length; ++i) {
+            int type = i;
+            TableColumn<CatalogEntry, Long> count = makeLongColumn(
+                    CatalogEntry.TYPE_NAMES[i],
+                    (CatalogEntry entry) -> entry.getTypeCount(type),
+                    String::valueOf);
+            count.setStyle("-fx-text-fill: " + colors[i] + ";");
+            entries.getColumns().add(count);
+        }
+        TableColumn<CatalogEntry, Long> modified = makeLongColumn(
+                "Last modified", CatalogEntry::getLastModified,
+                (Long time) -> dateFormat.format(new Date(time)));
+        modified.setPrefWidth(150);
+        entries.getColumns().add(modified);
+        modified.setSortType(TableColumn.SortType.DESCENDING);
+        entries.getSortOrder().add(modified);
+
+        entries.setRowFactory((TableView<CatalogEntry> view) -> {
+            TableRow<CatalogEntry> row = new TableRow();
+            row.setOnMouseClicked((MouseEvent event) -> {
+                if (event.getButton() == MouseButton.PRIMARY
+                        && event.getClickCount() == 2 && !row.isEmpty()) {
+                    onOpen.accept(row.getItem().getProgressFile());
+                }
+            });
+            return row;
+        });
+        return entries;
+    }
+
+    /*
+    make and return a column named name that holds the numbers value
+    returns for each entry, sorted as numbers and shown as format returns
+    */
+    private static TableColumn<CatalogEntry, Long> makeLongColumn(
+            final String name, final ToLongFunction<CatalogEntry> value,
+            final Function<Long, String> format) {
+        TableColumn<CatalogEntry, Long> column = new TableColumn(name);
+        column.setCellValueFactory((TableColumn.CellDataFeatures<
+                CatalogEntry, Long> cell) -> new ReadOnlyObjectWrapper(
+                value.applyAsLong(cell.getValue())));
+        column.setCellFactory((TableColumn<CatalogEntry, Long> c) ->
+                new TableCell<CatalogEntry, Long>() {
+            @Override
+            protected void updateItem(final Long item, final boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty || item == null ? null : format.apply(item));
+            }
+        });
+        return column;
+    }
+
+    // continue from the progress in the selected row
+    private void openSelected() {
+        CatalogEntry entry = table.getSelectionModel().getSelectedItem();
+        if (entry != null) {
+            onOpen.accept(entry.getProgressFile());
+        }
+    }
+
+    // let the user choose a folder and add the progress files in it
+    private void addFolder() {
+        DirectoryChooser dc = new DirectoryChooser();
+        dc.setTitle("Add progress in folder");
+        File dir = dc.showDialog(getScene().getWindow());
+        if (dir != null) {
+            runInBackground(() -> catalog.indexDirectory(dir) + " added");
+        }
+    }
+
+    // something to do to the catalog that returns a message for the user
+    private interface CatalogAction {
+        String run() throws IOException;
+    }
+
+    /*
+    do action in the background, then show its message and list the
+    catalog again
+    */
+    private void runInBackground(final CatalogAction action) {
+        status.setText("Working...");
+        Task<String> work = new Task<String>() {
+            @Override
+            protected String call() throws IOException {
+                return action.run();
+            }
+        };
+        work.setOnSucceeded((WorkerStateEvent event) -> {
+            refresh();
+            status.setText(work.getValue());
+        });
+        work.setOnFailed((WorkerStateEvent event) -> {
+            status.setText("Couldn't update the library");
+        });
+        startDaemon(work, "Library worker");
+    }
+
+    // list the entries of the catalog again, read in the background
+    void refresh() {
+        Task<ArrayList<CatalogEntry>> listing
+                = new Task<ArrayList<CatalogEntry>>() {
+            @Override
+            protected ArrayList<CatalogEntry> call() throws IOException {
+                return catalog.list();
+            }
+        };
+        listing.setOnSucceeded((WorkerStateEvent event) -> {
+            table.setItems(FXCollections.observableArrayList(
+                    listing.getValue()));
+            table.sort();
+            status.setText(listing.getValue().size() + " saved progress");
+        });
+        listing.setOnFailed((WorkerStateEvent event) -> {
+            status.setText("Couldn't read the library");
+        });
+        startDaemon(listing, "Library reader");
+    }
+
+    // run task on a new daemon thread named name
+    private static void startDaemon(final Task<?> task, final String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,119 @@
+package medianotetaker;
+
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.layout.Pane;
+import javafx.scene.media.MediaPlayer;
+import javafx.scene.media.MediaView;
+import javafx.scene.web.WebView;
+
+
+/*
+The session engine pool keeps two views between note taking sessions: a
+web view (and its web engine) with the player page already loaded, for
+online videos, and a media view, for local media. Building a web engine
+and loading the player page (and, for YouTube, its player script) takes
+seconds; taking the warmed one from the pool only takes handing over the
+video to play.
+
+Nothing else is pooled. The note taker around the views (its timeline,
+note editor, buttons and sliders) holds the state of its session and is
+built anew for every session, and so is the media player of local media,
+which can't switch media; a switch still pays for those. How long it
+takes is measured, not bounded, by SessionSoak.
+
+There's at most one of each in the pool, since there's one session at a
+time; a session takes them when it starts and gives them back when it
+ends. When the pool is empty (e.g. before warmUp, or if two sessions
+overlap) new ones are made. The pool is only used on the JavaFX
+application thread.
+*/
+final class SessionEnginePool {
+
+    private final String playerPage;
+    private WebView webView;
+    private MediaView mediaView;
+
+    /*
+    constructor: create the pool of web views that have playerPage (one of
+    the pages of YouTubeNoteTaker) loaded; nothing is made until warmUp
+
+    requires: playerPage != null
+    */
+    SessionEnginePool(final String playerPage) {
+        this.playerPage = playerPage;
+    }
+
+    // return the player page the web views of the pool have loaded
+    String getPlayerPage() {
+        return playerPage;
+    }
+
+    /*
+    make the web view (starting to load the player page in it) and the
+    media view, if they aren't in the pool already
+    */
+    void warmUp() {
+        if (webView == null) {
+            webView = new WebView();
+            webView.getEngine().load(getClass().getResource(playerPage)
+                    .toExternalForm());
+        }
+        if (mediaView == null) {
+            mediaView = new MediaView();
+        }
+    }
+
+    /*
+    take the web view out of the pool (or make one, if there's none); its
+    page may still be loading, or not be loaded at all
+    */
+    WebView takeWebView() {
+        WebView taken = webView != null ? webView : new WebView();
+        webView = null;
+        return taken;
+    }
+
+    /*
+    give view (taken out of the pool before, its video stopped) back to the
+    pool, keeping its page loaded for the next session
+
+    requires: view != null
+    */
+    void giveBack(final WebView view) {
+        detach(view);
+        webView = view;
+    }
+
+    // take the media view out of the pool (or make one, if there's none)
+    MediaView takeMediaView() {
+        MediaView taken = mediaView != null ? mediaView : new MediaView();
+        mediaView = null;
+        return taken;
+    }
+
+    /*
+    give view (taken out of the pool before) back to the pool; the player
+    it shows is disposed of, as a media player can only ever play the
+    media it was made with
+
+    requires: view != null
+    */
+    void giveBack(final MediaView view) {
+        MediaPlayer player = view.getMediaPlayer();
+        view.setMediaPlayer(null);
+        if (player != null) {
+            player.dispose();
+        }
+        detach(view);
+        mediaView = view;
+    }
+
+    // take view out of the pane it's in, if it's in one
+    private static void detach(final Node view) {
+        Parent parent = view.getParent();
+        if (parent instanceof Pane) {
+            ((Pane) parent).getChildren().remove(view);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package medianotetaker;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javafx.animation.PauseTransition;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.event.ActionEvent;
+import javafx.scene.Scene;
+import javafx.scene.layout.BorderPane;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+
+
+/*
+The session soak opens and closes note taking sessions over and over, the
+way switching media in the launcher does, and checks that closing a note
+taker releases everything it held, e.g.:
+
+    java medianotetaker.SessionSoak --sessions 500 --media file:/tmp/a.mp4
+
+Each session plays for --dwell ms and is then closed and dropped. The
+sessions play a simulated video on the offline player page or, if --media
+names a local media file's URL, take turns playing that file and the
+simulated video. After the first WARM_UP sessions (so the pools, caches
+and compiled code are in place) it measures the heap (after collecting
+garbage), the open file descriptors (on Linux, where the native players'
+files and devices show up) and the threads, and measures them again after
+the last session. It prints both, along with how many of the closed note
+takers could still be reached, and exits with status 1 if any of them grew
+past what can be put down to noise. It also prints how long switching
+from one session to the next took on the application thread (closing
+the old note taker and building and starting the new one), the median
+and the slowest after the warm-up, against the SWITCH_MILLIS aimed for;
+going over it is reported but doesn't fail the soak, since only the views
+are pooled (see SessionEnginePool) and the rest is built for each session.
+*/
+public final class SessionSoak extends Application {
+
+    static final int WARM_UP = 10;
+    // how many closed note takers may still be reachable (e.g. by focus)
+    static final int MAX_LINGERING = 2;
+    static final long MAX_HEAP_GROWTH = 8 << 20;
+    static final int MAX_HANDLE_GROWTH = 4;
+    // how long a switch between sessions is meant to take at most
+    static final long SWITCH_MILLIS = 100;
+
+    private final List<WeakReference<MediaNoteTaker>> closedSessions =
+            new ArrayList();
+    private SessionEnginePool enginePool;
+    private BorderPane root;
+    private MediaNoteTaker noteTaker;
+    private int sessions, session;
+    private double dwellMillis;
+    private String media, video;
+    private long[] baseline;
+    // when the current switch started (0 for none), and the switch times
+    private long switchStart;
+    private final ArrayList<Long> switchNanos = new ArrayList();
+
+    public static void main(final String[] args) {
+        launch(args);
+    }
+
+    @Override
+    public void start(final Stage stage) {
+        sessions = 200;
+        dwellMillis = 200;
+        video = "offline-600";
+        List<String> args = getParameters().getRaw();
+        try {
+            for (int i = 0; i < args.size(); ++i) {
+                switch (args.get(i)) {
+                    case "--sessions":
+                        sessions = Integer.parseInt(args.get(++i));
+                        break;
+                    case "--dwell":
+                        dwellMillis = Double.parseDouble(args.get(++i));
+                        break;
+                    case "--media":
+                        media = args.get(++i);
+                        break;
+                    case "--video":
+                        video = args.get(++i);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(args.get(i));
+                }
+            }
+            if (sessions <= WARM_UP) {
+                throw new IllegalArgumentException("--sessions");
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException ex) {
+            System.err.println("usage: SessionSoak [--sessions <n>] "
+                    + "[--dwell <ms>] [--media <URL>] [--video <ID>]");
+            Platform.exit();
+            return;
+        }
+
+        enginePool = new SessionEnginePool(
+                YouTubeNoteTaker.OFFLINE_PLAYER_PAGE);
+        enginePool.warmUp();
+        root = new BorderPane();
+        stage.setScene(new Scene(root, 800, 600));
+        stage.setTitle("Session soak");
+        stage.show();
+        openSession();
+    }
+
+    // open the next session, and close it once it has played for a while
+    private void openSession() {
+        if (media != null && session % 2 == 0) {
+            LocalMediaNoteTaker local = new LocalMediaNoteTaker(800, 540);
+            local.setEnginePool(enginePool);
+            root.setCenter(local);
+            local.startPlaying(media,
+                    media.matches("(?i).*\\.(mp3|wav|aiff?|m4a)$"));
+            noteTaker = local;
+        } else {
+            YouTubeNoteTaker online = new YouTubeNoteTaker(800, 540);
+            online.setEnginePool(enginePool);
+            online.setPlayerPage(YouTubeNoteTaker.OFFLINE_PLAYER_PAGE);
+            root.setCenter(online);
+            online.startPlaying(video);
+            noteTaker = online;
+        }
+        if (switchStart != 0 && session > WARM_UP) {
+            switchNanos.add(System.nanoTime() - switchStart);
+        }
+        switchStart = 0;
+        after(dwellMillis, this::closeSession);
+    }
+
+    // close the current session, then open the next one (or finish)
+    private void closeSession() {
+        switchStart = System.nanoTime();
+        noteTaker.close();
+        root.setCenter(null);
+        closedSessions.add(new WeakReference(noteTaker));
+        noteTaker = null;
+        ++session;
+        if (session == WARM_UP) {
+            // let the last pulses let go of the session before measuring
+            after(500, () -> {
+                baseline = measure();
+                openSession();
+            });
+        } else if (session == sessions) {
+            after(500, this::finish);
+        } else {
+            openSession();
+        }
+    }
+
+    // print what grew between the baseline and now, and exit
+    private void finish() {
+        long[] now = measure();
+        int lingering = 0;
+        for (WeakReference<MediaNoteTaker> closed : closedSessions) {
+            if (closed.get() != null) {
+                ++lingering;
+            }
+        }
+        System.out.println("Session soak: " + sessions + " sessions of "
+                + dwellMillis + " ms");
+        System.out.printf("  %-12s %12s %12s%n", "", "after warm-up",
+                "at the end");
+        String[] names = {"heap (KB)", "descriptors", "threads"};
+        for (int i = 0; i < names.length; ++i) {
+            System.out.printf("  %-12s %12d %12d%n", names[i],
+                    i == 0 ? baseline[i] >> 10 : baseline[i],
+                    i == 0 ? now[i] >> 10 : now[i]);
+        }
+        System.out.println("  closed note takers still reachable: "
+                + lingering);
+        if (!switchNanos.isEmpty()) {
+            Collections.sort(switchNanos);
+            System.out.printf("  switching sessions: median %.1f ms, "
+                    + "slowest %.1f ms (aiming for %d ms)%n",
+                    switchNanos.get(switchNanos.size() / 2) / 1e6,
+                    switchNanos.get(switchNanos.size() - 1) / 1e6,
+                    SWITCH_MILLIS);
+        }
+
+        boolean leaked = lingering > MAX_LINGERING
+                || now[0] - baseline[0] > Math.max(MAX_HEAP_GROWTH,
+                        baseline[0] / 10)
+                || now[1] - baseline[1] > MAX_HANDLE_GROWTH
+                || now[2] - baseline[2] > MAX_HANDLE_GROWTH;
+        System.out.println(leaked ? "  LEAKED" : "  ok");
+        Platform.exit();
+        System.exit(leaked ? 1 : 0);
+    }
+
+    /*
+    return the heap in use (after collecting garbage), the open file
+    descriptors (-1 if they can't be counted) and the live threads
+    */
+    private static long[] measure() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        String[] descriptors = new File("/proc/self/fd").list();
+        return new long[] {
+            runtime.totalMemory() - runtime.freeMemory(),
+            descriptors != null ? descriptors.length : -1,
+            ManagementFactory.getThreadMXBean().getThreadCount()
+        };
+    }
+
+    // run action on the application thread after millis ms
+    private static void after(final double millis, final Runnable action) {
+        PauseTransition pause = new PauseTransition(Duration.millis(millis));
+        pause.setOnFinished((ActionEvent event) -> {
+            action.run();
+        });
+        pause.play();
+    }
+}
@@ -0,0 +1,154 @@
+package medianotetaker;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+
+
+/*
+The spectrogram view shows how the audio spectrum of the media playing
+has changed over the last few seconds (e.g. where there's speech and
+where there's silence), scrolling from right to left: each spectrum the
+player gives is a column, low frequencies at the bottom (spaced evenly in
+log frequency, as in the spectrum visualizer), colored from black (quiet)
+to white (loud).
+
+The columns are kept in an image used as a ring buffer: a new column
+overwrites the oldest one, and the image is drawn in two parts, so that
+the oldest column is at the left, instead of being shifted. The columns
+are colored (through a table of colors made once) into an array of
+pixels as the player gives each spectrum, and written into the image only
+when the visualizer draws, so a column per spectrum is kept even when
+drawing falls behind. Nothing is allocated per column.
+*/
+final class SpectrogramView extends Pane {
+
+    static final int DEFAULT_ROWS = 128;
+    // about 30 s at the spectrum visualizer's default interval
+    static final int DEFAULT_COLUMNS = 600;
+
+    // the colors of the levels, from quiet to loud, as ARGB
+    private static final int[] COLORS = makeColors();
+
+    private final int rows, columns;
+    private final Canvas canvas;
+    private final WritableImage image;
+    private final PixelFormat<IntBuffer> format;
+    // the columns, one row after another, as ARGB
+    private final int[] pixels;
+    private final Object lock = new Object();
+    // the player's bands each row starts at, from the lowest row up
+    private int[] groupStarts;
+    // how many columns have been colored, and written into the image
+    private long colored, written;
+
+    /*
+    constructor: create the view of the last columns spectra, each shown
+    in rows rows
+
+    requires: rows, columns > 0
+    */
+    SpectrogramView(final int rows, final int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        canvas = new Canvas();
+        getChildren().add(canvas);
+        setStyle("-fx-background-color:BLACK");
+        image = new WritableImage(columns, rows);
+        format = PixelFormat.getIntArgbInstance();
+        pixels = new int[rows * columns];
+        Arrays.fill(pixels, COLORS[0]);
+    }
+
+    /*
+    color the next column from magnitudes (in dB, above threshold, spaced
+    evenly in frequency); called on the JavaFX application thread
+
+    requires: magnitudes.length > 0
+              threshold < 0
+    */
+    void addColumn(final float[] magnitudes, final float threshold) {
+        if (groupStarts == null) {
+            groupStarts = SpectrumVisualizer.groupStarts(magnitudes.length,
+                    rows);
+        }
+        synchronized (lock) {
+            int column = (int) (colored % columns);
+            for (int row = 0; row < rows; ++row) {
+                float level = SpectrumVisualizer.bandLevel(magnitudes,
+                        groupStarts, row, threshold);
+                // the lowest row is at the bottom of the image
+                pixels[(rows - 1 - row) * columns + column] =
+                        COLORS[(int) (level * (COLORS.length - 1))];
+            }
+            ++colored;
+        }
+    }
+
+    /*
+    write the columns colored since the last time into the image, and
+    draw it; called on the JavaFX application thread
+    */
+    void draw() {
+        long next;
+        synchronized (lock) {
+            int count = (int) Math.min(colored - written, columns);
+            int start = (int) ((colored - count) % columns);
+            int first = Math.min(count, columns - start);
+            if (first > 0) {
+                image.getPixelWriter().setPixels(start, 0, first, rows,
+                        format, pixels, start, columns);
+            }
+            if (count > first) {
+                image.getPixelWriter().setPixels(0, 0, count - first, rows,
+                        format, pixels, 0, columns);
+            }
+            written = colored;
+            next = colored;
+        }
+
+        double w = canvas.getWidth(), h = canvas.getHeight();
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        double columnWidth = w / columns;
+        // the column to be overwritten next is the oldest
+        int oldest = (int) (next % columns);
+        g.drawImage(image, oldest, 0, columns - oldest, rows,
+                0, 0, (columns - oldest) * columnWidth, h);
+        if (oldest > 0) {
+            g.drawImage(image, 0, 0, oldest, rows,
+                    (columns - oldest) * columnWidth, 0,
+                    oldest * columnWidth, h);
+        }
+    }
+
+    @Override
+    protected void layoutChildren() {
+        canvas.setWidth(getWidth());
+        canvas.setHeight(getHeight());
+        draw();
+    }
+
+    // return the colors of the levels, from quiet (level 0) to loud
+    private static int[] makeColors() {
+        Color[] stops = {Color.BLACK, Color.NAVY, Color.PURPLE, Color.RED,
+            Color.ORANGE, Color.YELLOW, Color.WHITE};
+        int[] colors = new int[SpectrumVisualizer.COLOR_LEVELS];
+        for (int i = 0; i < colors.length; ++i) {
+            double position = (double) i / (colors.length - 1)
+                    * (stops.length - 1);
+            int stop = Math.min((int) position, stops.length - 2);
+            Color color = stops[stop].interpolate(stops[stop + 1],
+                    position - stop);
+            colors[i] = 0xff << 24
+                    | (int) Math.round(color.getRed() * 255) << 16
+                    | (int) Math.round(color.getGreen() * 255) << 8
+                    | (int) Math.round(color.getBlue() * 255);
+        }
+        return colors;
+    }
+}
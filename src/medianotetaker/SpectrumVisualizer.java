@@ -0,0 +1,317 @@
+package medianotetaker;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javafx.application.Platform;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+import javafx.scene.media.AudioSpectrumListener;
+import javafx.scene.media.MediaPlayer;
+import javafx.scene.paint.Color;
+
+
+/*
+The spectrum visualizer shows the audio spectrum of the media playing as
+bands drawn on a canvas, loud bands tall and dark red, quiet ones short
+and pale, each with a mark where it last peaked. The player's spectrum
+(spaced evenly in frequency) is grouped into the visualizer's bands spaced
+evenly in log frequency, as they're heard.
+
+The player calls the visualizer on the JavaFX application thread, which
+only copies the magnitudes (and colors them into a column of the
+spectrogram, if there is one, so that every spectrum gets its column);
+grouping, smoothing and holding the peaks is done on a thread of the
+visualizer's own, into a back buffer that's
+swapped with the front one when done. The canvas is drawn from the front
+buffer, at most once per update, with the colors looked up in a table
+made once. So it stays cheap with hundreds of bands, and a slow update
+is dropped rather than queued.
+*/
+final class SpectrumVisualizer extends Pane implements AudioSpectrumListener {
+
+    static final int DEFAULT_BANDS = 64;
+    static final double DEFAULT_INTERVAL = 0.05;
+    // magnitudes (in dB) below the threshold are left out
+    static final int THRESHOLD = -100;
+    // how much of the way to a lower level a band falls each update
+    static final float FALL = 0.35f;
+    // how long a peak is held (in updates), and how fast it falls after
+    static final int PEAK_HOLD = 10;
+    static final float PEAK_FALL = 0.02f;
+    static final int COLOR_LEVELS = 256;
+    static final Color BACKGROUND = Color.BLACK;
+    static final Color PEAK_COLOR = Color.WHITE;
+
+    // the colors of the levels, from quiet to loud
+    private static final Color[] COLORS = makeColors();
+
+    private final int bands;
+    private final double interval;
+    private final Canvas canvas;
+    private final ExecutorService worker;
+    // the player's bands each of the visualizer's bands starts at
+    private int[] groupStarts;
+    private final Object lock = new Object();
+    // the magnitudes the player last gave, and the ones being worked on
+    private float[] input, working;
+    private final AtomicBoolean processing, drawing;
+    // the smoothed levels and held peaks (0 to 1), kept by the worker
+    private final float[] levels, peaks;
+    private final int[] peakAges;
+    // what's drawn, and what the worker fills in next
+    private float[] frontLevels, frontPeaks, backLevels, backPeaks;
+    private MediaPlayer player;
+    private SpectrogramView spectrogram;
+
+    /*
+    constructor: create the visualizer showing bands bands, updated every
+    interval seconds
+
+    requires: bands > 0
+              interval > 0
+    */
+    SpectrumVisualizer(final int bands, final double interval) {
+        this.bands = bands;
+        this.interval = interval;
+        canvas = new Canvas();
+        getChildren().add(canvas);
+        setStyle("-fx-background-color:BLACK");
+        worker = Executors.newSingleThreadExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, "Spectrum visualizer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        processing = new AtomicBoolean();
+        drawing = new AtomicBoolean();
+        levels = new float[bands];
+        peaks = new float[bands];
+        peakAges = new int[bands];
+        frontLevels = new float[bands];
+        frontPeaks = new float[bands];
+        backLevels = new float[bands];
+        backPeaks = new float[bands];
+    }
+
+    /*
+    also show the spectra in spectrogram (null for none), a column per
+    update; this has to be called before attach
+    */
+    void setSpectrogram(final SpectrogramView spectrogram) {
+        this.spectrogram = spectrogram;
+    }
+
+    // return the spectrogram the spectra are also shown in, or null
+    SpectrogramView getSpectrogram() {
+        return spectrogram;
+    }
+
+    /*
+    show the spectrum of player, which is set to give it at the
+    visualizer's interval and with enough bands to group
+
+    requires: player != null
+    */
+    void attach(final MediaPlayer player) {
+        this.player = player;
+        int spectrumBands = Math.min(1024, Math.max(128, bands * 4));
+        groupStarts = groupStarts(spectrumBands, bands);
+        input = new float[spectrumBands];
+        working = new float[spectrumBands];
+        player.setAudioSpectrumThreshold(THRESHOLD);
+        player.setAudioSpectrumNumBands(spectrumBands);
+        player.setAudioSpectrumInterval(interval);
+        player.setAudioSpectrumListener(this);
+    }
+
+    /*
+    stop showing the player's spectrum, and stop the visualizer's thread;
+    the visualizer isn't used after this
+    */
+    void close() {
+        if (player != null
+                && player.getAudioSpectrumListener() == this) {
+            player.setAudioSpectrumListener(null);
+        }
+        player = null;
+        worker.shutdownNow();
+    }
+
+    /*
+    take the magnitudes of the spectrum the player has just given, and
+    color them into the next column of the spectrogram
+    */
+    @Override
+    public void spectrumDataUpdate(final double timestamp,
+            final double duration, final float[] magnitudes,
+            final float[] phases) {
+        if (spectrogram != null) {
+            spectrogram.addColumn(magnitudes, THRESHOLD);
+        }
+        synchronized (lock) {
+            System.arraycopy(magnitudes, 0, input, 0,
+                    Math.min(magnitudes.length, input.length));
+        }
+        if (processing.compareAndSet(false, true)) {
+            worker.execute(this::process);
+        }
+    }
+
+    /*
+    group, smooth and hold the peaks of the magnitudes last given into the
+    back buffer, swap it to the front and have it drawn; run on the
+    visualizer's thread
+    */
+    private void process() {
+        synchronized (lock) {
+            float[] swap = working;
+            working = input;
+            input = swap;
+            processing.set(false);
+        }
+        for (int band = 0; band < bands; ++band) {
+            float level = bandLevel(working, groupStarts, band, THRESHOLD);
+            levels[band] = level >= levels[band] ? level
+                    : levels[band] + (level - levels[band]) * FALL;
+            if (levels[band] >= peaks[band]) {
+                peaks[band] = levels[band];
+                peakAges[band] = 0;
+            } else if (++peakAges[band] > PEAK_HOLD) {
+                peaks[band] = Math.max(levels[band],
+                        peaks[band] - PEAK_FALL);
+            }
+        }
+        // only the worker touches the back buffer, until it's swapped
+        System.arraycopy(levels, 0, backLevels, 0, bands);
+        System.arraycopy(peaks, 0, backPeaks, 0, bands);
+        synchronized (lock) {
+            float[] swap = frontLevels;
+            frontLevels = backLevels;
+            backLevels = swap;
+            swap = frontPeaks;
+            frontPeaks = backPeaks;
+            backPeaks = swap;
+        }
+        if (drawing.compareAndSet(false, true)) {
+            Platform.runLater(this::draw);
+        }
+    }
+
+    // draw the bands in the front buffer on the canvas
+    private void draw() {
+        drawing.set(false);
+        if (spectrogram != null) {
+            spectrogram.draw();
+        }
+        double w = canvas.getWidth(), h = canvas.getHeight();
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        g.setFill(BACKGROUND);
+        g.fillRect(0, 0, w, h);
+        double bandWidth = w / bands;
+        double gap = bandWidth > 4 ? Math.min(3, bandWidth / 4) : 0;
+        double peakHeight = Math.max(1, h / 100);
+        synchronized (lock) {
+            for (int band = 0; band < bands; ++band) {
+                double x = band * bandWidth;
+                double barHeight = frontLevels[band] * h;
+                g.setFill(COLORS[(int) (frontLevels[band]
+                        * (COLOR_LEVELS - 1))]);
+                g.fillRect(x, (h - barHeight) / 2, bandWidth - gap,
+                        barHeight);
+                if (frontPeaks[band] > 0) {
+                    double peakY = (h - frontPeaks[band] * h) / 2;
+                    g.setFill(PEAK_COLOR);
+                    g.fillRect(x, peakY, bandWidth - gap, peakHeight);
+                    g.fillRect(x, h - peakY - peakHeight, bandWidth - gap,
+                            peakHeight);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void layoutChildren() {
+        canvas.setWidth(getWidth());
+        canvas.setHeight(getHeight());
+        draw();
+    }
+
+    /*
+    return the first of the spectrumBands bands of the player's spectrum
+    that goes into each of the visualizer's bands, spacing them evenly in
+    log frequency; at low frequencies, where that would put several of the
+    visualizer's bands in one band of the spectrum (as it's spaced evenly
+    in frequency), they take a band of the spectrum each instead
+
+    requires: spectrumBands, bands > 0
+    */
+    static int[] groupStarts(final int spectrumBands, final int bands) {
+        int[] starts = new int[bands];
+        int previous = 0;
+        for (int band = 0; band < bands; ++band) {
+            int start = Math.max(previous + 1,
+                    (int) Math.pow(spectrumBands, (double) band / bands));
+            // leave a band of the spectrum for each band after this one
+            start = Math.min(start, spectrumBands - (bands - band));
+            starts[band] = Math.max(0, Math.min(spectrumBands - 1, start));
+            previous = starts[band];
+        }
+        return starts;
+    }
+
+    /*
+    return how loud (0 to 1) band of the bands starting at groupStarts
+    (see groupStarts) is in magnitudes: the loudest magnitude in it, from
+    threshold up to 0 dB
+
+    requires: groupStarts = groupStarts(magnitudes.length, bands)
+              0 <= band < bands
+              threshold < 0
+    */
+    static float bandLevel(final float[] magnitudes, final int[] groupStarts,
+            final int band, final float threshold) {
+        int start = groupStarts[band];
+        int end = band + 1 < groupStarts.length ? groupStarts[band + 1]
+                : magnitudes.length;
+        float loudest = threshold;
+        for (int i = start; i < Math.max(end, start + 1); ++i) {
+            loudest = Math.max(loudest, magnitudes[i]);
+        }
+        return Math.max(0, Math.min(1, (loudest - threshold) / -threshold));
+    }
+
+    /*
+    return the colors of COLOR_LEVELS levels, from quiet (level 0) to loud,
+    in the bands of loudness the note taker has always colored them by
+    */
+    private static Color[] makeColors() {
+        Color[] colors = new Color[COLOR_LEVELS];
+        for (int i = 0; i < COLOR_LEVELS; ++i) {
+            // how far below 0 dB the level is
+            double m = (1 - (double) i / (COLOR_LEVELS - 1)) * -THRESHOLD;
+            if (m <= 40) {
+                colors[i] = Color.DARKRED;
+            } else if (m <= 45) {
+                colors[i] = Color.RED;
+            } else if (m <= 50) {
+                colors[i] = Color.PURPLE;
+            } else if (m <= 55) {
+                colors[i] = Color.BLUE;
+            } else if (m <= 60) {
+                colors[i] = Color.PURPLE;
+            } else if (m <= 65) {
+                colors[i] = Color.DEEPPINK;
+            } else if (m <= 70) {
+                colors[i] = Color.TOMATO;
+            } else if (m <= 75) {
+                colors[i] = Color.LIGHTCORAL;
+            } else if (m <= 80) {
+                colors[i] = Color.PINK;
+            } else {
+                colors[i] = Color.BISQUE;
+            }
+        }
+        return colors;
+    }
+}
@@ -5,28 +5,75 @@ import javafx.util.Duration;
 
 public class TimeFormatter {
 
+    /* the most chars formatSeconds writes: the 16 digits of the hours in
+       Long.MAX_VALUE seconds (which is also what an indefinite duration
+       gives), and ":mm:ss" */
+    public static final int MAX_LENGTH = 22;
+
     /* 
     format the argument time in the form of
     hours : minutes : seconds 
+    (the hours left out if there are none)
     
     requires: time != null
      */
     public static String formatTime(final Duration time) {
-        Double timeInMin = time.toMinutes();
-        int numOfMin = (int) (floor(timeInMin));
-        int numOfHours = 0;
-        if (numOfMin >= 60) {
-            numOfHours = (int) (timeInMin / 60);
+        char[] buffer = new char[MAX_LENGTH];
+        return new String(buffer, 0,
+                formatSeconds(wholeSeconds(time), buffer, 0));
+    }
+
+    /* return the whole seconds in time (0 if it's negative or unknown,
+       Long.MAX_VALUE if it's indefinite) */
+    public static long wholeSeconds(final Duration time) {
+        double millis = time.toMillis();
+        return millis > 0 ? (long) floor(millis / 1000) : 0;
+    }
+
+    /*
+    write seconds into buffer from offset on, in the form formatTime gives
+    it; return how many chars were written (nothing is allocated, so this
+    can be called on every tick of the player)
+    
+    requires: seconds >= 0
+              buffer has room for MAX_LENGTH chars from offset on
+     */
+    public static int formatSeconds(final long seconds, final char[] buffer,
+            final int offset) {
+        long hours = seconds / 3600;
+        int i = offset;
+        if (hours != 0) {
+            if (hours < 10) {
+                buffer[i++] = '0';
+            }
+            int end = i + digitCount(hours);
+            for (int j = end - 1; j >= i; --j, hours /= 10) {
+                buffer[j] = (char) ('0' + hours % 10);
+            }
+            i = end;
+            buffer[i++] = ':';
         }
-        int numOfSec = (int) ((timeInMin - numOfMin) * 60);
+        i = writeTwoDigits((int) (seconds / 60 % 60), buffer, i);
+        buffer[i++] = ':';
+        i = writeTwoDigits((int) (seconds % 60), buffer, i);
+        return i - offset;
+    }
+
+    // write the two digits of n into buffer at i; return the index after
+    private static int writeTwoDigits(final int n, final char[] buffer,
+            final int i) {
+        buffer[i] = (char) ('0' + n / 10);
+        buffer[i + 1] = (char) ('0' + n % 10);
+        return i + 2;
+    }
 
-        String formattedTime = "";
-        if (numOfHours != 0) {
-            formattedTime += formatTimeDigits(numOfHours) + ":";
+    // return how many digits n > 0 has
+    private static int digitCount(long n) {
+        int count = 0;
+        for (; n > 0; n /= 10) {
+            ++count;
         }
-        formattedTime += formatTimeDigits(numOfMin) + ":";
-        formattedTime += formatTimeDigits(numOfSec);
-        return formattedTime;
+        return count;
     }
 
     /* 
@@ -41,4 +88,74 @@ public class TimeFormatter {
         }
         return "" + digits;
     }
+
+    /*
+    return the time in ms written in s from index from up to index to, in
+    the form [hours:]minutes:seconds, optionally followed by '.' or ','
+    and up to three digits of fractions of a second (e.g. 1:02:03.5,
+    02:03, 00:02:03,500); return -1 if it isn't such a time (nothing is
+    allocated, so this can be called on every line of a large file)
+    
+    requires: s != null
+              0 <= from <= to <= s.length()
+     */
+    public static long parseMillis(final CharSequence s, final int from,
+            final int to) {
+        // the fields seen so far shift up into minutes and hours at a ':'
+        long hours = 0, minutes = 0, field = 0;
+        int count = 0, digits = 0, i = from;
+        for (; i < to; ++i) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 9) {
+                    return -1;
+                }
+                field = field * 10 + (c - '0');
+            } else if (c == ':' && digits > 0 && count < 2) {
+                hours = minutes;
+                minutes = field;
+                field = 0;
+                ++count;
+                digits = 0;
+            } else {
+                break;
+            }
+        }
+        if (count == 0 || digits != 2) {
+            return -1;
+        }
+        long millis = 0;
+        if (i < to && (s.charAt(i) == '.' || s.charAt(i) == ',')) {
+            int scale = 100;
+            for (++i; i < to && scale > 0; ++i, scale /= 10) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                millis += (c - '0') * scale;
+            }
+            if (scale == 100) {
+                return -1;
+            }
+        }
+        if (i != to) {
+            return -1;
+        }
+        if (field >= 60 || (count == 2 && minutes >= 60)) {
+            return -1;
+        }
+        return ((hours * 60 + minutes) * 60 + field) * 1000 + millis;
+    }
+
+    /*
+    return the time written in s as parseMillis reads it (surrounding
+    whitespace aside), or null if it isn't such a time
+    
+    requires: s != null
+     */
+    public static Duration parseTime(final String s) {
+        String trimmed = s.trim();
+        long millis = parseMillis(trimmed, 0, trimmed.length());
+        return millis < 0 ? null : Duration.millis(millis);
+    }
 }
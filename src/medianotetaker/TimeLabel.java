@@ -7,25 +7,44 @@ public class TimeLabel extends Label {
 
     boolean isOverallLabel;
     String totalTime;
+    /* the text is written into text, and only made into a String when the
+       second shown changes, so updating the label on every tick of the
+       player makes no garbage in between */
+    private final char[] text;
+    private long shownSeconds;
+    private boolean shownOverall;
 
     // constructor
     TimeLabel(final Duration totalTime) {
         this.totalTime = TimeFormatter.formatTime(totalTime);
         isOverallLabel = true;
+        text = new char[TimeFormatter.MAX_LENGTH + 3
+                + this.totalTime.length()];
+        shownSeconds = -1;
     }
 
     /* 
-    return string that contains the formatted time and also
-    update the text of the time label (the implicit object) with currentTime
+    update the text of the time label (the implicit object) with
+    currentTime, if the second it shows has changed
     
     requires: currentTime != null
      */
     void update(final Duration currentTime) {
+        long seconds = TimeFormatter.wholeSeconds(currentTime);
+        if (seconds == shownSeconds && isOverallLabel == shownOverall) {
+            return;
+        }
+        shownSeconds = seconds;
+        shownOverall = isOverallLabel;
+        int length = TimeFormatter.formatSeconds(seconds, text, 0);
         if (isOverallLabel) {
-            setText(TimeFormatter.formatTime(currentTime) + " / " + totalTime);
-        } else {
-            setText(TimeFormatter.formatTime(currentTime));
+            text[length++] = ' ';
+            text[length++] = '/';
+            text[length++] = ' ';
+            totalTime.getChars(0, totalTime.length(), text, length);
+            length += totalTime.length();
         }
+        setText(new String(text, 0, length));
     }
 
     /* 
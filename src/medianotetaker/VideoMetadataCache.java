@@ -0,0 +1,137 @@
+package medianotetaker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+
+
+/*
+The video metadata cache remembers what the players of online videos have
+told about them (for now, how long each video is), so a session on a
+video that has been played before can lay its notes out before its player
+has loaded. It's a small properties file next to the progress catalog,
+mapping video IDs to durations in ms; it's read when it's first used and
+replaced whole by an atomic file write whenever a duration changes. Only
+the MAX_ENTRIES videos last put in are kept.
+
+The cache can be used from any thread.
+*/
+final class VideoMetadataCache {
+
+    static final String FILE_NAME = "videos.properties";
+    static final int MAX_ENTRIES = 1000;
+
+    private final File file;
+    private final Properties durations;
+    private boolean loaded;
+    // when the newest entry was put in (kept increasing, so none tie)
+    private long newestStamp;
+
+    /*
+    constructor: create the cache stored in file; nothing is read until
+    the cache is first used
+
+    requires: file != null
+    */
+    VideoMetadataCache(final File file) {
+        this.file = file;
+        durations = new Properties();
+    }
+
+    // return the file the cache of the current user is stored in
+    static File defaultFile() {
+        return new File(ProgressCatalog.defaultFile().getParentFile(),
+                FILE_NAME);
+    }
+
+    /*
+    return how long the video with videoID is in ms, or -1 if it isn't
+    known; a cache that can't be read is taken as empty
+    */
+    synchronized long getDurationMillis(final String videoID) {
+        load();
+        String value = durations.getProperty(videoID);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.substring(value.indexOf(',') + 1));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /*
+    remember that the video with videoID is durationMillis long, storing
+    the cache if that's new
+
+    requires: videoID != null
+              durationMillis > 0
+    */
+    synchronized void putDurationMillis(final String videoID,
+            final long durationMillis) throws IOException {
+        if (getDurationMillis(videoID) == durationMillis) {
+            return;
+        }
+        // each value is when it was put in, so the oldest can be dropped
+        newestStamp = Math.max(System.currentTimeMillis(), newestStamp + 1);
+        durations.setProperty(videoID, newestStamp + "," + durationMillis);
+        while (durations.size() > MAX_ENTRIES) {
+            durations.remove(oldest());
+        }
+        store();
+    }
+
+    // return the video ID of the entry put in the longest ago
+    private String oldest() {
+        String oldest = null;
+        long oldestTime = Long.MAX_VALUE;
+        for (Map.Entry<Object, Object> entry : durations.entrySet()) {
+            long time = stampOf((String) entry.getValue());
+            if (time < oldestTime) {
+                oldestTime = time;
+                oldest = (String) entry.getKey();
+            }
+        }
+        return oldest;
+    }
+
+    // return when the entry with value was put in (0 if it doesn't say)
+    private static long stampOf(final String value) {
+        try {
+            return Long.parseLong(value.substring(0,
+                    Math.max(0, value.indexOf(','))));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    // read the cache from its file, if it hasn't been yet
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            durations.load(in);
+        } catch (IOException | IllegalArgumentException ex) {
+            durations.clear();
+        }
+        for (Object value : durations.values()) {
+            newestStamp = Math.max(newestStamp, stampOf((String) value));
+        }
+    }
+
+    // write the cache to its file
+    private void store() throws IOException {
+        AtomicFile.write(file, (OutputStream out) -> durations.store(out,
+                "video ID = time put in,duration (ms)"));
+    }
+}
@@ -0,0 +1,498 @@
+package medianotetaker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+
+/*
+Waveform peaks are the lowest and highest samples (over all channels) of
+each bucket of frames of an audio file, so the waveform of an hour of
+audio can be drawn at any width without reading the file again. They're
+kept at several resolutions: level 0 has a bucket every BUCKET_FRAMES
+frames, and each level after it a bucket for every LEVEL_FACTOR buckets
+of the level before, down to a level of at most MIN_BUCKETS buckets; a
+waveform is drawn from the coarsest level that still has a bucket per
+pixel. A peak is a sample scaled to a byte (-127 to 127).
+
+The peaks of an uncompressed WAV or AIFF file are computed from its
+samples in place: the file's sample data is split into chunks (on bucket
+boundaries), which are gone through in parallel on every core, each read
+a READ_BYTES piece at a time into a buffer of its own. Any other file
+that the Java sound system can decode (e.g. MP3, if a decoder for it is
+installed) is decoded and gone through from start to end instead.
+*/
+final class WaveformPeaks {
+
+    static final int BUCKET_FRAMES = 256;
+    static final int LEVEL_FACTOR = 4;
+    static final int MIN_BUCKETS = 1024;
+    // about how many bytes of samples a chunk reads at once
+    static final int READ_BYTES = 1 << 20;
+    // the start of a file of peaks, and the version of its layout
+    static final int MAGIC = 0x4d4e5450;
+    static final int VERSION = 1;
+    // the magic, the version, the frame rate, the frames and the levels
+    static final int HEADER_BYTES = 4 + 4 + 4 + 8 + 4;
+
+    private final float frameRate;
+    private final long frames;
+    private final byte[][] mins, maxs;
+
+    // constructor: peaks of frames frames at frameRate, made into levels
+    private WaveformPeaks(final float frameRate, final long frames,
+            final byte[] mins, final byte[] maxs) {
+        this.frameRate = frameRate;
+        this.frames = frames;
+        ArrayList<byte[]> minLevels = new ArrayList();
+        ArrayList<byte[]> maxLevels = new ArrayList();
+        byte[] levelMins = mins, levelMaxs = maxs;
+        minLevels.add(levelMins);
+        maxLevels.add(levelMaxs);
+        while (levelMins.length > MIN_BUCKETS) {
+            int count = (levelMins.length + LEVEL_FACTOR - 1) / LEVEL_FACTOR;
+            byte[] coarserMins = new byte[count], coarserMaxs = new byte[count];
+            for (int i = 0; i < count; ++i) {
+                byte low = Byte.MAX_VALUE, high = Byte.MIN_VALUE;
+                int end = Math.min(levelMins.length, (i + 1) * LEVEL_FACTOR);
+                for (int j = i * LEVEL_FACTOR; j < end; ++j) {
+                    low = (byte) Math.min(low, levelMins[j]);
+                    high = (byte) Math.max(high, levelMaxs[j]);
+                }
+                coarserMins[i] = low;
+                coarserMaxs[i] = high;
+            }
+            levelMins = coarserMins;
+            levelMaxs = coarserMaxs;
+            minLevels.add(levelMins);
+            maxLevels.add(levelMaxs);
+        }
+        this.mins = minLevels.toArray(new byte[0][]);
+        this.maxs = maxLevels.toArray(new byte[0][]);
+    }
+
+    // constructor: peaks with the levels read from a file
+    private WaveformPeaks(final float frameRate, final long frames,
+            final byte[][] mins, final byte[][] maxs) {
+        this.frameRate = frameRate;
+        this.frames = frames;
+        this.mins = mins;
+        this.maxs = maxs;
+    }
+
+    // return how many frames of the audio there are a second
+    float getFrameRate() {
+        return frameRate;
+    }
+
+    // return how many frames long the audio is
+    long getFrames() {
+        return frames;
+    }
+
+    // return how many levels of buckets there are
+    int getLevels() {
+        return mins.length;
+    }
+
+    // return how many frames each bucket of level has
+    long getBucketFrames(final int level) {
+        long bucketFrames = BUCKET_FRAMES;
+        for (int i = 0; i < level; ++i) {
+            bucketFrames *= LEVEL_FACTOR;
+        }
+        return bucketFrames;
+    }
+
+    /*
+    return the coarsest level whose buckets have at most framesPerPixel
+    frames (level 0 if none have)
+    */
+    int levelFor(final double framesPerPixel) {
+        int level = 0;
+        while (level + 1 < mins.length
+                && getBucketFrames(level + 1) <= framesPerPixel) {
+            ++level;
+        }
+        return level;
+    }
+
+    // return the lowest peaks of the buckets of level (not to be changed)
+    byte[] getMins(final int level) {
+        return mins[level];
+    }
+
+    // return the highest peaks of the buckets of level (not to be changed)
+    byte[] getMaxs(final int level) {
+        return maxs[level];
+    }
+
+    /*
+    compute and return the peaks of the audio in file, or return null if
+    cancelled is set before they're done
+
+    requires: file != null
+    */
+    static WaveformPeaks compute(final File file,
+            final AtomicBoolean cancelled)
+            throws IOException, UnsupportedAudioFileException {
+        AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(file);
+        AudioFormat format = fileFormat.getFormat();
+        long[] data = null;
+        if (isPlainPcm(format)) {
+            if (fileFormat.getType() == AudioFileFormat.Type.WAVE) {
+                data = findChunk(file, false, "data");
+            } else if (fileFormat.getType() == AudioFileFormat.Type.AIFF
+                    || fileFormat.getType() == AudioFileFormat.Type.AIFC) {
+                data = findChunk(file, true, "SSND");
+            }
+        }
+        if (data == null) {
+            return decode(file, cancelled);
+        }
+        return computeInPlace(file, format, data[0], data[1], cancelled);
+    }
+
+    /*
+    return whether format is uncompressed samples that can be read in
+    place: 8 to 32 bits of integers, or 32 bits of floating point
+    */
+    private static boolean isPlainPcm(final AudioFormat format) {
+        AudioFormat.Encoding encoding = format.getEncoding();
+        int bits = format.getSampleSizeInBits();
+        if (encoding.equals(AudioFormat.Encoding.PCM_FLOAT)) {
+            return bits == 32;
+        }
+        return (encoding.equals(AudioFormat.Encoding.PCM_SIGNED)
+                || encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED))
+                && bits % 8 == 0 && bits >= 8 && bits <= 32
+                && format.getFrameSize() == bits / 8 * format.getChannels();
+    }
+
+    /*
+    return where the sample data of the WAV (or, if bigEndian, AIFF) file
+    starts and how many bytes long it is, found in the chunk with id, or
+    null if there's no such chunk
+    */
+    private static long[] findChunk(final File file, final boolean bigEndian,
+            final String id) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(16);
+            header.order(bigEndian ? ByteOrder.BIG_ENDIAN
+                    : ByteOrder.LITTLE_ENDIAN);
+            // the chunks come after "RIFF"/"FORM", a size and a type
+            long position = 12;
+            while (position + 8 <= size) {
+                header.clear();
+                channel.read(header, position);
+                String chunkID = new String(header.array(), 0, 4,
+                        java.nio.charset.StandardCharsets.US_ASCII);
+                long chunkSize = header.getInt(4) & 0xffffffffL;
+                if (chunkID.equals(id)) {
+                    long start = position + 8, length = chunkSize;
+                    if (bigEndian) {
+                        // SSND has an offset and a block size first
+                        long offset = header.getInt(8) & 0xffffffffL;
+                        start += 8 + offset;
+                        length -= 8 + offset;
+                    }
+                    // a file still being written may not say its length
+                    length = Math.min(length, size - start);
+                    return length > 0 ? new long[] {start, length} : null;
+                }
+                // chunks are padded to an even length
+                position += 8 + chunkSize + (chunkSize & 1);
+            }
+            return null;
+        }
+    }
+
+    /*
+    compute the peaks of the length bytes of samples in format starting
+    at start in file, in parallel chunks of buckets
+    */
+    private static WaveformPeaks computeInPlace(final File file,
+            final AudioFormat format, final long start, final long length,
+            final AtomicBoolean cancelled) throws IOException {
+        int frameSize = format.getFrameSize();
+        long frames = length / frameSize;
+        int buckets = (int) ((frames + BUCKET_FRAMES - 1) / BUCKET_FRAMES);
+        byte[] mins = new byte[buckets], maxs = new byte[buckets];
+        int tasks = Runtime.getRuntime().availableProcessors() * 4;
+        int chunkBuckets = Math.max(1, (buckets + tasks - 1) / tasks);
+        int chunks = (buckets + chunkBuckets - 1) / chunkBuckets;
+        int bucketBytes = BUCKET_FRAMES * frameSize;
+        int readBuckets = Math.max(1, Math.min(chunkBuckets,
+                READ_BYTES / bucketBytes));
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            IntStream.range(0, chunks).parallel().forEach((int chunk) -> {
+                ByteBuffer samples = ByteBuffer.allocate(
+                        readBuckets * bucketBytes);
+                samples.order(format.isBigEndian() ? ByteOrder.BIG_ENDIAN
+                        : ByteOrder.LITTLE_ENDIAN);
+                int to = Math.min(buckets, (chunk + 1) * chunkBuckets);
+                for (int from = chunk * chunkBuckets; from < to
+                        && !cancelled.get(); from += readBuckets) {
+                    int pieceTo = Math.min(to, from + readBuckets);
+                    long firstFrame = (long) from * BUCKET_FRAMES;
+                    long lastFrame = Math.min(frames,
+                            (long) pieceTo * BUCKET_FRAMES);
+                    samples.clear();
+                    samples.limit((int) ((lastFrame - firstFrame)
+                            * frameSize));
+                    readFully(channel, samples,
+                            start + firstFrame * frameSize);
+                    for (int bucket = from; bucket < pieceTo; ++bucket) {
+                        int first = (bucket - from) * bucketBytes;
+                        int end = Math.min(samples.limit(),
+                                first + bucketBytes);
+                        findPeaks(samples, first, end, format, mins, maxs,
+                                bucket);
+                    }
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        if (cancelled.get()) {
+            return null;
+        }
+        return new WaveformPeaks(format.getFrameRate(), frames, mins, maxs);
+    }
+
+    // fill buffer (up to its limit) from channel, starting at position
+    private static void readFully(final FileChannel channel,
+            final ByteBuffer buffer, final long position) {
+        try {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer,
+                        position + buffer.position());
+                if (read < 0) {
+                    throw new EOFException(
+                            "The samples end before their chunk does");
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /*
+    decode file from start to end (into 16 bit samples, if it's
+    compressed) and compute its peaks
+    */
+    private static WaveformPeaks decode(final File file,
+            final AtomicBoolean cancelled)
+            throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream encoded = AudioSystem.getAudioInputStream(
+                file)) {
+            AudioFormat format = encoded.getFormat();
+            AudioInputStream stream = encoded;
+            if (!isPlainPcm(format)) {
+                format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
+                        format.getSampleRate(), 16, format.getChannels(),
+                        format.getChannels() * 2, format.getSampleRate(),
+                        false);
+                stream = AudioSystem.getAudioInputStream(format, encoded);
+            }
+            int bucketBytes = BUCKET_FRAMES * format.getFrameSize();
+            byte[] buffer = new byte[bucketBytes * 64];
+            ByteBuffer samples = ByteBuffer.wrap(buffer);
+            samples.order(format.isBigEndian() ? ByteOrder.BIG_ENDIAN
+                    : ByteOrder.LITTLE_ENDIAN);
+            byte[] mins = new byte[MIN_BUCKETS], maxs = new byte[MIN_BUCKETS];
+            int buckets = 0;
+            long bytes = 0;
+            int filled = 0;
+            while (!cancelled.get()) {
+                int read = stream.read(buffer, filled,
+                        buffer.length - filled);
+                if (read > 0) {
+                    filled += read;
+                    bytes += read;
+                }
+                boolean ended = read < 0;
+                // go through the whole buckets read (or, at the end, all)
+                int usable = ended ? filled
+                        : filled - filled % bucketBytes;
+                usable -= usable % format.getFrameSize();
+                for (int first = 0; first < usable; first += bucketBytes) {
+                    if (buckets == mins.length) {
+                        mins = Arrays.copyOf(mins, buckets * 2);
+                        maxs = Arrays.copyOf(maxs, buckets * 2);
+                    }
+                    findPeaks(samples, first,
+                            Math.min(usable, first + bucketBytes), format,
+                            mins, maxs, buckets++);
+                }
+                System.arraycopy(buffer, usable, buffer, 0,
+                        filled - usable);
+                filled -= usable;
+                if (ended) {
+                    break;
+                }
+            }
+            if (cancelled.get()) {
+                return null;
+            }
+            return new WaveformPeaks(format.getFrameRate(),
+                    bytes / format.getFrameSize(),
+                    Arrays.copyOf(mins, buckets),
+                    Arrays.copyOf(maxs, buckets));
+        }
+    }
+
+    /*
+    store the lowest and highest samples in format of samples from index
+    first up to index end, scaled to bytes, into mins and maxs at bucket
+    */
+    private static void findPeaks(final ByteBuffer samples, final int first,
+            final int end, final AudioFormat format, final byte[] mins,
+            final byte[] maxs, final int bucket) {
+        int bytes = format.getSampleSizeInBits() / 8;
+        boolean floating = format.getEncoding().equals(
+                AudioFormat.Encoding.PCM_FLOAT);
+        boolean unsigned = format.getEncoding().equals(
+                AudioFormat.Encoding.PCM_UNSIGNED);
+        boolean bigEndian = format.isBigEndian();
+        float low = 1, high = -1;
+        for (int i = first; i + bytes <= end; i += bytes) {
+            float sample;
+            switch (bytes) {
+                case 1:
+                    sample = unsigned ? ((samples.get(i) & 0xff) - 128) / 128f
+                            : samples.get(i) / 128f;
+                    break;
+                case 2:
+                    sample = samples.getShort(i) / 32768f;
+                    break;
+                case 3:
+                    int b0 = samples.get(bigEndian ? i + 2 : i) & 0xff;
+                    int b1 = samples.get(i + 1) & 0xff;
+                    int b2 = samples.get(bigEndian ? i : i + 2);
+                    sample = (b2 << 16 | b1 << 8 | b0) / 8388608f;
+                    break;
+                default:
+                    sample = floating ? samples.getFloat(i)
+                            : samples.getInt(i) / 2147483648f;
+                    break;
+            }
+            low = Math.min(low, sample);
+            high = Math.max(high, sample);
+        }
+        if (low > high) {
+            low = high = 0;
+        }
+        mins[bucket] = toPeak(low);
+        maxs[bucket] = toPeak(high);
+    }
+
+    // return sample (-1 to 1) scaled to a byte
+    private static byte toPeak(final float sample) {
+        return (byte) Math.round(Math.max(-1, Math.min(1, sample)) * 127);
+    }
+
+    // write the peaks to out
+    void write(final OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(
+                new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeFloat(frameRate);
+        data.writeLong(frames);
+        data.writeInt(mins.length);
+        for (int level = 0; level < mins.length; ++level) {
+            data.writeInt(mins[level].length);
+            data.write(mins[level]);
+            data.write(maxs[level]);
+        }
+        data.flush();
+    }
+
+    /*
+    read and return peaks written by write from in, which holds length
+    bytes, or null if in doesn't hold peaks of this version whose levels
+    have as many buckets as their frames make and fill in exactly
+
+    requires: in != null
+    */
+    static WaveformPeaks read(final InputStream in, final long length)
+            throws IOException {
+        DataInputStream data = new DataInputStream(
+                new BufferedInputStream(in));
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            return null;
+        }
+        float frameRate = data.readFloat();
+        long frames = data.readLong();
+        int levels = data.readInt();
+        long[] counts = bucketCounts(frames);
+        if (counts == null || levels != counts.length
+                || length != HEADER_BYTES + levelBytes(counts)) {
+            return null;
+        }
+        byte[][] mins = new byte[levels][], maxs = new byte[levels][];
+        for (int level = 0; level < levels; ++level) {
+            int count = data.readInt();
+            if (count != counts[level]) {
+                return null;
+            }
+            mins[level] = new byte[count];
+            maxs[level] = new byte[count];
+            data.readFully(mins[level]);
+            data.readFully(maxs[level]);
+        }
+        return new WaveformPeaks(frameRate, frames, mins, maxs);
+    }
+
+    /*
+    return how many buckets each level of the peaks of frames frames has,
+    or null if frames is negative or too many for the buckets of level 0
+    to be counted in an int
+    */
+    private static long[] bucketCounts(final long frames) {
+        long count = (frames + BUCKET_FRAMES - 1) / BUCKET_FRAMES;
+        if (frames < 0 || count > Integer.MAX_VALUE) {
+            return null;
+        }
+        long[] counts = {count};
+        while (count > MIN_BUCKETS) {
+            count = (count + LEVEL_FACTOR - 1) / LEVEL_FACTOR;
+            counts = Arrays.copyOf(counts, counts.length + 1);
+            counts[counts.length - 1] = count;
+        }
+        return counts;
+    }
+
+    // return how many bytes write takes for levels of counts buckets
+    private static long levelBytes(final long[] counts) {
+        long bytes = 0;
+        for (long count : counts) {
+            bytes += 4 + 2 * count;
+        }
+        return bytes;
+    }
+}
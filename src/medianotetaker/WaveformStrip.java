@@ -0,0 +1,111 @@
+package medianotetaker;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+
+
+/*
+The waveform strip shows the waveform of the whole media (or of the part
+of it the note timeline above it is zoomed in on) under the timeline, so
+its structure (e.g. the pauses between the parts of a lecture) can be
+seen without going through it. Each pixel column is drawn as a line from
+the lowest to the highest peak of the frames it covers, taken from the
+coarsest level of the waveform peaks that still has a bucket per pixel,
+so drawing takes time depending on the width only. The strip is empty
+until its peaks are set.
+*/
+final class WaveformStrip extends Region {
+
+    static final double STRIP_HEIGHT = 32;
+    static final Color BACKGROUND = Color.IVORY;
+    static final Color WAVEFORM = Color.DARKSLATEGRAY;
+
+    private final Canvas canvas;
+    private WaveformPeaks peaks;
+    // the part of the media shown, as fractions of its length
+    private double viewFrom, viewTo;
+
+    // constructor: create the empty strip, showing the whole media
+    WaveformStrip() {
+        canvas = new Canvas();
+        getChildren().add(canvas);
+        viewFrom = 0;
+        viewTo = 1;
+    }
+
+    // show peaks (null for none)
+    void setPeaks(final WaveformPeaks peaks) {
+        this.peaks = peaks;
+        // the strip only takes up room once it has something to show
+        requestLayout();
+        draw();
+    }
+
+    /*
+    show the part of the media from from to to, as fractions of its length
+
+    requires: 0 <= from < to <= 1
+    */
+    void setView(final double from, final double to) {
+        viewFrom = from;
+        viewTo = to;
+        draw();
+    }
+
+    // draw the part of the waveform shown
+    private void draw() {
+        double w = canvas.getWidth(), h = canvas.getHeight();
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        g.setFill(BACKGROUND);
+        g.fillRect(0, 0, w, h);
+        if (peaks == null || peaks.getFrames() == 0 || w < 1) {
+            return;
+        }
+        double framesPerPixel = peaks.getFrames() * (viewTo - viewFrom) / w;
+        int level = peaks.levelFor(framesPerPixel);
+        long bucketFrames = peaks.getBucketFrames(level);
+        byte[] mins = peaks.getMins(level), maxs = peaks.getMaxs(level);
+        double firstFrame = peaks.getFrames() * viewFrom;
+        double middle = h / 2, scale = (h - 2) / 2 / 127;
+        g.setFill(WAVEFORM);
+        for (int x = 0; x < (int) w; ++x) {
+            int from = (int) ((firstFrame + x * framesPerPixel)
+                    / bucketFrames);
+            int to = (int) Math.ceil((firstFrame + (x + 1) * framesPerPixel)
+                    / bucketFrames);
+            to = Math.min(mins.length, Math.max(to, from + 1));
+            int low = Byte.MAX_VALUE, high = Byte.MIN_VALUE;
+            for (int i = from; i < to; ++i) {
+                low = Math.min(low, mins[i]);
+                high = Math.max(high, maxs[i]);
+            }
+            if (low <= high) {
+                double top = middle - high * scale;
+                g.fillRect(x, top, 1,
+                        Math.max(1, (high - low) * scale));
+            }
+        }
+    }
+
+    @Override
+    protected double computePrefHeight(final double width) {
+        return peaks == null ? 0 : STRIP_HEIGHT;
+    }
+
+    @Override
+    protected double computeMinHeight(final double width) {
+        return computePrefHeight(width);
+    }
+
+    @Override
+    protected void layoutChildren() {
+        if (canvas.getWidth() != getWidth()
+                || canvas.getHeight() != getHeight()) {
+            canvas.setWidth(getWidth());
+            canvas.setHeight(getHeight());
+            draw();
+        }
+    }
+}
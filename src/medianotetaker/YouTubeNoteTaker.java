@@ -1,12 +1,23 @@
 package medianotetaker;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
+import javafx.concurrent.Worker;
 import javafx.concurrent.Worker.State;
+import javafx.event.ActionEvent;
 import javafx.geometry.Pos;
+import javafx.scene.control.Button;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.web.WebEngine;
 import javafx.scene.web.WebView;
 import javafx.util.Duration;
+import netscape.javascript.JSObject;
 
 public class YouTubeNoteTaker extends MediaNoteTaker {
 
@@ -16,41 +27,188 @@ public class YouTubeNoteTaker extends MediaNoteTaker {
     private Duration totalDuration;
     private String videoID;
     private NoteProgress previousProgress;
+    /* the page pushes the player's state and time to the bridge, so the
+       time is known without calling into the page; the bridge has to be
+       kept here, as the page only holds it weakly */
+    private final PlayerBridge bridge;
+    private final Map<String, LatencyHistogram> scriptLatencies;
+    /* how long the video is known to be before its player is ready (from
+       the previous progress or the metadata cache), or null */
+    private Duration knownDuration;
+    private VideoMetadataCache metadataCache;
+    private String playerPage;
+    private Runnable onPlayerReady;
+    private ChangeListener<Number> browserWidthListener;
+    // waits for the player page to load, until it has
+    private ChangeListener<State> pageLoadListener;
+
+    // the page that plays videos from YouTube
+    static final String YOUTUBE_PLAYER_PAGE = "onlinevideonotetaker.html";
+    /* the stand-in page that plays a local video or a simulated one with the
+       same functions, for when there's no network (e.g. to benchmark) */
+    static final String OFFLINE_PLAYER_PAGE = "offlineplayer.html";
 
     // constructor: with dimension width * height
     public YouTubeNoteTaker(final int width, final int height) {
         super(width, height);
         mainPane = new BorderPane();
+        playerPage = YOUTUBE_PLAYER_PAGE;
+        scriptLatencies = new LinkedHashMap();
+        bridge = new PlayerBridge();
+        /* the notes shown as covering what's playing follow the bridge's
+           clock, which runs between the player's calls, so they're
+           updated every NOW_PLAYING_INTERVAL while it plays (reading the
+           time off the bridge's clock makes no script call) */
+        playbackClock = new PlaybackClock(() -> bridge.isReady()
+                ? getCurrentTimeInVideo() : null);
+        playbackClock.subscribe(this::updateNowPlaying, NOW_PLAYING_INTERVAL);
+        bridge.setOnReady(() -> {
+            playbackClock.setPlaying(bridge.isPlaying());
+            reconcileDuration();
+            if (onPlayerReady != null) {
+                onPlayerReady.run();
+            }
+        });
+        // a page taken from the pool may tell of the state of the video
+        // it played before, until the new one is ready
+        bridge.setOnStateChanged(() -> {
+            if (bridge.isReady()) {
+                playbackClock.setPlaying(bridge.isPlaying());
+            }
+        });
+    }
+
+    /*
+    set the cache the durations of videos are looked up in (and stored in,
+    once their players are ready); null for none
+     */
+    void setMetadataCache(final VideoMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    /*
+    set the page (one of YOUTUBE_PLAYER_PAGE and OFFLINE_PLAYER_PAGE) that
+    plays the video; this has to be called before startPlaying
+     */
+    void setPlayerPage(final String playerPage) {
+        this.playerPage = playerPage;
+    }
+
+    // set what to run once the player is ready (i.e. it has the video)
+    void setOnPlayerReady(final Runnable onPlayerReady) {
+        this.onPlayerReady = onPlayerReady;
+    }
+
+    /*
+    once the player is ready, lay the markers out again if the video's
+    duration isn't the one they were laid out with before, and remember it
+    in the metadata cache
+     */
+    private void reconcileDuration() {
+        Duration live = getTotalDuration();
+        if (live == null) {
+            return;
+        }
+        if (knownDuration == null
+                || Math.abs(live.toMillis() - knownDuration.toMillis()) >= 1) {
+            totalDuration = null;
+            updateNoteMarkerPosition();
+        }
+        knownDuration = live;
+        if (metadataCache != null) {
+            VideoMetadataCache cache = metadataCache;
+            String id = videoID;
+            long millis = (long) live.toMillis();
+            Thread thread = new Thread(() -> {
+                try {
+                    cache.putDurationMillis(id, millis);
+                } catch (IOException ex) {
+                    // the duration is only looked up again next time
+                }
+            }, "Video metadata writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /*
+    set how long the video is known to be before its player is ready: as
+    long as it was in the previous progress, or as the metadata cache says
+     */
+    private void lookUpKnownDuration() {
+        knownDuration = null;
+        if (previousProgress != null) {
+            Duration saved = previousProgress.getTotalDuration();
+            if (saved != null && !saved.isUnknown()
+                    && !saved.isIndefinite()
+                    && saved.greaterThan(Duration.ZERO)) {
+                knownDuration = saved;
+            }
+        }
+        if (knownDuration == null && metadataCache != null) {
+            long millis = metadataCache.getDurationMillis(videoID);
+            if (millis > 0) {
+                knownDuration = Duration.millis(millis);
+            }
+        }
     }
 
     /*
     load the video in the web engine with videoID, which should have
-    been specified earlier; also if withPreviousProgress is true, import
-    previousProgress
+    been specified earlier; a web engine from the engine pool that has the
+    player page loaded (or loading) already is only handed the video
     
-    requires: --> previousProgress == null if and only if
-              withPreviousProgress == false
-              --> should call this after videoID has been set and web engine
+    requires: should call this after videoID has been set and web engine
               has been initialized
      */
-    private void loadVideo(final boolean withPreviousProgress,
-            final NoteProgress previousProgress) {
-        String url = getClass().
-                getResource("onlinevideonotetaker.html").toExternalForm();
-        webEngine.load(url);
-
-        webEngine.getLoadWorker().stateProperty().addListener(
-                (ObservableValue<? extends State> observable,
-                        State oldValue, State newValue) -> {
-                    if (newValue == State.SUCCEEDED) {
-                        webEngine.executeScript("setVideoID('" + videoID + "')");
-                        if (withPreviousProgress) {
-                            importPreviousProgress(previousProgress);
-                        }
-                    }
+    private void loadVideo() {
+        String url = getClass().getResource(playerPage).toExternalForm();
+        Worker<Void> loader = webEngine.getLoadWorker();
+        boolean pageLoaded = url.equals(webEngine.getLocation());
+        if (pageLoaded && loader.getState() == State.SUCCEEDED) {
+            startVideo();
+            return;
+        }
+        if (!pageLoaded || loader.getState() != State.RUNNING) {
+            webEngine.load(url);
+        }
+
+        pageLoadListener = (ObservableValue<? extends State> observable,
+                State oldValue, State newValue) -> {
+            if (newValue == State.SUCCEEDED || newValue == State.FAILED
+                    || newValue == State.CANCELLED) {
+                observable.removeListener(pageLoadListener);
+                pageLoadListener = null;
+                if (newValue == State.SUCCEEDED) {
+                    startVideo();
                 }
-        );
+            }
+        };
+        loader.stateProperty().addListener(pageLoadListener);
+    }
+
+    // hand the bridge and the video to the loaded player page
+    private void startVideo() {
+        JSObject window = (JSObject) webEngine.executeScript("window");
+        window.setMember("javaBridge", bridge);
+        script("setVideoID('" + videoID + "', "
+                + PlayerBridge.TICK_INTERVAL + ")");
+    }
 
+    /*
+    go to the start time of the marker before (or, if forward is true,
+    after) the current time, if there's one
+     */
+    private void goToMarker(final boolean forward) {
+        if (!bridge.isReady()) {
+            return;
+        }
+        Duration now = getCurrentTimeInVideo();
+        Duration time = forward ? getNextMarkerTime(now)
+                : getPreviousMarkerTime(now);
+        if (time != null) {
+            seekInVideo(time);
+        }
     }
 
     /*
@@ -58,13 +216,14 @@ public class YouTubeNoteTaker extends MediaNoteTaker {
     can be updated if the browser's width changes in the future
      */
     private void setupBrowser() {
-        browser = new WebView();
-        browser.widthProperty().addListener(
-                (ObservableValue<? extends Number> observable,
-                        Number oldValue, Number newValue) -> {
-                    updateNoteMarkerPosition();
-                }
-        );
+        browser = enginePool != null
+                && enginePool.getPlayerPage().equals(playerPage)
+                ? enginePool.takeWebView() : new WebView();
+        browserWidthListener = (ObservableValue<? extends Number> observable,
+                Number oldValue, Number newValue) -> {
+            updateNoteMarkerPosition();
+        };
+        browser.widthProperty().addListener(browserWidthListener);
     }
 
     /*
@@ -88,15 +247,18 @@ public class YouTubeNoteTaker extends MediaNoteTaker {
         setupBrowser();
 
         this.videoID = videoID;
+        lookUpKnownDuration();
         webEngine = browser.getEngine();
-        loadVideo(false, null);
+        loadVideo();
 
         showBrowserAndNoteTakingTools();
     }
 
     /*
     load the embedded url of YouTube video with videoID and also
-    import previousProgress
+    import previousProgress; its markers are shown (laid out along the
+    duration it was saved with) straight away rather than once the player
+    has loaded, and are laid out again if the player says otherwise
     
     requires: videoID, previousProgress != null
               videoID should be a valid YouTube video ID
@@ -106,8 +268,10 @@ public class YouTubeNoteTaker extends MediaNoteTaker {
         setupBrowser();
 
         this.videoID = videoID;
+        lookUpKnownDuration();
+        importPreviousProgress(previousProgress);
         webEngine = browser.getEngine();
-        loadVideo(true, previousProgress);
+        loadVideo();
 
         showBrowserAndNoteTakingTools();
     }
@@ -120,10 +284,25 @@ public class YouTubeNoteTaker extends MediaNoteTaker {
               calling this
      */
     private BorderPane assembleNoteTakingTools() {
+        Button previousMarker = createButton("rewind.png");
+        previousMarker.setStyle("-fx-background-color:BLACK");
+        previousMarker.setOnAction((ActionEvent e) -> {
+            goToMarker(false);
+        });
+        Button nextMarker = createButton("fast_forward.png");
+        nextMarker.setStyle("-fx-background-color:BLACK");
+        nextMarker.setOnAction((ActionEvent e) -> {
+            goToMarker(true);
+        });
+        HBox navigation = new HBox(5, previousMarker, nextMarker, nowPlaying);
+        navigation.setAlignment(Pos.CENTER_LEFT);
+
+        BorderPane top = new BorderPane();
+        top.setLeft(navigation);
+        top.setRight(makeNote);
         BorderPane tools = new BorderPane();
         tools.setCenter(noteMarkingArea);
-        tools.setTop(makeNote);
-        BorderPane.setAlignment(makeNote, Pos.TOP_RIGHT);
+        tools.setTop(top);
         return tools;
     }
 
@@ -134,16 +313,64 @@ public class YouTubeNoteTaker extends MediaNoteTaker {
         return videoID;
     }
 
-    //get the current time in the media
+    /*
+    return how long the script calls into the page have taken, per
+    function called, and how long the page's calls into the bridge took to
+    arrive
+     */
+    List<LatencyHistogram> getScriptLatencies() {
+        List<LatencyHistogram> latencies = new ArrayList(
+                scriptLatencies.values());
+        latencies.add(bridge.getPushLatency());
+        return latencies;
+    }
+
+    /*
+    run call (a call of a function of the page) in the web engine, recording
+    how long it takes, and return what it returns
+    
+    requires: call != null
+     */
+    Object script(final String call) {
+        String function = call.substring(0, Math.max(0, call.indexOf('(')));
+        LatencyHistogram latency = scriptLatencies.get(function);
+        if (latency == null) {
+            latency = new LatencyHistogram(function);
+            scriptLatencies.put(function, latency);
+        }
+        long start = System.nanoTime();
+        try {
+            return webEngine.executeScript(call);
+        } finally {
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    // return true once the player page has reported that it's ready
+    @Override
+    protected boolean isPlayerReady() {
+        return bridge.isReady();
+    }
+
+    /*
+    get the current time in the media, from the bridge's clock rather than
+    from the page
+    
+    requires: the player is ready
+     */
     @Override
     protected Duration getCurrentTimeInVideo() {
-        double seconds = (double) webEngine.executeScript("getCurrentTime()");
-        return new Duration(seconds * 1000);
+        if (!bridge.isReady()) {
+            throw new IllegalStateException("The player isn't ready yet");
+        }
+        return Duration.millis(bridge.getCurrentMillis());
     }
 
     /*
     get the appropriate horizontal position along the note marking area
-    based on the time in the media associated with that marker
+    based on the time in the media associated with that marker; the
+    markers are all put at the start while the duration isn't known yet,
+    and laid out again once it is
     
     requires: time != null
               0 <= time <= total duration of media
@@ -154,6 +381,9 @@ public class YouTubeNoteTaker extends MediaNoteTaker {
         if (totalDuration == null) {
             totalDuration = getTotalDuration();
         }
+        if (totalDuration == null || totalDuration.toSeconds() <= 0) {
+            return 2;
+        }
         return seconds / totalDuration.toSeconds() * getWidth() + 2;
     }
 
@@ -169,38 +399,75 @@ public class YouTubeNoteTaker extends MediaNoteTaker {
     @Override
     protected void seekInVideo(final Duration time) {
         double seconds = time.toSeconds();
-        webEngine.executeScript("seekInVideo(" + seconds + ")");
+        script("seekInVideo(" + seconds + ")");
+        bridge.seek(time.toMillis());
+        playbackClock.changed();
     }
 
     // pause the media
     @Override
     protected void pauseVideo() {
-        webEngine.executeScript("pauseVideo()");
+        script("pauseVideo()");
     }
 
     // play the media
     @Override
     protected void playVideo() {
-        webEngine.executeScript("playVideo()");
+        script("playVideo()");
     }
 
-    // get the total duration of the current media
+    /*
+    get the total duration of the current media, as the page told the
+    bridge, or as it's known from before if the player isn't ready yet (or
+    null if it isn't known at all)
+     */
     @Override
     protected Duration getTotalDuration() {
-        Duration total = null;
-        try {
-            double seconds = (double) (webEngine.executeScript("getTotalDuration()"));
-            total = new Duration(seconds * 1000);
-        } catch (Exception e) {
-            if (previousProgress != null)
-            total = previousProgress.getTotalDuration();
+        if (bridge.getDurationMillis() > 0) {
+            return Duration.millis(bridge.getDurationMillis());
         }
-        return total;
+        return knownDuration;
     }
     
     // stop the media
     @Override
     protected void stopVideo() {
-        webEngine.executeScript("stopVideo()");
+        playbackClock.setPlaying(false);
+        script("stopVideo()");
+    }
+
+    /*
+    stop the video and cut the page off from this session's bridge and
+    listeners; the web view (with the player page still loaded) is given
+    back to the engine pool, or else the page is unloaded, so its player
+    and timers stop at once rather than when the web engine is collected
+     */
+    @Override
+    protected void releaseMedia() {
+        mainPane.setCenter(null);
+        if (browser == null) {
+            return;
+        }
+        browser.widthProperty().removeListener(browserWidthListener);
+        if (pageLoadListener != null) {
+            webEngine.getLoadWorker().stateProperty().removeListener(
+                    pageLoadListener);
+            pageLoadListener = null;
+        }
+        try {
+            script("stopVideo()");
+        } catch (RuntimeException ex) {
+            // the player never loaded; there's nothing to stop
+        }
+        JSObject window = (JSObject) webEngine.executeScript("window");
+        window.removeMember("javaBridge");
+        if (enginePool != null && enginePool.getPlayerPage()
+                .equals(playerPage)) {
+            enginePool.giveBack(browser);
+        } else {
+            webEngine.load(null);
+        }
+        browser = null;
+        webEngine = null;
     }
 }
@@ -0,0 +1,121 @@
+package medianotetaker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import javafx.util.Duration;
+
+
+/*
+Checks of the progress batch tool, run without a display:
+
+    java medianotetaker.ProgressBatchToolTest
+
+Every check is run, what failed is printed, and the exit status is 1 if
+anything failed.
+*/
+public final class ProgressBatchToolTest {
+
+    static final String PASSPHRASE = "correct horse battery staple";
+    static final String NOTE = "a note that mustn't be written in the clear";
+
+    private static int failures = 0;
+
+    public static void main(final String[] args) throws Exception {
+        convertKeepsEncryptedProgressSealed();
+        convertKeepsPlainProgressPlain();
+        System.out.println(failures == 0 ? "ok" : failures + " failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // an encrypted progress is converted into one sealed with its own key
+    static void convertKeepsEncryptedProgressSealed() throws Exception {
+        File dir = Files.createTempDirectory("batch").toFile();
+        File input = new File(dir, "lecture.dat");
+        ProgressFileFormat.write(progress(), input,
+                ProgressKey.create(PASSPHRASE.toCharArray()));
+        File out = new File(dir, "out");
+
+        int status = convert(input, out, Collections.singletonMap(
+                "MNT_PASSPHRASE", PASSPHRASE), "--passphrase-env",
+                "MNT_PASSPHRASE");
+
+        File converted = new File(out, "lecture.dat");
+        check(status == ProgressBatchTool.OK, "convert succeeds");
+        check(EncryptedProgressFile.isEncrypted(converted),
+                "the converted progress is encrypted");
+        check(!contains(converted, NOTE),
+                "the note isn't in the converted file in the clear");
+        ProgressKey key = EncryptedProgressFile.unlock(converted,
+                PASSPHRASE.toCharArray());
+        check(key != null, "the passphrase unlocks the converted progress");
+        if (key != null) {
+            NoteProgress read = ProgressFileFormat.read(converted, key);
+            check(NOTE.equals(read.getInfoList().get(0).getNote()),
+                    "the converted progress has the note");
+        }
+    }
+
+    // a plain progress is converted into a plain one
+    static void convertKeepsPlainProgressPlain() throws Exception {
+        File dir = Files.createTempDirectory("batch").toFile();
+        File input = new File(dir, "lecture.dat");
+        ProgressFileFormat.write(progress(), input);
+        File out = new File(dir, "out");
+
+        int status = convert(input, out,
+                Collections.<String, String>emptyMap());
+
+        File converted = new File(out, "lecture.dat");
+        check(status == ProgressBatchTool.OK, "convert succeeds");
+        check(!EncryptedProgressFile.isEncrypted(converted),
+                "the converted progress isn't encrypted");
+        check(NOTE.equals(ProgressFileFormat.read(converted).getInfoList()
+                .get(0).getNote()), "the converted progress has the note");
+    }
+
+    // run convert on input into out, with options; return the exit status
+    private static int convert(final File input, final File out,
+            final Map<String, String> environment, final String... options) {
+        ArrayList<String> args = new ArrayList();
+        args.add("convert");
+        Collections.addAll(args, options);
+        args.add("--out");
+        args.add(out.getPath());
+        args.add(input.getPath());
+        PrintStream discard = new PrintStream(new ByteArrayOutputStream());
+        return ProgressBatchTool.run(args.toArray(new String[0]),
+                environment, discard, discard);
+    }
+
+    // return a progress with a single marker holding NOTE
+    private static NoteProgress progress() {
+        NoteMarkerInfo info = new NoteMarkerInfo(Duration.seconds(12));
+        info.setNote(NOTE);
+        ArrayList<NoteMarkerInfo> infoList = new ArrayList();
+        infoList.add(info);
+        return new NoteProgress(infoList, true, true, "lecture.wav",
+                "lecture.wav", Duration.minutes(50));
+    }
+
+    // return true if the bytes of file contain s
+    private static boolean contains(final File file, final String s)
+            throws IOException {
+        return new String(Files.readAllBytes(file.toPath()),
+                StandardCharsets.ISO_8859_1).contains(s);
+    }
+
+    // count a failure if condition doesn't hold
+    private static void check(final boolean condition, final String what) {
+        if (!condition) {
+            System.out.println("FAILED: " + what);
+            ++failures;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package medianotetaker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import javafx.util.Duration;
+
+
+/*
+Checks of the progress file format, run without a display:
+
+    java medianotetaker.ProgressFileFormatTest
+
+Every check is run, what failed is printed, and the exit status is 1 if
+anything failed.
+*/
+public final class ProgressFileFormatTest {
+
+    private static int failures = 0;
+
+    public static void main(final String[] args) throws Exception {
+        readsWhatItWrites();
+        rejectsHugeCounts();
+        rejectsNegativeCounts();
+        rejectsNotesLongerThanTheFile();
+        rejectsTruncatedFiles();
+        System.out.println(failures == 0 ? "ok" : failures + " failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    static void readsWhatItWrites() throws Exception {
+        File file = File.createTempFile("progress", ".dat");
+        file.deleteOnExit();
+        ProgressFileFormat.write(progress(), file);
+        NoteProgress read = ProgressFileFormat.read(file);
+        check(read.getInfoList().size() == 3, "every marker is read");
+        check(longNote().equals(read.getInfoList().get(2).getNote()),
+                "a deflated note is read back");
+        NoteProgress lazy = ProgressFileFormat.readLazily(file);
+        check(longNote().equals(lazy.getInfoList().get(2).getNote()),
+                "a deflated note is fetched back");
+    }
+
+    // a string table as long as an int can count is past the file's end
+    static void rejectsHugeCounts() throws Exception {
+        ByteArrayOutputStream bytes = header();
+        DataOutputStream data = new DataOutputStream(bytes);
+        ProgressFileFormat.writeVarLong(data, Integer.MAX_VALUE - 8);
+        data.writeByte(0);
+        checkCorrupt(bytes.toByteArray(), "a huge string count");
+
+        bytes = header();
+        data = new DataOutputStream(bytes);
+        ProgressFileFormat.writeVarLong(data, 0);
+        ProgressFileFormat.writeVarLong(data, Integer.MAX_VALUE - 8);
+        checkCorrupt(bytes.toByteArray(), "a huge marker count");
+
+        bytes = new ByteArrayOutputStream();
+        data = new DataOutputStream(bytes);
+        data.writeInt(ProgressFileFormat.MAGIC);
+        data.writeByte(ProgressFileFormat.VERSION);
+        data.writeByte(0);
+        ProgressFileFormat.writeVarLong(data, Integer.MAX_VALUE - 8);
+        checkCorrupt(bytes.toByteArray(), "a huge media source length");
+    }
+
+    // a varint over 63 bits reads as a negative count
+    static void rejectsNegativeCounts() throws Exception {
+        ByteArrayOutputStream bytes = header();
+        DataOutputStream data = new DataOutputStream(bytes);
+        ProgressFileFormat.writeVarLong(data, -5);
+        data.writeByte(0);
+        checkCorrupt(bytes.toByteArray(), "a negative string count");
+    }
+
+    // the index says a note is longer than what's left of the file
+    static void rejectsNotesLongerThanTheFile() throws Exception {
+        File file = File.createTempFile("progress", ".dat");
+        file.deleteOnExit();
+        ProgressFileFormat.write(progress(), file);
+        byte[] valid = Files.readAllBytes(file.toPath());
+        // the note index follows the markers' checksum: the note count,
+        // then per note its stored and its raw length
+        int index = indexOffset(valid);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(valid, 0, index);
+        DataOutputStream data = new DataOutputStream(bytes);
+        ProgressFileFormat.writeVarLong(data, 1);
+        ProgressFileFormat.writeVarLong(data,
+                (long) (Integer.MAX_VALUE - 8) << 1 | 1);
+        ProgressFileFormat.writeVarLong(data, Integer.MAX_VALUE - 8);
+        data.writeInt(0);
+        checkCorrupt(bytes.toByteArray(), "a note longer than the file");
+    }
+
+    // a file cut off anywhere is reported as corrupt, never anything else
+    static void rejectsTruncatedFiles() throws Exception {
+        File file = File.createTempFile("progress", ".dat");
+        file.deleteOnExit();
+        ProgressFileFormat.write(progress(), file);
+        byte[] valid = Files.readAllBytes(file.toPath());
+        for (int length = 4; length < valid.length; ++length) {
+            checkCorrupt(Arrays.copyOf(valid, length),
+                    "the file cut off after " + length + " bytes");
+        }
+    }
+
+    // return the header of a progress with empty media source and name
+    private static ByteArrayOutputStream header() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(ProgressFileFormat.MAGIC);
+        data.writeByte(ProgressFileFormat.VERSION);
+        data.writeByte(0);
+        ProgressFileFormat.writeString(data, "");
+        ProgressFileFormat.writeString(data, "");
+        return bytes;
+    }
+
+    /*
+    return where the note index of valid, written from progress(), starts:
+    right after the markers' checksum, found by writing the same progress
+    without notes
+    */
+    private static int indexOffset(final byte[] valid) throws IOException {
+        NoteProgress bare = progress();
+        for (NoteMarkerInfo info : bare.getInfoList()) {
+            info.setNote(null);
+        }
+        File file = File.createTempFile("progress", ".dat");
+        file.deleteOnExit();
+        ProgressFileFormat.write(bare, file);
+        // no notes: the index is a single 0, then the final checksum
+        return (int) file.length() - 1 - 4;
+    }
+
+    /*
+    count a failure unless bytes, as a progress file, are rejected with
+    an IOException by both read and readLazily
+    */
+    private static void checkCorrupt(final byte[] bytes, final String what)
+            throws IOException {
+        File file = File.createTempFile("corrupt", ".dat");
+        file.deleteOnExit();
+        Files.write(file.toPath(), bytes);
+        for (int lazily = 0; lazily < 2; ++lazily) {
+            String how = lazily == 1 ? "readLazily" : "read";
+            try {
+                if (lazily == 1) {
+                    ProgressFileFormat.readLazily(file);
+                } else {
+                    ProgressFileFormat.read(file);
+                }
+                check(false, how + " rejects " + what);
+            } catch (IOException ex) {
+                // rejected as it should be
+            } catch (RuntimeException | Error ex) {
+                check(false, how + " rejects " + what + " with an "
+                        + "IOException, not " + ex);
+            }
+        }
+    }
+
+    // return a progress with a short and a long note, and a bare marker
+    private static NoteProgress progress() {
+        ArrayList<NoteMarkerInfo> infoList = new ArrayList();
+        NoteMarkerInfo info = new NoteMarkerInfo(Duration.seconds(3));
+        info.setType("Question");
+        info.setNote("short");
+        infoList.add(info);
+        infoList.add(new NoteMarkerInfo(Duration.seconds(9)));
+        info = new NoteMarkerInfo(Duration.seconds(20));
+        info.setEndTime(Duration.seconds(40));
+        info.setNote(longNote());
+        infoList.add(info);
+        return new NoteProgress(infoList, true, true, "lecture.wav",
+                "lecture.wav", Duration.minutes(50));
+    }
+
+    // return a note long enough to be deflated
+    private static String longNote() {
+        StringBuilder note = new StringBuilder();
+        for (int i = 0; i < 40; ++i) {
+            note.append("the same line over and over ");
+        }
+        return note.toString();
+    }
+
+    // count a failure if condition doesn't hold
+    private static void check(final boolean condition, final String what) {
+        if (!condition) {
+            System.out.println("FAILED: " + what);
+            ++failures;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package medianotetaker;
+
+import javafx.util.Duration;
+
+
+/*
+Checks of the time formatter, run without a display:
+
+    java medianotetaker.TimeFormatterTest
+
+Every check is run, what failed is printed, and the exit status is 1 if
+anything failed.
+*/
+public final class TimeFormatterTest {
+
+    private static int failures = 0;
+
+    public static void main(final String[] args) {
+        formatsTimes();
+        formatsIndefiniteAndUnknown();
+        formatsLongestTimeInBuffer();
+        parsesWhatItFormats();
+        System.out.println(failures == 0 ? "ok" : failures + " failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    static void formatsTimes() {
+        checkFormat(Duration.ZERO, "00:00");
+        checkFormat(Duration.millis(59999), "00:59");
+        checkFormat(Duration.seconds(61), "01:01");
+        checkFormat(Duration.hours(1), "01:00:00");
+        checkFormat(Duration.hours(123).add(Duration.seconds(4)),
+                "123:00:04");
+        checkFormat(Duration.seconds(-5), "00:00");
+    }
+
+    // an indefinite time is the longest there is, an unknown one is 0
+    static void formatsIndefiniteAndUnknown() {
+        checkFormat(Duration.INDEFINITE, "2562047788015215:30:07");
+        checkFormat(Duration.UNKNOWN, "00:00");
+        checkFormat(Duration.millis(Double.NaN), "00:00");
+    }
+
+    // the longest time fits in MAX_LENGTH chars from any offset
+    static void formatsLongestTimeInBuffer() {
+        char[] buffer = new char[3 + TimeFormatter.MAX_LENGTH];
+        int length = TimeFormatter.formatSeconds(Long.MAX_VALUE, buffer, 3);
+        check(length == TimeFormatter.MAX_LENGTH,
+                "the longest time takes MAX_LENGTH chars, not " + length);
+    }
+
+    static void parsesWhatItFormats() {
+        for (long seconds = 0; seconds < 400000; seconds += 7) {
+            String s = TimeFormatter.formatTime(Duration.seconds(seconds));
+            check(TimeFormatter.parseMillis(s, 0, s.length())
+                    == seconds * 1000, s + " parses back");
+        }
+        check(TimeFormatter.parseMillis("1:02:03.5", 0, 9) == 3723500,
+                "fractions of a second are parsed");
+        check(TimeFormatter.parseTime("1:2") == null,
+                "a single digit of seconds isn't a time");
+    }
+
+    // check that time is formatted as expected
+    private static void checkFormat(final Duration time,
+            final String expected) {
+        String formatted;
+        try {
+            formatted = TimeFormatter.formatTime(time);
+        } catch (RuntimeException ex) {
+            formatted = ex.toString();
+        }
+        check(expected.equals(formatted), time + " is formatted as "
+                + expected + ", not " + formatted);
+    }
+
+    // count a failure if condition doesn't hold
+    private static void check(final boolean condition, final String what) {
+        if (!condition) {
+            System.out.println("FAILED: " + what);
+            ++failures;
+        }
+    }
+}